@@ -0,0 +1,483 @@
+package uk.ac.dotrural.prov;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous front end to a {@link ProvenanceBuilder}. Assertions are
+ * recorded into a bounded, lock free queue and a background thread replays
+ * them onto the delegate builder in batches, so capturing provenance does not
+ * add store latency to the calling thread.
+ * <p>
+ * After each batch has been replayed the optional <code>afterBatch</code>
+ * action is run; for a builder that only collects updates, such as
+ * <code>ProvSparqlUpdateBuilder</code>, this should send the collected updates
+ * to the store and clear them. {@link #flush()} and {@link #close()} return
+ * only once everything recorded before the call has been replayed.
+ * <p>
+ * A batch that fails to replay, for example because the store is unavailable,
+ * is not retried. The optional <code>discardBatch</code> action is run to drop
+ * whatever the batch left in the delegate, such as updates collected but not
+ * sent; without it they stay in the delegate and go out with the next batch.
+ * The assertions of the batch are counted by {@link #getFailed()} and the first
+ * error is rethrown by the next call to {@link #flush()} or {@link #close()}.
+ * <p>
+ * As assertions are applied later the methods of this class return true when
+ * the assertion has been queued, not when it has been stored.
+ */
+public class AsyncProvenanceBuilder implements ProvenanceBuilder, Closeable {
+
+	/**
+	 * What to do when an assertion is recorded while the queue is full
+	 */
+	public enum Backpressure {
+		/** Wait for the flusher to make space */
+		BLOCK,
+		/** Discard the assertion and return false */
+		DROP
+	}
+
+	public static final int DEFAULT_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+	private final String ns;
+	private final ProvenanceBuilder delegate;
+	private final Runnable afterBatch;
+	private final Runnable discardBatch;
+	private final int batchSize;
+	private final long flushIntervalNanos;
+	private final Backpressure backpressure;
+
+	private final ConcurrentLinkedQueue<Assertion> queue;
+	private final AtomicInteger queued;
+	private final Semaphore space;
+	private final ReentrantLock drainLock;
+	private final AtomicLong dropped;
+	private final AtomicLong failed;
+	private final AtomicReference<RuntimeException> failure;
+	private final AtomicInteger recording;
+	private final Thread flusher;
+	private volatile boolean closed;
+	private volatile boolean wakeRequested;
+
+	public AsyncProvenanceBuilder(String ns, ProvenanceBuilder delegate,
+			Runnable afterBatch) {
+		this(ns, delegate, afterBatch, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE,
+				DEFAULT_FLUSH_INTERVAL, Backpressure.BLOCK);
+	}
+
+	/**
+	 * @param ns
+	 *            namespace used when generating URIs
+	 * @param delegate
+	 *            builder assertions are replayed onto
+	 * @param afterBatch
+	 *            run after each batch has been replayed onto delegate, may be
+	 *            null
+	 * @param capacity
+	 *            maximum number of queued assertions
+	 * @param batchSize
+	 *            maximum number of assertions replayed per batch; the flusher
+	 *            is woken early when this many are queued
+	 * @param flushIntervalMillis
+	 *            maximum time between flushes
+	 * @param backpressure
+	 *            behaviour when the queue is full
+	 */
+	public AsyncProvenanceBuilder(String ns, ProvenanceBuilder delegate,
+			Runnable afterBatch, int capacity, int batchSize,
+			long flushIntervalMillis, Backpressure backpressure) {
+		this(ns, delegate, afterBatch, null, capacity, batchSize,
+				flushIntervalMillis, backpressure);
+	}
+
+	/**
+	 * @param ns
+	 *            namespace used when generating URIs
+	 * @param delegate
+	 *            builder assertions are replayed onto
+	 * @param afterBatch
+	 *            run after each batch has been replayed onto delegate, may be
+	 *            null
+	 * @param discardBatch
+	 *            run when replaying a batch or afterBatch fails, to discard
+	 *            what the batch left in delegate, may be null
+	 * @param capacity
+	 *            maximum number of queued assertions
+	 * @param batchSize
+	 *            maximum number of assertions replayed per batch; the flusher
+	 *            is woken early when this many are queued
+	 * @param flushIntervalMillis
+	 *            maximum time between flushes
+	 * @param backpressure
+	 *            behaviour when the queue is full
+	 */
+	public AsyncProvenanceBuilder(String ns, ProvenanceBuilder delegate,
+			Runnable afterBatch, Runnable discardBatch, int capacity,
+			int batchSize, long flushIntervalMillis, Backpressure backpressure) {
+		super();
+		if (capacity < 1 || batchSize < 1 || flushIntervalMillis < 1) {
+			throw new IllegalArgumentException(
+					"Capacity, batch size and flush interval must be positive");
+		}
+		this.ns = ns;
+		this.delegate = delegate;
+		this.afterBatch = afterBatch;
+		this.discardBatch = discardBatch;
+		this.batchSize = batchSize;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS
+				.toNanos(flushIntervalMillis);
+		this.backpressure = backpressure;
+		this.queue = new ConcurrentLinkedQueue<Assertion>();
+		this.queued = new AtomicInteger();
+		this.space = new Semaphore(capacity);
+		this.drainLock = new ReentrantLock();
+		this.dropped = new AtomicLong();
+		this.failed = new AtomicLong();
+		this.failure = new AtomicReference<RuntimeException>();
+		this.recording = new AtomicInteger();
+		this.flusher = new Thread(new Runnable() {
+			public void run() {
+				runFlusher();
+			}
+		}, "provenance-flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * Gets the number of assertions discarded because the queue was full
+	 * 
+	 * @return number of dropped assertions
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the number of assertions in batches that failed to replay
+	 * 
+	 * @return number of failed assertions
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Gets the number of assertions waiting to be replayed
+	 * 
+	 * @return number of queued assertions
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * Replays all queued assertions onto the delegate, returning once
+	 * everything recorded before the call has been applied
+	 * 
+	 * @throws IllegalStateException
+	 *             if a batch has failed to replay since the last flush
+	 */
+	public void flush() {
+		drain();
+		checkFailure();
+	}
+
+	/**
+	 * Stops the background flusher and replays any remaining assertions,
+	 * including those being recorded by other threads as close is called.
+	 * Assertions recorded after close are rejected.
+	 * 
+	 * @throws IllegalStateException
+	 *             if a batch has failed to replay since the last flush
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		wakeFlusher();
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		drain();
+		// writers that passed the closed check before it was set, some may
+		// be waiting for space
+		while (recording.get() > 0) {
+			Thread.yield();
+			drain();
+		}
+		drain();
+		checkFailure();
+	}
+
+	public boolean addActedOnBehalfOf(String agent1Uri, String agent2Uri) {
+		return record(Assertion.ACTED_ON_BEHALF_OF, agent1Uri, agent2Uri, 0);
+	}
+
+	public boolean addEndedAtTime(String activityUri, long timestamp) {
+		return record(Assertion.ENDED_AT_TIME, activityUri, null, timestamp);
+	}
+
+	public boolean addStartedAtTime(String activityUri, long timestamp) {
+		return record(Assertion.STARTED_AT_TIME, activityUri, null, timestamp);
+	}
+
+	public boolean addUsed(String activityUri, String entityUri) {
+		return record(Assertion.USED, activityUri, entityUri, 0);
+	}
+
+	public boolean addWasAssociatedWith(String activityUri, String agentUri) {
+		return record(Assertion.WAS_ASSOCIATED_WITH, activityUri, agentUri, 0);
+	}
+
+	public boolean addWasAttributedTo(String entityUri, String agentUri) {
+		return record(Assertion.WAS_ATTRIBUTED_TO, entityUri, agentUri, 0);
+	}
+
+	public boolean addWasDerivedFrom(String entity1Uri, String entity2Uri) {
+		return record(Assertion.WAS_DERIVED_FROM, entity1Uri, entity2Uri, 0);
+	}
+
+	public boolean addWasGeneratedBy(String entityUri, String activityUri) {
+		return record(Assertion.WAS_GENERATED_BY, entityUri, activityUri, 0);
+	}
+
+	public boolean addWasInformedBy(String activity1Uri, String activity2Uri) {
+		return record(Assertion.WAS_INFORMED_BY, activity1Uri, activity2Uri, 0);
+	}
+
+	public String createActivity() {
+		return createActivity(generateUri());
+	}
+
+	public String createActivity(String uri) {
+		record(Assertion.ACTIVITY, uri, null, 0);
+		return uri;
+	}
+
+	public String createAgent() {
+		return createAgent(generateUri());
+	}
+
+	public String createAgent(String uri) {
+		record(Assertion.AGENT, uri, null, 0);
+		return uri;
+	}
+
+	public String createEntity() {
+		return createEntity(generateUri());
+	}
+
+	public String createEntity(String uri) {
+		record(Assertion.ENTITY, uri, null, 0);
+		return uri;
+	}
+
+	/**
+	 * Queue an assertion, applying the backpressure policy if the queue is
+	 * full
+	 * 
+	 * @return true if the assertion was queued
+	 */
+	private boolean record(int kind, String subject, String object,
+			long timestamp) {
+		// counted before checking closed, so close waits for the assertion
+		recording.incrementAndGet();
+		try {
+			if (closed) {
+				throw new IllegalStateException("Builder has been closed");
+			}
+			if (backpressure == Backpressure.BLOCK) {
+				space.acquireUninterruptibly();
+			} else if (!space.tryAcquire()) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			queue.offer(new Assertion(kind, subject, object, timestamp));
+			if (queued.incrementAndGet() >= batchSize) {
+				wakeFlusher();
+			}
+			return true;
+		} finally {
+			recording.decrementAndGet();
+		}
+	}
+
+	private void wakeFlusher() {
+		wakeRequested = true;
+		LockSupport.unpark(flusher);
+	}
+
+	private void runFlusher() {
+		while (!closed) {
+			long deadline = System.nanoTime() + flushIntervalNanos;
+			long remaining = flushIntervalNanos;
+			// park again after spurious wake ups until due or woken
+			while (!closed && !wakeRequested && remaining > 0) {
+				LockSupport.parkNanos(this, remaining);
+				remaining = deadline - System.nanoTime();
+			}
+			wakeRequested = false;
+			drain();
+		}
+	}
+
+	/**
+	 * Rethrow the first failure since the last check
+	 */
+	private void checkFailure() {
+		RuntimeException e = failure.getAndSet(null);
+		if (e != null) {
+			throw new IllegalStateException(
+					"Assertions could not be replayed", e);
+		}
+	}
+
+	/**
+	 * Replay queued assertions onto the delegate in batches until the queue is
+	 * empty. A batch that fails is counted, discarded from the delegate and
+	 * the first failure kept.
+	 */
+	private void drain() {
+		drainLock.lock();
+		try {
+			List<Assertion> batch = new ArrayList<Assertion>(batchSize);
+			while (true) {
+				Assertion assertion;
+				while (batch.size() < batchSize
+						&& (assertion = queue.poll()) != null) {
+					batch.add(assertion);
+				}
+				queued.addAndGet(-batch.size());
+				if (batch.isEmpty()) {
+					return;
+				}
+				try {
+					for (Assertion a : batch) {
+						a.replay(delegate);
+					}
+					if (afterBatch != null) {
+						afterBatch.run();
+					}
+				} catch (RuntimeException e) {
+					failed.addAndGet(batch.size());
+					failure.compareAndSet(null, e);
+					discard();
+				} finally {
+					space.release(batch.size());
+					batch.clear();
+				}
+			}
+		} finally {
+			drainLock.unlock();
+		}
+	}
+
+	private void discard() {
+		if (discardBatch == null) {
+			return;
+		}
+		try {
+			discardBatch.run();
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Generate a URI containing a UUID
+	 * 
+	 * @return The new unique URI
+	 */
+	private String generateUri() {
+		return this.ns + UUID.randomUUID();
+	}
+
+	/**
+	 * A queued call to one of the {@link ProvenanceBuilder} methods
+	 */
+	private static final class Assertion {
+		static final int ACTED_ON_BEHALF_OF = 0;
+		static final int ENDED_AT_TIME = 1;
+		static final int STARTED_AT_TIME = 2;
+		static final int USED = 3;
+		static final int WAS_ASSOCIATED_WITH = 4;
+		static final int WAS_ATTRIBUTED_TO = 5;
+		static final int WAS_DERIVED_FROM = 6;
+		static final int WAS_GENERATED_BY = 7;
+		static final int WAS_INFORMED_BY = 8;
+		static final int ACTIVITY = 9;
+		static final int AGENT = 10;
+		static final int ENTITY = 11;
+
+		private final int kind;
+		private final String subject;
+		private final String object;
+		private final long timestamp;
+
+		Assertion(int kind, String subject, String object, long timestamp) {
+			this.kind = kind;
+			this.subject = subject;
+			this.object = object;
+			this.timestamp = timestamp;
+		}
+
+		void replay(ProvenanceBuilder builder) {
+			switch (kind) {
+			case ACTED_ON_BEHALF_OF:
+				builder.addActedOnBehalfOf(subject, object);
+				break;
+			case ENDED_AT_TIME:
+				builder.addEndedAtTime(subject, timestamp);
+				break;
+			case STARTED_AT_TIME:
+				builder.addStartedAtTime(subject, timestamp);
+				break;
+			case USED:
+				builder.addUsed(subject, object);
+				break;
+			case WAS_ASSOCIATED_WITH:
+				builder.addWasAssociatedWith(subject, object);
+				break;
+			case WAS_ATTRIBUTED_TO:
+				builder.addWasAttributedTo(subject, object);
+				break;
+			case WAS_DERIVED_FROM:
+				builder.addWasDerivedFrom(subject, object);
+				break;
+			case WAS_GENERATED_BY:
+				builder.addWasGeneratedBy(subject, object);
+				break;
+			case WAS_INFORMED_BY:
+				builder.addWasInformedBy(subject, object);
+				break;
+			case ACTIVITY:
+				builder.createActivity(subject);
+				break;
+			case AGENT:
+				builder.createAgent(subject);
+				break;
+			case ENTITY:
+				builder.createEntity(subject);
+				break;
+			default:
+				throw new IllegalStateException("Unknown assertion " + kind);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package uk.ac.dotrural.prov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The part of a provenance graph reachable from a resource by following
+ * lineage relations, as returned by
+ * {@link ProvenanceGetter#getLineage(String, int, int, Collection)}. Each edge
+ * records the number of hops from the root at which it was found.
+ */
+public class Lineage {
+
+	/**
+	 * Relations followed backwards from an Entity to what it came from:
+	 * wasDerivedFrom, wasGeneratedBy, used and wasInformedBy
+	 */
+	public static final Collection<String> BACKWARD = Collections
+			.unmodifiableList(Arrays.asList(ProvO.wasDerivedFrom,
+					ProvO.wasGeneratedBy, ProvO.used, ProvO.wasInformedBy));
+
+	/**
+	 * A statement in the lineage
+	 */
+	public static class Edge {
+		private final String subject;
+		private final String predicate;
+		private final String object;
+		private final int depth;
+
+		public Edge(String subject, String predicate, String object, int depth) {
+			this.subject = subject;
+			this.predicate = predicate;
+			this.object = object;
+			this.depth = depth;
+		}
+
+		public String getSubject() {
+			return subject;
+		}
+
+		public String getPredicate() {
+			return predicate;
+		}
+
+		public String getObject() {
+			return object;
+		}
+
+		/**
+		 * @return number of hops from the root, edges leaving the root have
+		 *         depth 1
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		@Override
+		public String toString() {
+			return depth + ": <" + subject + "> <" + predicate + "> <"
+					+ object + ">";
+		}
+	}
+
+	private final String root;
+	private final List<Edge> edges;
+	private final Map<String, Integer> depths;
+	private boolean truncated;
+
+	public Lineage(String root) {
+		super();
+		this.root = root;
+		this.edges = new ArrayList<Edge>();
+		this.depths = new LinkedHashMap<String, Integer>();
+		this.depths.put(root, 0);
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return the edges in the order they were found, breadth first
+	 */
+	public List<Edge> getEdges() {
+		return Collections.unmodifiableList(edges);
+	}
+
+	/**
+	 * Gets the number of hops on the shortest path from the root to a resource
+	 * 
+	 * @param uri
+	 *            URI of the resource
+	 * @return the depth, or -1 if the resource was not reached
+	 */
+	public int getDepth(String uri) {
+		Integer depth = depths.get(uri);
+		return depth == null ? -1 : depth;
+	}
+
+	/**
+	 * @return URIs of the root and all resources reached from it
+	 */
+	public Collection<String> getResources() {
+		return Collections.unmodifiableSet(depths.keySet());
+	}
+
+	/**
+	 * @return true if the traversal stopped early because the result limit
+	 *         was reached
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(boolean truncated) {
+		this.truncated = truncated;
+	}
+
+	/**
+	 * Adds an edge found during traversal
+	 * 
+	 * @return true if the object had not been reached before and so should be
+	 *         traversed from
+	 */
+	public boolean addEdge(String subject, String predicate, String object,
+			int depth) {
+		edges.add(new Edge(subject, predicate, object, depth));
+		if (depths.containsKey(object)) {
+			return false;
+		}
+		depths.put(object, depth);
+		return true;
+	}
+
+	public int size() {
+		return edges.size();
+	}
+}
@@ -1,6 +1,8 @@
 package uk.ac.dotrural.prov;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public interface ProvenanceGetter {
 	/**
@@ -30,6 +32,38 @@ public interface ProvenanceGetter {
 	 */
 	public long getStartedAtTime(String activityUri);
 
+	/**
+	 * Gets the Activities that started in a time range, ordered by start time
+	 * 
+	 * @param from
+	 *            start of the range in milliseconds, inclusive
+	 * @param to
+	 *            end of the range in milliseconds, exclusive
+	 * @param offset
+	 *            number of matching Activities to skip
+	 * @param limit
+	 *            maximum number of Activities to return
+	 * @return URIs of the Activities
+	 */
+	public List<String> getActivitiesStartedBetween(long from, long to,
+			int offset, int limit);
+
+	/**
+	 * Gets the Activities that ended in a time range, ordered by end time
+	 * 
+	 * @param from
+	 *            start of the range in milliseconds, inclusive
+	 * @param to
+	 *            end of the range in milliseconds, exclusive
+	 * @param offset
+	 *            number of matching Activities to skip
+	 * @param limit
+	 *            maximum number of Activities to return
+	 * @return URIs of the Activities
+	 */
+	public List<String> getActivitiesEndedBetween(long from, long to,
+			int offset, int limit);
+
 	/**
 	 * Gets the URI of Entities used by the Activity with URI activityUri
 	 * 
@@ -86,4 +120,243 @@ public interface ProvenanceGetter {
 	 * @return URIs of Activities the Entity with URI entityUri was informed by
 	 */
 	public Collection<String> getWasInformedBy(String activity1Uri);
+
+	/**
+	 * Gets the URIs of Agents that acted on behalf of the Agent with URI
+	 * agentUri
+	 * 
+	 * @param agentUri
+	 *            URI of Agent resource that was acted on behalf of
+	 * @return URIs of Agents that acted on behalf of agentUri
+	 */
+	public Collection<String> getActedOnBehalfOfBy(String agentUri);
+
+	/**
+	 * Gets the URIs of Activities that used the Entity with URI entityUri
+	 * 
+	 * @param entityUri
+	 *            URI of Entity resource
+	 * @return URIs of Activities that used the Entity
+	 */
+	public Collection<String> getUsedBy(String entityUri);
+
+	/**
+	 * Gets the URIs of Activities the Agent with URI agentUri was associated
+	 * with
+	 * 
+	 * @param agentUri
+	 *            URI of Agent resource
+	 * @return URIs of Activities associated with the Agent
+	 */
+	public Collection<String> getAssociatedActivities(String agentUri);
+
+	/**
+	 * Gets the URIs of Entities attributed to the Agent with URI agentUri
+	 * 
+	 * @param agentUri
+	 *            URI of Agent resource
+	 * @return URIs of Entities attributed to the Agent
+	 */
+	public Collection<String> getAttributed(String agentUri);
+
+	/**
+	 * Gets the URIs of Entities derived from the Entity with URI entityUri
+	 * 
+	 * @param entityUri
+	 *            URI of Entity resource
+	 * @return URIs of Entities derived from the Entity
+	 */
+	public Collection<String> getDerivations(String entityUri);
+
+	/**
+	 * Gets the URIs of Entities generated by the Activity with URI activityUri
+	 * 
+	 * @param activityUri
+	 *            URI of Activity resource
+	 * @return URIs of Entities generated by the Activity
+	 */
+	public Collection<String> getGenerated(String activityUri);
+
+	/**
+	 * Gets the URIs of Activities informed by the Activity with URI
+	 * activityUri
+	 * 
+	 * @param activityUri
+	 *            URI of Activity resource
+	 * @return URIs of Activities informed by the Activity
+	 */
+	public Collection<String> getInformed(String activityUri);
+
+	/**
+	 * Gets the URI of agents each of the agents with URIs agentUris has acted
+	 * on behalf of
+	 * 
+	 * @param agentUris
+	 *            URIs of Agent resources
+	 * @return map from each agent URI to the URIs of Agents it has acted on
+	 *         behalf of
+	 */
+	public Map<String, Collection<String>> getActedOnBehalfOf(
+			Collection<String> agentUris);
+
+	/**
+	 * Gets the URI of Entities used by each of the Activities with URIs
+	 * activityUris
+	 * 
+	 * @param activityUris
+	 *            URIs of Activity resources
+	 * @return map from each activity URI to the URIs of Entities it used
+	 */
+	public Map<String, Collection<String>> getUsed(
+			Collection<String> activityUris);
+
+	/**
+	 * Gets the URI of Agents associated with each of the Activities with URIs
+	 * activityUris
+	 * 
+	 * @param activityUris
+	 *            URIs of Activity resources
+	 * @return map from each activity URI to the URIs of Agents associated with
+	 *         it
+	 */
+	public Map<String, Collection<String>> getWasAssociatedWith(
+			Collection<String> activityUris);
+
+	/**
+	 * Gets the URI of Agents each of the Entities with URIs entityUris was
+	 * attributed to
+	 * 
+	 * @param entityUris
+	 *            URIs of Entity resources
+	 * @return map from each entity URI to the URIs of Agents it was attributed
+	 *         to
+	 */
+	public Map<String, Collection<String>> getWasAttributedTo(
+			Collection<String> entityUris);
+
+	/**
+	 * Gets the URI of Entities each of the Entities with URIs entityUris was
+	 * derived from
+	 * 
+	 * @param entityUris
+	 *            URIs of Entity resources
+	 * @return map from each entity URI to the URIs of Entities it was derived
+	 *         from
+	 */
+	public Map<String, Collection<String>> getWasDerivedFrom(
+			Collection<String> entityUris);
+
+	/**
+	 * Gets the URIs of Activities each of the Entities with URIs entityUris
+	 * was generated by
+	 * 
+	 * @param entityUris
+	 *            URIs of Entity resources
+	 * @return map from each entity URI to the URIs of Activities it was
+	 *         generated by
+	 */
+	public Map<String, Collection<String>> getWasGeneratedBy(
+			Collection<String> entityUris);
+
+	/**
+	 * Gets the URIs of Activities each of the Activities with URIs
+	 * activityUris was informed by
+	 * 
+	 * @param activityUris
+	 *            URIs of Activity resources
+	 * @return map from each activity URI to the URIs of Activities it was
+	 *         informed by
+	 */
+	public Map<String, Collection<String>> getWasInformedBy(
+			Collection<String> activityUris);
+
+	/**
+	 * Gets the lineage of a resource, everything reachable from it by
+	 * repeatedly following the given relations, in a single call. Resources
+	 * already reached are not traversed again, so cycles are safe.
+	 * 
+	 * @param uri
+	 *            URI of the resource to start from
+	 * @param maxDepth
+	 *            maximum number of hops from uri
+	 * @param limit
+	 *            maximum number of edges to return; the result is marked as
+	 *            truncated if there were more
+	 * @param predicates
+	 *            URIs of the relations to follow, such as
+	 *            {@link Lineage#BACKWARD}
+	 * @return the reachable edges with their depth
+	 */
+	public Lineage getLineage(String uri, int maxDepth, int limit,
+			Collection<String> predicates);
+
+	/**
+	 * Gets a page of the objects of a relation. Pages are in a consistent
+	 * order while the store is not modified.
+	 * 
+	 * @param subjectUri
+	 *            URI of the subject resource
+	 * @param predicate
+	 *            URI of the relation, such as {@link ProvO#used}
+	 * @param offset
+	 *            number of objects to skip
+	 * @param limit
+	 *            maximum number of objects to return
+	 * @return URIs of the objects
+	 * @throws IllegalArgumentException
+	 *             if predicate is not a PROV relation
+	 */
+	public List<String> getObjects(String subjectUri, String predicate,
+			int offset, int limit);
+
+	/**
+	 * Gets a page of the subjects of a relation, the inverse of
+	 * {@link #getObjects(String, String, int, int)}
+	 * 
+	 * @param objectUri
+	 *            URI of the object resource
+	 * @param predicate
+	 *            URI of the relation, such as {@link ProvO#used}
+	 * @param offset
+	 *            number of subjects to skip
+	 * @param limit
+	 *            maximum number of subjects to return
+	 * @return URIs of the subjects
+	 * @throws IllegalArgumentException
+	 *             if predicate is not a PROV relation
+	 */
+	public List<String> getSubjects(String objectUri, String predicate,
+			int offset, int limit);
+
+	/**
+	 * Passes the objects of a relation to handler as they are read, without
+	 * collecting them
+	 * 
+	 * @param subjectUri
+	 *            URI of the subject resource
+	 * @param predicate
+	 *            URI of the relation, such as {@link ProvO#used}
+	 * @param handler
+	 *            receives the URI of each object
+	 * @throws IllegalArgumentException
+	 *             if predicate is not a PROV relation
+	 */
+	public void forEachObject(String subjectUri, String predicate,
+			ResultHandler handler);
+
+	/**
+	 * Passes the subjects of a relation to handler as they are read, without
+	 * collecting them
+	 * 
+	 * @param objectUri
+	 *            URI of the object resource
+	 * @param predicate
+	 *            URI of the relation, such as {@link ProvO#used}
+	 * @param handler
+	 *            receives the URI of each subject
+	 * @throws IllegalArgumentException
+	 *             if predicate is not a PROV relation
+	 */
+	public void forEachSubject(String objectUri, String predicate,
+			ResultHandler handler);
 }
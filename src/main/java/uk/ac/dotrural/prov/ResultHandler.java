@@ -0,0 +1,18 @@
+package uk.ac.dotrural.prov;
+
+/**
+ * Receives query results one at a time as they are read from the store, so
+ * large results can be processed without holding them all in memory.
+ *
+ * Handlers are called while the store is held for reading, so they must not
+ * write to the store they are reading from.
+ */
+public interface ResultHandler {
+
+	/**
+	 * @param value
+	 *            the next result
+	 * @return true to continue, false to stop reading results
+	 */
+	public boolean handle(String value);
+}
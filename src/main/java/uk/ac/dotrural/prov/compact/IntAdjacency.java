@@ -0,0 +1,104 @@
+package uk.ac.dotrural.prov.compact;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency lists of int IDs held in primitive arrays. Each node's edges form
+ * a linked list threaded through the <code>next</code> array in insertion
+ * order, costing two ints per edge and two ints per node. Edges can be walked
+ * in place with {@link #first(int)}, {@link #next(int)} and
+ * {@link #target(int)}.
+ * 
+ * Not thread safe; {@link CompactProvenanceStore} guards access.
+ */
+class IntAdjacency {
+
+	private static final int[] EMPTY = new int[0];
+
+	private int[] head = new int[0];
+	private int[] tail = new int[0];
+	private int[] next = new int[64];
+	private int[] target = new int[64];
+	private int edges;
+
+	/**
+	 * Add an edge in constant time. Duplicates are not checked for, callers
+	 * must only add each edge once.
+	 */
+	void add(int from, int to) {
+		if (from >= head.length) {
+			int length = head.length;
+			head = Arrays.copyOf(head, Math.max(from + 1, length + (length >> 1)));
+			tail = Arrays.copyOf(tail, head.length);
+			Arrays.fill(head, length, head.length, -1);
+		}
+		if (edges == target.length) {
+			int capacity = edges + (edges >> 1);
+			next = Arrays.copyOf(next, capacity);
+			target = Arrays.copyOf(target, capacity);
+		}
+		target[edges] = to;
+		next[edges] = -1;
+		if (head[from] == -1) {
+			head[from] = edges;
+		} else {
+			next[tail[from]] = edges;
+		}
+		tail[from] = edges++;
+	}
+
+	/**
+	 * @return the nodes from has edges to
+	 */
+	int[] get(int from) {
+		return get(from, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return up to limit of the nodes from has edges to, skipping the first
+	 *         offset
+	 */
+	int[] get(int from, int offset, int limit) {
+		int start = first(from);
+		for (int i = 0; i < offset && start != -1; i++) {
+			start = next[start];
+		}
+		int count = 0;
+		for (int e = start; e != -1 && count < limit; e = next[e]) {
+			count++;
+		}
+		if (count == 0) {
+			return EMPTY;
+		}
+		int[] result = new int[count];
+		for (int e = start, i = 0; i < count; e = next[e]) {
+			result[i++] = target[e];
+		}
+		return result;
+	}
+
+	/**
+	 * @return the first edge of from, or -1 if it has none
+	 */
+	int first(int from) {
+		return from < 0 || from >= head.length ? -1 : head[from];
+	}
+
+	/**
+	 * @return the edge after edge, or -1 if it is the last
+	 */
+	int next(int edge) {
+		return next[edge];
+	}
+
+	/**
+	 * @return the node edge points to
+	 */
+	int target(int edge) {
+		return target[edge];
+	}
+
+	int size() {
+		return edges;
+	}
+}
@@ -0,0 +1,69 @@
+package uk.ac.dotrural.prov.compact;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from int IDs to long values, used for timestamps so
+ * that only timed activities take space.
+ * 
+ * Not thread safe; {@link CompactProvenanceStore} guards access.
+ */
+class IntLongMap {
+
+	/** Value returned for absent keys */
+	static final long MISSING = Long.MIN_VALUE;
+
+	private int[] keys = new int[64];
+	private long[] values = new long[64];
+	private int size;
+
+	IntLongMap() {
+		Arrays.fill(keys, -1);
+	}
+
+	void put(int key, long value) {
+		if ((size + 1) * 4 > keys.length * 3) {
+			resize(keys.length * 2);
+		}
+		int slot = find(keys, key);
+		if (keys[slot] == -1) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+
+	long get(int key) {
+		int slot = find(keys, key);
+		return keys[slot] == -1 ? MISSING : values[slot];
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new int[capacity];
+		values = new long[capacity];
+		Arrays.fill(keys, -1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != -1) {
+				int slot = find(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int find(int[] keys, int key) {
+		int mask = keys.length - 1;
+		int hash = key * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (keys[slot] != -1 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,76 @@
+package uk.ac.dotrural.prov.compact;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing set of non negative longs, used to hold each relation edge
+ * as its subject and object IDs packed into one long so that duplicate edges
+ * are found in constant time however many edges a node has.
+ *
+ * Not thread safe; {@link CompactProvenanceStore} guards access.
+ */
+class LongHashSet {
+
+	private static final long EMPTY = -1L;
+
+	private long[] keys = new long[64];
+	private int size;
+
+	LongHashSet() {
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * @return a key holding two non negative int IDs
+	 */
+	static long pack(int high, int low) {
+		return ((long) high << 32) | (low & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Add a key unless it is already present
+	 *
+	 * @return true if the key was added
+	 */
+	boolean add(long key) {
+		if ((size + 1) * 4 > keys.length * 3) {
+			resize(keys.length * 2);
+		}
+		int slot = find(keys, key);
+		if (keys[slot] == key) {
+			return false;
+		}
+		keys[slot] = key;
+		size++;
+		return true;
+	}
+
+	boolean contains(long key) {
+		return keys[find(keys, key)] == key;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		for (long key : oldKeys) {
+			if (key != EMPTY) {
+				keys[find(keys, key)] = key;
+			}
+		}
+	}
+
+	private static int find(long[] keys, long key) {
+		int mask = keys.length - 1;
+		long hash = key * 0x9E3779B97F4A7C15L;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+}
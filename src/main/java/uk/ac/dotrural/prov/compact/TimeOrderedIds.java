@@ -0,0 +1,86 @@
+package uk.ac.dotrural.prov.compact;
+
+import java.util.Arrays;
+
+/**
+ * IDs held in parallel arrays sorted by time then ID, so a time range is
+ * found by binary search. Timestamps usually arrive in order, in which case
+ * an addition is an append; out of order additions shift the later entries.
+ * 
+ * Not thread safe; {@link CompactProvenanceStore} guards access.
+ */
+class TimeOrderedIds {
+
+	private long[] times = new long[64];
+	private int[] ids = new int[64];
+	private int size;
+
+	void add(long time, int id) {
+		int position = search(time, id);
+		if (position >= 0) {
+			return;
+		}
+		position = -position - 1;
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			ids = Arrays.copyOf(ids, size * 2);
+		}
+		System.arraycopy(times, position, times, position + 1, size - position);
+		System.arraycopy(ids, position, ids, position + 1, size - position);
+		times[position] = time;
+		ids[position] = id;
+		size++;
+	}
+
+	void remove(long time, int id) {
+		int position = search(time, id);
+		if (position < 0) {
+			return;
+		}
+		System.arraycopy(times, position + 1, times, position, size - position
+				- 1);
+		System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+		size--;
+	}
+
+	/**
+	 * @return position of the first entry at or after time
+	 */
+	int lowerBound(long time) {
+		return -search(time, Integer.MIN_VALUE) - 1;
+	}
+
+	long timeAt(int position) {
+		return times[position];
+	}
+
+	int idAt(int position) {
+		return ids[position];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return position of the entry, or (-(insertion point) - 1) if absent
+	 */
+	private int search(long time, int id) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midTime = times[mid];
+			int cmp = midTime < time ? -1 : midTime > time ? 1
+					: ids[mid] < id ? -1 : ids[mid] > id ? 1 : 0;
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+}
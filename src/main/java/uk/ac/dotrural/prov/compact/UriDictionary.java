@@ -0,0 +1,151 @@
+package uk.ac.dotrural.prov.compact;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interns URIs as consecutive int IDs. Each URI is split into a namespace
+ * prefix, ending at the last '/' or '#', that is stored once and shared, and a
+ * local part stored as UTF-8 bytes. The URI to ID lookup is an open addressing
+ * hash table of ints, so no per entry objects are created beyond the local
+ * part bytes.
+ * 
+ * Not thread safe; {@link CompactProvenanceStore} guards access.
+ */
+class UriDictionary {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<String, Integer> prefixIds = new HashMap<String, Integer>();
+	private String[] prefixes = new String[16];
+	private int prefixCount;
+
+	private int[] prefixOf = new int[1024];
+	private byte[][] locals = new byte[1024][];
+	private int[] hashes = new int[1024];
+	private int size;
+
+	/** id + 1 of the entry in each slot, 0 for an empty slot */
+	private int[] table = new int[2048];
+
+	/**
+	 * @return the ID of uri, or -1 if it has not been interned
+	 */
+	int lookup(String uri) {
+		int hash = uri.hashCode();
+		int split = split(uri);
+		int mask = table.length - 1;
+		for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == 0) {
+				return -1;
+			}
+			int id = entry - 1;
+			if (hashes[id] == hash && matches(id, uri, split)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * @return the ID of uri, assigning the next ID if it is new
+	 */
+	int intern(String uri) {
+		int id = lookup(uri);
+		if (id >= 0) {
+			return id;
+		}
+		if (size == prefixOf.length) {
+			int capacity = size + (size >> 1);
+			prefixOf = Arrays.copyOf(prefixOf, capacity);
+			locals = Arrays.copyOf(locals, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+		}
+		int split = split(uri);
+		id = size++;
+		prefixOf[id] = internPrefix(uri.substring(0, split));
+		locals[id] = uri.substring(split).getBytes(UTF8);
+		hashes[id] = uri.hashCode();
+		if (size * 4 > table.length * 3) {
+			rehash(table.length * 2);
+		} else {
+			insert(id);
+		}
+		return id;
+	}
+
+	/**
+	 * @return the URI with the given ID
+	 */
+	String get(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Unknown URI id " + id);
+		}
+		return prefixes[prefixOf[id]] + new String(locals[id], UTF8);
+	}
+
+	int size() {
+		return size;
+	}
+
+	private int internPrefix(String prefix) {
+		Integer id = prefixIds.get(prefix);
+		if (id != null) {
+			return id;
+		}
+		if (prefixCount == prefixes.length) {
+			prefixes = Arrays.copyOf(prefixes, prefixCount * 2);
+		}
+		prefixes[prefixCount] = prefix;
+		prefixIds.put(prefix, prefixCount);
+		return prefixCount++;
+	}
+
+	private boolean matches(int id, String uri, int split) {
+		String prefix = prefixes[prefixOf[id]];
+		if (prefix.length() != split || !uri.regionMatches(0, prefix, 0, split)) {
+			return false;
+		}
+		byte[] local = locals[id];
+		int length = uri.length() - split;
+		for (int i = 0; i < local.length; i++) {
+			if (local[i] < 0) {
+				// non ASCII local part, compare the decoded string
+				String decoded = new String(local, UTF8);
+				return decoded.length() == length
+						&& uri.regionMatches(split, decoded, 0, length);
+			}
+			if (i >= length || uri.charAt(split + i) != local[i]) {
+				return false;
+			}
+		}
+		return local.length == length;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		for (int id = 0; id < size; id++) {
+			insert(id);
+		}
+	}
+
+	private void insert(int id) {
+		int mask = table.length - 1;
+		int slot = mix(hashes[id]) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = id + 1;
+	}
+
+	private static int split(String uri) {
+		return Math.max(uri.lastIndexOf('/'), uri.lastIndexOf('#')) + 1;
+	}
+
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
@@ -0,0 +1,145 @@
+package uk.ac.dotrural.prov.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Reads the encoding written by {@link BinaryRdfWriter}, sending each triple
+ * to a {@link StreamRDF} as it is decoded
+ */
+public class BinaryRdfReader {
+
+	private final InputStream in;
+	private final List<Node> dictionary;
+
+	public BinaryRdfReader(InputStream in) {
+		this.in = new BufferedInputStream(in, 65536);
+		this.dictionary = new ArrayList<Node>();
+	}
+
+	/**
+	 * Read the whole stream
+	 * 
+	 * @param in
+	 *            stream holding binary RDF, which is not closed
+	 * @param sink
+	 *            destination of the triples and quads read
+	 * @return number of triples and quads read
+	 */
+	public static long read(InputStream in, StreamRDF sink) {
+		return new BinaryRdfReader(in).read(sink);
+	}
+
+	/**
+	 * Read the whole stream
+	 * 
+	 * @return number of triples and quads read
+	 */
+	public long read(StreamRDF sink) {
+		try {
+			byte[] magic = new byte[BinaryRdfWriter.MAGIC.length];
+			for (int i = 0; i < magic.length; i++) {
+				magic[i] = (byte) readByte();
+			}
+			if (!Arrays.equals(magic, BinaryRdfWriter.MAGIC)) {
+				throw new RiotException("Not a binary RDF stream");
+			}
+			int version = readByte();
+			if (version != BinaryRdfWriter.VERSION) {
+				throw new RiotException("Unsupported binary RDF version "
+						+ version);
+			}
+			long count = 0;
+			sink.start();
+			for (int record = readByte(); record != BinaryRdfWriter.END; record = readByte()) {
+				if (record == BinaryRdfWriter.TRIPLE) {
+					sink.triple(new Triple(readTerm(), readTerm(), readTerm()));
+				} else if (record == BinaryRdfWriter.QUAD) {
+					sink.quad(new Quad(readTerm(), readTerm(), readTerm(),
+							readTerm()));
+				} else {
+					throw new RiotException("Unknown record type " + record);
+				}
+				count++;
+			}
+			sink.finish();
+			return count;
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+	}
+
+	private Node readTerm() throws IOException {
+		int tag = readByte();
+		switch (tag) {
+		case BinaryRdfWriter.REF:
+			return dictionary.get(readVarint());
+		case BinaryRdfWriter.IRI_DEF:
+			Node iri = Node.createURI(readString());
+			dictionary.add(iri);
+			return iri;
+		case BinaryRdfWriter.IRI:
+			return Node.createURI(readString());
+		case BinaryRdfWriter.BNODE:
+			return Node.createAnon(new AnonId(
+					readString()));
+		case BinaryRdfWriter.PLAIN:
+			return Node.createLiteral(readString());
+		case BinaryRdfWriter.LANG:
+			return Node.createLiteral(readString(), readString(), false);
+		case BinaryRdfWriter.TYPED:
+			String lexical = readString();
+			String datatype = readTerm().getURI();
+			return Node.createLiteral(lexical, null, TypeMapper.getInstance()
+					.getSafeTypeByName(datatype));
+		default:
+			throw new RiotException("Unknown term type " + tag);
+		}
+	}
+
+	private String readString() throws IOException {
+		byte[] bytes = new byte[readVarint()];
+		int read = 0;
+		while (read < bytes.length) {
+			int n = in.read(bytes, read, bytes.length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+		return new String(bytes, BinaryRdfWriter.UTF8);
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+}
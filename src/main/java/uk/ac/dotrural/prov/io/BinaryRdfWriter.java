@@ -0,0 +1,180 @@
+package uk.ac.dotrural.prov.io;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jena.atlas.lib.Tuple;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Writes triples in a compact binary encoding. Each IRI is written in full
+ * the first time it is seen and afterwards as a varint reference into a
+ * dictionary shared by the writer and {@link BinaryRdfReader}, so the
+ * repeated PROV predicates, types and resources cost one or two bytes each.
+ * The dictionary is capped at {@link #DEFAULT_DICTIONARY_SIZE} entries to
+ * keep memory bounded; IRIs seen after it is full are written in full.
+ * 
+ * <pre>
+ * stream  := 'R' 'D' 'F' 'B' version record* END
+ * record  := TRIPLE term term term | QUAD term term term term
+ * term    := REF varint | IRI_DEF string | IRI string | BNODE string
+ *          | PLAIN string | LANG string string | TYPED string term
+ * string  := varint(length) utf8-bytes
+ * </pre>
+ * 
+ * Jena 2.10 predates RDF Thrift, this encoding plays the same role without
+ * the extra dependency.
+ */
+public class BinaryRdfWriter implements StreamRDF {
+
+	static final byte[] MAGIC = { 'R', 'D', 'F', 'B' };
+	static final int VERSION = 1;
+
+	static final int END = 0;
+	static final int TRIPLE = 1;
+	static final int QUAD = 2;
+
+	static final int REF = 0x10;
+	static final int IRI_DEF = 0x11;
+	static final int IRI = 0x12;
+	static final int BNODE = 0x13;
+	static final int PLAIN = 0x14;
+	static final int LANG = 0x15;
+	static final int TYPED = 0x16;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final int DEFAULT_DICTIONARY_SIZE = 1 << 20;
+
+	private final OutputStream out;
+	private final Map<Node, Integer> dictionary;
+	private final int dictionarySize;
+
+	public BinaryRdfWriter(OutputStream out) {
+		this(out, DEFAULT_DICTIONARY_SIZE);
+	}
+
+	/**
+	 * @param dictionarySize
+	 *            maximum number of IRIs to hold in the dictionary
+	 */
+	public BinaryRdfWriter(OutputStream out, int dictionarySize) {
+		this.out = new BufferedOutputStream(out, 65536);
+		this.dictionary = new HashMap<Node, Integer>();
+		this.dictionarySize = dictionarySize;
+	}
+
+	public void start() {
+		try {
+			out.write(MAGIC);
+			out.write(VERSION);
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+	}
+
+	public void triple(Triple triple) {
+		try {
+			out.write(TRIPLE);
+			writeTerm(triple.getSubject());
+			writeTerm(triple.getPredicate());
+			writeTerm(triple.getObject());
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+	}
+
+	public void quad(Quad quad) {
+		if (quad.isTriple() || quad.isDefaultGraph()) {
+			triple(quad.asTriple());
+			return;
+		}
+		try {
+			out.write(QUAD);
+			writeTerm(quad.getGraph());
+			writeTerm(quad.getSubject());
+			writeTerm(quad.getPredicate());
+			writeTerm(quad.getObject());
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+	}
+
+	public void tuple(Tuple<Node> tuple) {
+	}
+
+	public void base(String base) {
+	}
+
+	public void prefix(String prefix, String iri) {
+	}
+
+	public void finish() {
+		try {
+			out.write(END);
+			out.flush();
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+	}
+
+	private void writeTerm(Node node) throws IOException {
+		if (node.isURI()) {
+			Integer id = dictionary.get(node);
+			if (id != null) {
+				out.write(REF);
+				writeVarint(id.intValue());
+			} else if (dictionary.size() < dictionarySize) {
+				dictionary.put(node, Integer.valueOf(dictionary.size()));
+				out.write(IRI_DEF);
+				writeString(node.getURI());
+			} else {
+				out.write(IRI);
+				writeString(node.getURI());
+			}
+		} else if (node.isBlank()) {
+			out.write(BNODE);
+			writeString(node.getBlankNodeLabel());
+		} else if (node.isLiteral()) {
+			String lang = node.getLiteralLanguage();
+			String datatype = node.getLiteralDatatypeURI();
+			if (lang != null && lang.length() > 0) {
+				out.write(LANG);
+				writeString(node.getLiteralLexicalForm());
+				writeString(lang);
+			} else if (datatype != null) {
+				out.write(TYPED);
+				writeString(node.getLiteralLexicalForm());
+				writeTerm(Node.createURI(datatype));
+			} else {
+				out.write(PLAIN);
+				writeString(node.getLiteralLexicalForm());
+			}
+		} else {
+			throw new RiotException("Cannot encode " + node);
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		writeVarint(bytes.length);
+		out.write(bytes);
+	}
+
+	private void writeVarint(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
@@ -0,0 +1,328 @@
+package uk.ac.dotrural.prov.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.atlas.lib.Tuple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.system.StreamRDF;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.jena.NoOpTracker;
+import uk.ac.dotrural.prov.jena.ProvenanceBundle;
+import uk.ac.dotrural.prov.jena.Tracker;
+import uk.ac.dotrural.prov.jena.Tracker.Level;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Streams existing provenance files into a {@link JenaSparqlUtils} store or a
+ * {@link ProvenanceBundle}. Triples are parsed one at a time and added in
+ * batches, each batch being a single transaction on stores that support
+ * them, so files larger than memory can be loaded. N-Triples, Turtle, N-Quads
+ * (loaded into the default graph) and the {@link BinaryRdfWriter} encoding
+ * are supported, gzip compressed or not.
+ */
+public class ProvenanceLoader {
+
+	public static final int DEFAULT_BATCH_SIZE = 50000;
+	public static final long DEFAULT_PROGRESS_INTERVAL = 1000000;
+
+	/**
+	 * Number of inferred types remembered across batches so they are not
+	 * added again for resources that appear in many batches
+	 */
+	private static final int INFERRED_CACHE_SIZE = 100000;
+
+	private static final Node RDF_TYPE = Node
+			.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+	private static final Node ACTIVITY = Node.createURI(ProvO.Activity);
+	private static final Node ENTITY = Node.createURI(ProvO.Entity);
+	private static final Node AGENT = Node.createURI(ProvO.Agent);
+
+	/** PROV-O domain and range of each relation, null if not a resource */
+	private static final Map<Node, Node[]> DOMAIN_RANGE = new HashMap<Node, Node[]>();
+	static {
+		DOMAIN_RANGE.put(Node.createURI(ProvO.actedOnBehalfOf), new Node[] {
+				AGENT, AGENT });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.endedAtTime), new Node[] {
+				ACTIVITY, null });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.startedAtTime), new Node[] {
+				ACTIVITY, null });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.used), new Node[] { ACTIVITY,
+				ENTITY });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.wasAssociatedWith), new Node[] {
+				ACTIVITY, AGENT });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.wasAttributedTo), new Node[] {
+				ENTITY, AGENT });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.wasDerivedFrom), new Node[] {
+				ENTITY, ENTITY });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.wasGeneratedBy), new Node[] {
+				ENTITY, ACTIVITY });
+		DOMAIN_RANGE.put(Node.createURI(ProvO.wasInformedBy), new Node[] {
+				ACTIVITY, ACTIVITY });
+	}
+
+	/**
+	 * Destination of each batch of triples
+	 */
+	private interface Target {
+		void add(List<Triple> triples);
+	}
+
+	private final Target target;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private boolean inferTypes;
+	private Tracker tracker = NoOpTracker.INSTANCE;
+	private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+	private long triplesLoaded;
+	private long elapsedMillis;
+
+	/**
+	 * Load into a store, one transaction per batch
+	 */
+	public ProvenanceLoader(final JenaSparqlUtils utils) {
+		this.target = new Target() {
+			public void add(List<Triple> triples) {
+				utils.performTripleUpdates(triples);
+			}
+		};
+	}
+
+	/**
+	 * Load into a bundle, whose type checks then see the Activity, Entity and
+	 * Agent types loaded
+	 */
+	public ProvenanceLoader(final ProvenanceBundle bundle) {
+		this.target = new Target() {
+			public void add(List<Triple> triples) {
+				bundle.addTriples(triples);
+			}
+		};
+	}
+
+	/**
+	 * @param batchSize
+	 *            number of triples added per batch
+	 */
+	public ProvenanceLoader setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * @param inferTypes
+	 *            whether to add the Activity, Entity and Agent types implied
+	 *            by the domain and range of the PROV relations loaded, for
+	 *            files that do not state them
+	 */
+	public ProvenanceLoader setInferTypes(boolean inferTypes) {
+		this.inferTypes = inferTypes;
+		return this;
+	}
+
+	/**
+	 * @param tracker
+	 *            tracker that progress is logged to
+	 * @param progressInterval
+	 *            number of triples between progress messages
+	 */
+	public ProvenanceLoader setTracker(Tracker tracker, long progressInterval) {
+		this.tracker = tracker;
+		this.progressInterval = progressInterval;
+		return this;
+	}
+
+	/**
+	 * Load a file, choosing the syntax from its extension. Files ending in
+	 * <code>.gz</code> are decompressed.
+	 * 
+	 * @return number of triples loaded
+	 * @throws IOException
+	 */
+	public long load(File file) throws IOException {
+		String name = file.getName();
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		InputStream in = new FileInputStream(file);
+		try {
+			if (name.endsWith("." + RdfFormat.BINARY.getExtension())) {
+				return loadBinary(in);
+			}
+			Lang lang = RDFLanguages.filenameToLang(name, RDFLanguages.NTRIPLES);
+			return load(in, lang);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load a stream, which is decompressed if it is gzipped and is not closed
+	 * 
+	 * @return number of triples loaded
+	 * @throws IOException
+	 */
+	public long load(InputStream in, Lang lang) throws IOException {
+		BatchingStream stream = new BatchingStream();
+		RDFDataMgr.parse(stream, decompress(in), null, lang, null);
+		return stream.count;
+	}
+
+	/**
+	 * Load a stream written by {@link BinaryRdfWriter}, which is decompressed
+	 * if it is gzipped and is not closed
+	 * 
+	 * @return number of triples loaded
+	 * @throws IOException
+	 */
+	public long loadBinary(InputStream in) throws IOException {
+		BatchingStream stream = new BatchingStream();
+		BinaryRdfReader.read(decompress(in), stream);
+		return stream.count;
+	}
+
+	/**
+	 * @return number of triples loaded by the last load, including inferred
+	 *         types. The most recently inferred types are remembered across
+	 *         batches, so a type is usually added and counted once however
+	 *         many batches its resource appears in.
+	 */
+	public long getTriplesLoaded() {
+		return triplesLoaded;
+	}
+
+	/**
+	 * @return duration of the last load
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return load rate of the last load
+	 */
+	public double getTriplesPerSecond() {
+		return elapsedMillis == 0 ? 0 : triplesLoaded * 1000.0 / elapsedMillis;
+	}
+
+	private static InputStream decompress(InputStream in) throws IOException {
+		InputStream buffered = new BufferedInputStream(in, 65536);
+		buffered.mark(2);
+		int b1 = buffered.read();
+		int b2 = buffered.read();
+		buffered.reset();
+		if (b1 == 0x1f && b2 == 0x8b) {
+			return new GZIPInputStream(buffered, 65536);
+		}
+		return buffered;
+	}
+
+	/**
+	 * Collects parsed triples into batches for the target
+	 */
+	private class BatchingStream implements StreamRDF {
+		private final List<Triple> batch = new ArrayList<Triple>(batchSize);
+		private final Set<Triple> inferred = Collections
+				.newSetFromMap(new LinkedHashMap<Triple, Boolean>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(
+							Map.Entry<Triple, Boolean> eldest) {
+						return size() > INFERRED_CACHE_SIZE;
+					}
+				});
+		private long count;
+		private long nextReport;
+		private long started;
+
+		public void start() {
+			started = System.currentTimeMillis();
+			nextReport = progressInterval;
+			count = 0;
+		}
+
+		public void triple(Triple triple) {
+			batch.add(triple);
+			if (inferTypes) {
+				Node[] types = DOMAIN_RANGE.get(triple.getPredicate());
+				if (types != null) {
+					infer(triple.getSubject(), types[0]);
+					infer(triple.getObject(), types[1]);
+				}
+			}
+			if (batch.size() >= batchSize) {
+				flush();
+			}
+		}
+
+		public void quad(Quad quad) {
+			triple(quad.asTriple());
+		}
+
+		public void tuple(Tuple<Node> tuple) {
+		}
+
+		public void base(String base) {
+		}
+
+		public void prefix(String prefix, String iri) {
+		}
+
+		public void finish() {
+			flush();
+			triplesLoaded = count;
+			elapsedMillis = System.currentTimeMillis() - started;
+			if (tracker.isEnabled(Level.LOG)) {
+				tracker.log("Loaded " + count + " triples in " + elapsedMillis
+						+ "ms (" + (long) getTriplesPerSecond() + " triples/s)");
+			}
+		}
+
+		private void infer(Node resource, Node type) {
+			if (type != null && (resource.isURI() || resource.isBlank())) {
+				Triple triple = new Triple(resource, RDF_TYPE, type);
+				if (inferred.add(triple)) {
+					batch.add(triple);
+				}
+			}
+		}
+
+		private void flush() {
+			if (batch.isEmpty()) {
+				return;
+			}
+			target.add(batch);
+			count += batch.size();
+			batch.clear();
+			if (count >= nextReport) {
+				nextReport = count + progressInterval;
+				if (tracker.isEnabled(Level.LOG)) {
+					long elapsed = Math.max(1, System.currentTimeMillis() - started);
+					tracker.log("Loaded " + count + " triples ("
+							+ (count * 1000 / elapsed) + " triples/s)");
+				}
+			}
+		}
+	}
+}
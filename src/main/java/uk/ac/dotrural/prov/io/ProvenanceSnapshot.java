@@ -0,0 +1,308 @@
+package uk.ac.dotrural.prov.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.jena.riot.RiotException;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+
+/**
+ * Saves and restores the triples of a store as a snapshot file made of a
+ * fixed width triple table followed by a dictionary of the terms it uses.
+ * Each term is stored once, and each triple is three int IDs into the
+ * dictionary. Restoring memory maps the file, decodes the dictionary into
+ * nodes once and then builds triples straight from the mapped table, with no
+ * parsing per triple.
+ *
+ * <pre>
+ * file       := header triple* term*
+ * header     := 'P' 'R' 'V' 'S' int(version) int(terms) long(triples)
+ *               long(dictionary offset) int(0)
+ * triple     := int(subject) int(predicate) int(object)
+ * term       := IRI string | BNODE string | PLAIN string
+ *             | LANG string string | TYPED string varint(datatype)
+ * </pre>
+ *
+ * The tags and string encoding are those of {@link BinaryRdfWriter}; a typed
+ * literal refers to its datatype IRI by ID, which is always written first.
+ */
+public class ProvenanceSnapshot {
+
+	static final byte[] MAGIC = { 'P', 'R', 'V', 'S' };
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+
+	/** Triples passed to the graph at a time when restoring */
+	private static final int BATCH_SIZE = 8192;
+	/** Largest part of the triple table mapped at once, a multiple of 12 */
+	private static final int WINDOW_SIZE = 12 << 26;
+
+	private ProvenanceSnapshot() {
+	}
+
+	/**
+	 * Write a snapshot. It is written to a temporary file in the same
+	 * directory and atomically renamed over file once complete, and the
+	 * directory is synced before returning, so after a crash file holds
+	 * either the earlier snapshot or this one.
+	 *
+	 * @param triples
+	 *            the triples to save
+	 * @param file
+	 *            the snapshot file
+	 * @return number of triples written
+	 * @throws IOException
+	 */
+	public static long write(Iterator<Triple> triples, File file)
+			throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		Map<Node, Integer> ids = new HashMap<Node, Integer>();
+		List<Node> terms = new ArrayList<Node>();
+		long count = 0;
+		FileOutputStream fileOut = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				fileOut, 65536));
+		try {
+			out.write(new byte[HEADER_SIZE]);
+			while (triples.hasNext()) {
+				Triple triple = triples.next();
+				out.writeInt(id(triple.getSubject(), ids, terms));
+				out.writeInt(id(triple.getPredicate(), ids, terms));
+				out.writeInt(id(triple.getObject(), ids, terms));
+				count++;
+			}
+			for (Node term : terms) {
+				writeTerm(out, term, ids);
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			out.close();
+		}
+
+		RandomAccessFile header = new RandomAccessFile(temp, "rw");
+		try {
+			header.write(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(terms.size());
+			header.writeLong(count);
+			header.writeLong(HEADER_SIZE + count * 12);
+			header.getFD().sync();
+		} finally {
+			header.close();
+		}
+		Files.move(temp.toPath(), file.toPath(),
+				StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		syncDirectory(file.getAbsoluteFile().getParentFile());
+		return count;
+	}
+
+	/**
+	 * Force a rename in directory to disk. Platforms that cannot open a
+	 * directory, such as Windows, make renames durable themselves.
+	 */
+	private static void syncDirectory(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(),
+					StandardOpenOption.READ);
+		} catch (IOException e) {
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Restore a snapshot, adding its triples to graph in batches so that the
+	 * listeners of graph are notified
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @param graph
+	 *            the graph to add the triples to
+	 * @return number of triples read
+	 * @throws IOException
+	 */
+	public static long read(File file, Graph graph) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_SIZE);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new RiotException("Not a provenance snapshot: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new RiotException("Unsupported snapshot version "
+						+ version);
+			}
+			int termCount = header.getInt();
+			long count = header.getLong();
+			long dictionaryOffset = header.getLong();
+			long dictionarySize = channel.size() - dictionaryOffset;
+			if (dictionarySize > Integer.MAX_VALUE) {
+				throw new RiotException("Snapshot dictionary too large");
+			}
+
+			Node[] nodes = readDictionary(channel.map(
+					FileChannel.MapMode.READ_ONLY, dictionaryOffset,
+					dictionarySize), termCount);
+
+			List<Triple> batch = new ArrayList<Triple>(BATCH_SIZE);
+			for (long start = 0; start < count * 12; start += WINDOW_SIZE) {
+				long size = Math.min(WINDOW_SIZE, count * 12 - start);
+				IntBuffer table = channel.map(FileChannel.MapMode.READ_ONLY,
+						HEADER_SIZE + start, size).asIntBuffer();
+				while (table.hasRemaining()) {
+					batch.add(Triple.create(nodes[table.get()],
+							nodes[table.get()], nodes[table.get()]));
+					if (batch.size() == BATCH_SIZE) {
+						GraphUtil.add(graph, batch);
+						batch.clear();
+					}
+				}
+			}
+			GraphUtil.add(graph, batch);
+			return count;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static int id(Node node, Map<Node, Integer> ids, List<Node> terms) {
+		Integer id = ids.get(node);
+		if (id == null) {
+			if (node.isLiteral() && node.getLiteralDatatypeURI() != null) {
+				// the datatype must be decoded before the literal
+				id(Node.createURI(node.getLiteralDatatypeURI()), ids, terms);
+			}
+			id = Integer.valueOf(terms.size());
+			ids.put(node, id);
+			terms.add(node);
+		}
+		return id.intValue();
+	}
+
+	private static void writeTerm(DataOutputStream out, Node node,
+			Map<Node, Integer> ids) throws IOException {
+		if (node.isURI()) {
+			out.write(BinaryRdfWriter.IRI);
+			writeString(out, node.getURI());
+		} else if (node.isBlank()) {
+			out.write(BinaryRdfWriter.BNODE);
+			writeString(out, node.getBlankNodeLabel());
+		} else if (node.isLiteral()) {
+			String lang = node.getLiteralLanguage();
+			String datatype = node.getLiteralDatatypeURI();
+			if (lang != null && lang.length() > 0) {
+				out.write(BinaryRdfWriter.LANG);
+				writeString(out, node.getLiteralLexicalForm());
+				writeString(out, lang);
+			} else if (datatype != null) {
+				out.write(BinaryRdfWriter.TYPED);
+				writeString(out, node.getLiteralLexicalForm());
+				writeVarint(out, ids.get(Node.createURI(datatype)).intValue());
+			} else {
+				out.write(BinaryRdfWriter.PLAIN);
+				writeString(out, node.getLiteralLexicalForm());
+			}
+		} else {
+			throw new RiotException("Cannot encode " + node);
+		}
+	}
+
+	private static Node[] readDictionary(ByteBuffer in, int termCount) {
+		Node[] nodes = new Node[termCount];
+		TypeMapper types = TypeMapper.getInstance();
+		for (int i = 0; i < termCount; i++) {
+			int tag = in.get();
+			switch (tag) {
+			case BinaryRdfWriter.IRI:
+				nodes[i] = Node.createURI(readString(in));
+				break;
+			case BinaryRdfWriter.BNODE:
+				nodes[i] = Node.createAnon(new AnonId(readString(in)));
+				break;
+			case BinaryRdfWriter.PLAIN:
+				nodes[i] = Node.createLiteral(readString(in));
+				break;
+			case BinaryRdfWriter.LANG:
+				nodes[i] = Node.createLiteral(readString(in), readString(in),
+						false);
+				break;
+			case BinaryRdfWriter.TYPED:
+				String lexical = readString(in);
+				String datatype = nodes[readVarint(in)].getURI();
+				nodes[i] = Node.createLiteral(lexical, null,
+						types.getSafeTypeByName(datatype));
+				break;
+			default:
+				throw new RiotException("Unknown term type " + tag);
+			}
+		}
+		return nodes;
+	}
+
+	static void writeString(DataOutputStream out, String s)
+			throws IOException {
+		byte[] bytes = s.getBytes(BinaryRdfWriter.UTF8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	static void writeVarint(DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[readVarint(in)];
+		in.get(bytes);
+		return new String(bytes, BinaryRdfWriter.UTF8);
+	}
+
+	static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package uk.ac.dotrural.prov.io;
+
+/**
+ * Streaming serialisations of provenance graphs
+ */
+public enum RdfFormat {
+	/** W3C N-Triples, one triple per line */
+	NTRIPLES("nt"),
+	/** W3C N-Quads, one triple per line with an optional graph name */
+	NQUADS("nq"),
+	/** Dictionary encoded binary triples, see {@link BinaryRdfWriter} */
+	BINARY("rdfb");
+
+	private final String extension;
+
+	private RdfFormat(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * @return file extension conventionally used for the format, without the
+	 *         leading dot
+	 */
+	public String getExtension() {
+		return extension;
+	}
+}
@@ -0,0 +1,182 @@
+package uk.ac.dotrural.prov.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.atlas.lib.Tuple;
+import org.apache.jena.riot.out.SinkQuadOutput;
+import org.apache.jena.riot.out.SinkTripleOutput;
+import org.apache.jena.riot.system.StreamRDF;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Writes triples to an output stream one at a time, so memory use does not
+ * depend on the number of triples written
+ */
+public class RdfOutput {
+
+	private RdfOutput() {
+	}
+
+	/**
+	 * Write triples in the given format
+	 * 
+	 * @param triples
+	 *            triples to write
+	 * @param out
+	 *            stream to write to, which is flushed but not closed
+	 * @param format
+	 *            serialisation to use
+	 * @param gzip
+	 *            whether to gzip the output
+	 * @param graph
+	 *            graph name written with each triple in formats that support
+	 *            it, or null for the default graph
+	 * @return number of triples written
+	 * @throws IOException
+	 */
+	public static long write(Iterator<Triple> triples, OutputStream out,
+			RdfFormat format, boolean gzip, Node graph) throws IOException {
+		GZIPOutputStream zip = gzip ? new GZIPOutputStream(out, 65536) : null;
+		StreamRDF stream = stream(zip == null ? out : zip, format, graph);
+		long count = 0;
+		stream.start();
+		while (triples.hasNext()) {
+			stream.triple(triples.next());
+			count++;
+		}
+		stream.finish();
+		if (zip != null) {
+			zip.finish();
+		}
+		out.flush();
+		return count;
+	}
+
+	/**
+	 * Write quads in the given format. Formats without graph names write the
+	 * triple of each quad.
+	 * 
+	 * @param quads
+	 *            quads to write
+	 * @param out
+	 *            stream to write to, which is flushed but not closed
+	 * @param format
+	 *            serialisation to use
+	 * @param gzip
+	 *            whether to gzip the output
+	 * @return number of quads written
+	 * @throws IOException
+	 */
+	public static long writeQuads(Iterator<Quad> quads, OutputStream out,
+			RdfFormat format, boolean gzip) throws IOException {
+		GZIPOutputStream zip = gzip ? new GZIPOutputStream(out, 65536) : null;
+		StreamRDF stream = stream(zip == null ? out : zip, format, null);
+		long count = 0;
+		stream.start();
+		while (quads.hasNext()) {
+			stream.quad(quads.next());
+			count++;
+		}
+		stream.finish();
+		if (zip != null) {
+			zip.finish();
+		}
+		out.flush();
+		return count;
+	}
+
+	/**
+	 * Create a stream that serialises the triples sent to it. Output is
+	 * buffered until {@link StreamRDF#finish()} is called.
+	 * 
+	 * @param graph
+	 *            graph name written with each triple in formats that support
+	 *            it, or null for the default graph
+	 */
+	public static StreamRDF stream(OutputStream out, RdfFormat format,
+			Node graph) {
+		switch (format) {
+		case NTRIPLES:
+			return new NTriplesStream(out);
+		case NQUADS:
+			return new NQuadsStream(out, graph);
+		case BINARY:
+			return new BinaryRdfWriter(out);
+		default:
+			throw new IllegalArgumentException("Unsupported format " + format);
+		}
+	}
+
+	private static class NTriplesStream implements StreamRDF {
+		private final SinkTripleOutput sink;
+
+		NTriplesStream(OutputStream out) {
+			this.sink = new SinkTripleOutput(out);
+		}
+
+		public void start() {
+		}
+
+		public void triple(Triple triple) {
+			sink.send(triple);
+		}
+
+		public void quad(Quad quad) {
+			sink.send(quad.asTriple());
+		}
+
+		public void tuple(Tuple<Node> tuple) {
+		}
+
+		public void base(String base) {
+		}
+
+		public void prefix(String prefix, String iri) {
+		}
+
+		public void finish() {
+			sink.flush();
+		}
+	}
+
+	private static class NQuadsStream implements StreamRDF {
+		private final SinkQuadOutput sink;
+		private final Node graph;
+
+		NQuadsStream(OutputStream out, Node graph) {
+			this.sink = new SinkQuadOutput(out);
+			this.graph = graph == null ? Quad.defaultGraphNodeGenerated
+					: graph;
+		}
+
+		public void start() {
+		}
+
+		public void triple(Triple triple) {
+			sink.send(new Quad(graph, triple));
+		}
+
+		public void quad(Quad quad) {
+			sink.send(quad);
+		}
+
+		public void tuple(Tuple<Node> tuple) {
+		}
+
+		public void base(String base) {
+		}
+
+		public void prefix(String prefix, String iri) {
+		}
+
+		public void finish() {
+			sink.flush();
+		}
+	}
+}
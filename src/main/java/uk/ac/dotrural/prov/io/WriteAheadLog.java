@@ -0,0 +1,548 @@
+package uk.ac.dotrural.prov.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.jena.riot.RiotException;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+
+/**
+ * Append only log of the triples added to and removed from a graph, so that
+ * an in memory store can be rebuilt after a crash by restoring its last
+ * snapshot and replaying the log. The log is registered as a listener of the
+ * graph and records each change in memory; writers call {@link #sync()} once
+ * a change is complete, and how long that waits depends on the
+ * {@link SyncPolicy}. Concurrent callers of {@link #sync()} share one write
+ * and fsync: the first becomes the leader and writes every record appended so
+ * far, while the others wait for it rather than each syncing their own.
+ *
+ * <pre>
+ * file    := record*
+ * record  := int(length) int(crc32) payload
+ * payload := op varint(count) triple{count}
+ * op      := ADD | DELETE | REMOVE
+ * triple  := term term term
+ * term    := IRI string | BNODE string | PLAIN string
+ *          | LANG string string | TYPED string string | ANY
+ * </pre>
+ *
+ * The term tags and string encoding are those of {@link BinaryRdfWriter}.
+ * Removals the graph reports as events rather than triple by triple, such as
+ * <code>Graph.clear()</code> or <code>Model.removeAll()</code>, are recorded
+ * as a REMOVE of the triple pattern, with ANY standing for a wildcard.
+ * Each record stands alone, so a record torn by a crash is detected by its
+ * length or checksum and discarded when the log is replayed.
+ */
+public class WriteAheadLog implements GraphListener, Closeable {
+
+	/**
+	 * When records are forced to disk
+	 */
+	public enum SyncPolicy {
+		/**
+		 * {@link WriteAheadLog#sync()} returns once the records appended so far
+		 * are on disk
+		 */
+		ALWAYS,
+		/**
+		 * {@link WriteAheadLog#sync()} returns at once and a background thread
+		 * writes and forces the records every interval, so a crash loses at
+		 * most the changes of the last interval
+		 */
+		INTERVAL,
+		/**
+		 * {@link WriteAheadLog#sync()} writes the records to the operating
+		 * system without forcing them to disk, so they survive the process
+		 * failing but not the machine
+		 */
+		NONE
+	}
+
+	static final int ADD = 1;
+	static final int DELETE = 2;
+	static final int REMOVE = 3;
+
+	/** Term tag of a wildcard in a REMOVE pattern */
+	static final int ANY = 0;
+
+	public static final long DEFAULT_INTERVAL = 100;
+
+	private static final int HEADER_SIZE = 8;
+
+	private final File file;
+	private final SyncPolicy policy;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final Thread thread;
+
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final CRC32 crc = new CRC32();
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream pendingOut = new DataOutputStream(pending);
+
+	private long appended;
+	private long written;
+	private long forced;
+	private long syncs;
+	private boolean flushing;
+	private IOException failure;
+	private volatile boolean closed;
+
+	/**
+	 * Open a log with {@link SyncPolicy#ALWAYS}
+	 *
+	 * @param file
+	 *            the log file, created if it does not exist
+	 * @throws IOException
+	 */
+	public WriteAheadLog(File file) throws IOException {
+		this(file, SyncPolicy.ALWAYS, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * @param file
+	 *            the log file, created if it does not exist
+	 * @param policy
+	 *            when records are forced to disk
+	 * @param interval
+	 *            milliseconds between forcing records to disk, only used by
+	 *            {@link SyncPolicy#INTERVAL}
+	 * @throws IOException
+	 */
+	public WriteAheadLog(File file, SyncPolicy policy, final long interval)
+			throws IOException {
+		this.file = file;
+		this.policy = policy;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		this.channel.position(channel.size());
+		if (policy == SyncPolicy.INTERVAL) {
+			this.thread = new Thread(new Runnable() {
+				public void run() {
+					forceEvery(interval);
+				}
+			}, "provenance-wal");
+			this.thread.setDaemon(true);
+			this.thread.start();
+		} else {
+			this.thread = null;
+		}
+	}
+
+	/**
+	 * Apply the records in the log to graph, normally after restoring the
+	 * last snapshot and before registering the log with the graph. A torn or
+	 * corrupt record at the end of the log, left by a crash while it was
+	 * being written, is discarded along with anything after it.
+	 *
+	 * @param graph
+	 *            the graph to apply the changes to
+	 * @return the number of triples added or removed, counting the triples
+	 *         each REMOVE pattern matched
+	 * @throws IOException
+	 */
+	public synchronized long replay(Graph graph) throws IOException {
+		long count = 0;
+		long valid = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 65536));
+		try {
+			byte[] payload = new byte[0];
+			while (true) {
+				int length;
+				int checksum;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (length <= 0 || length > channel.size() - valid - HEADER_SIZE) {
+					break;
+				}
+				if (payload.length < length) {
+					payload = new byte[length];
+				}
+				try {
+					in.readFully(payload, 0, length);
+				} catch (EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				count += apply(graph, ByteBuffer.wrap(payload, 0, length));
+				valid += HEADER_SIZE + length;
+			}
+		} finally {
+			in.close();
+		}
+		if (valid < channel.size()) {
+			channel.truncate(valid);
+		}
+		channel.position(valid);
+		return count;
+	}
+
+	/**
+	 * Make the changes recorded so far durable according to the
+	 * {@link SyncPolicy}. Call once a write is complete, after releasing any
+	 * lock held while making it so that other writers can share the sync.
+	 *
+	 * @throws RiotException
+	 *             if the log cannot be written, or an earlier write of the
+	 *             log failed, under every policy
+	 */
+	public void sync() {
+		try {
+			if (policy == SyncPolicy.INTERVAL) {
+				checkFailure();
+			} else {
+				flush(policy == SyncPolicy.ALWAYS);
+			}
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+	}
+
+	/**
+	 * Discard every record, once the changes they hold have been saved in a
+	 * snapshot. Writers must be excluded until the log has been truncated, or
+	 * their changes may be in neither.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void truncate() throws IOException {
+		while (flushing) {
+			await();
+		}
+		pending.reset();
+		channel.truncate(0);
+		channel.position(0);
+		channel.force(false);
+		written = appended;
+		forced = appended;
+		notifyAll();
+	}
+
+	/**
+	 * Write and force any records not yet on disk and close the file. The log
+	 * should be unregistered from its graph first.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			flush(true);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the number of times records have been forced to disk, at most one
+	 * for each call to {@link #sync()} and fewer when writers share a sync
+	 *
+	 * @return number of fsyncs
+	 */
+	public synchronized long getSyncCount() {
+		return syncs;
+	}
+
+	/**
+	 * Get the number of records appended, one for each change notified by the
+	 * graph
+	 *
+	 * @return number of records
+	 */
+	public synchronized long getRecordCount() {
+		return appended;
+	}
+
+	/**
+	 * Write the records appended before the call, forcing them to disk if
+	 * force is set. Only one thread writes at a time; a caller whose records
+	 * are being written by another waits for it, and otherwise writes every
+	 * pending record, including those appended by callers now waiting.
+	 */
+	private void flush(boolean force) throws IOException {
+		byte[] data;
+		long target;
+		synchronized (this) {
+			target = appended;
+			while (true) {
+				checkFailure();
+				if (force ? forced >= target : written >= target) {
+					return;
+				}
+				if (!flushing) {
+					break;
+				}
+				await();
+			}
+			flushing = true;
+			target = appended;
+			data = pending.toByteArray();
+			pending.reset();
+		}
+		IOException error = null;
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			if (force) {
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+		synchronized (this) {
+			flushing = false;
+			if (error == null) {
+				written = target;
+				if (force) {
+					forced = target;
+					syncs++;
+				}
+			} else {
+				failure = error;
+			}
+			notifyAll();
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private synchronized void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Write-ahead log failed", failure);
+		}
+	}
+
+	/**
+	 * Force the records to disk every interval until closed. A failure is
+	 * kept by {@link #flush(boolean)} and stops the thread; writers see it on
+	 * their next {@link #sync()}.
+	 */
+	private void forceEvery(long interval) {
+		try {
+			while (!closed) {
+				Thread.sleep(interval);
+				flush(true);
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} catch (IOException e) {
+			// reported to writers by sync()
+		}
+	}
+
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private void append(int op, Iterator<Triple> triples) {
+		List<Triple> list = new ArrayList<Triple>();
+		while (triples.hasNext()) {
+			list.add(triples.next());
+		}
+		append(op, list);
+	}
+
+	private synchronized void append(int op, List<Triple> list) {
+		if (list.isEmpty()) {
+			return;
+		}
+		try {
+			record.reset();
+			recordOut.write(op);
+			ProvenanceSnapshot.writeVarint(recordOut, list.size());
+			for (Triple triple : list) {
+				writeTerm(triple.getSubject());
+				writeTerm(triple.getPredicate());
+				writeTerm(triple.getObject());
+			}
+			crc.reset();
+			crc.update(record.toByteArray());
+			pendingOut.writeInt(record.size());
+			pendingOut.writeInt((int) crc.getValue());
+			record.writeTo(pendingOut);
+		} catch (IOException e) {
+			throw new RiotException(e);
+		}
+		appended++;
+	}
+
+	private void writeTerm(Node node) throws IOException {
+		if (Node.ANY.equals(node)) {
+			recordOut.write(ANY);
+		} else if (node.isURI()) {
+			recordOut.write(BinaryRdfWriter.IRI);
+			ProvenanceSnapshot.writeString(recordOut, node.getURI());
+		} else if (node.isBlank()) {
+			recordOut.write(BinaryRdfWriter.BNODE);
+			ProvenanceSnapshot.writeString(recordOut, node.getBlankNodeLabel());
+		} else if (node.isLiteral()) {
+			String lang = node.getLiteralLanguage();
+			String datatype = node.getLiteralDatatypeURI();
+			if (lang != null && lang.length() > 0) {
+				recordOut.write(BinaryRdfWriter.LANG);
+				ProvenanceSnapshot.writeString(recordOut,
+						node.getLiteralLexicalForm());
+				ProvenanceSnapshot.writeString(recordOut, lang);
+			} else if (datatype != null) {
+				recordOut.write(BinaryRdfWriter.TYPED);
+				ProvenanceSnapshot.writeString(recordOut,
+						node.getLiteralLexicalForm());
+				ProvenanceSnapshot.writeString(recordOut, datatype);
+			} else {
+				recordOut.write(BinaryRdfWriter.PLAIN);
+				ProvenanceSnapshot.writeString(recordOut,
+						node.getLiteralLexicalForm());
+			}
+		} else {
+			throw new RiotException("Cannot encode " + node);
+		}
+	}
+
+	private static long apply(Graph graph, ByteBuffer in) {
+		int op = in.get();
+		int count = ProvenanceSnapshot.readVarint(in);
+		List<Triple> triples = new ArrayList<Triple>(count);
+		for (int i = 0; i < count; i++) {
+			triples.add(Triple.create(readTerm(in), readTerm(in), readTerm(in)));
+		}
+		if (op == ADD) {
+			GraphUtil.add(graph, triples);
+		} else if (op == DELETE) {
+			GraphUtil.delete(graph, triples);
+		} else if (op == REMOVE) {
+			long size = graph.size();
+			for (Triple pattern : triples) {
+				graph.remove(pattern.getSubject(), pattern.getPredicate(),
+						pattern.getObject());
+			}
+			return size - graph.size();
+		} else {
+			throw new RiotException("Unknown log record type " + op);
+		}
+		return count;
+	}
+
+	private static Node readTerm(ByteBuffer in) {
+		int tag = in.get();
+		switch (tag) {
+		case ANY:
+			return Node.ANY;
+		case BinaryRdfWriter.IRI:
+			return Node.createURI(ProvenanceSnapshot.readString(in));
+		case BinaryRdfWriter.BNODE:
+			return Node.createAnon(new AnonId(ProvenanceSnapshot.readString(in)));
+		case BinaryRdfWriter.PLAIN:
+			return Node.createLiteral(ProvenanceSnapshot.readString(in));
+		case BinaryRdfWriter.LANG:
+			return Node.createLiteral(ProvenanceSnapshot.readString(in),
+					ProvenanceSnapshot.readString(in), false);
+		case BinaryRdfWriter.TYPED:
+			String lexical = ProvenanceSnapshot.readString(in);
+			String datatype = ProvenanceSnapshot.readString(in);
+			return Node.createLiteral(lexical, null, TypeMapper.getInstance()
+					.getSafeTypeByName(datatype));
+		default:
+			throw new RiotException("Unknown term type " + tag);
+		}
+	}
+
+	public void notifyAddTriple(Graph g, Triple t) {
+		append(ADD, Collections.singletonList(t));
+	}
+
+	public void notifyAddArray(Graph g, Triple[] triples) {
+		append(ADD, Arrays.asList(triples));
+	}
+
+	public void notifyAddList(Graph g, List<Triple> triples) {
+		append(ADD, triples);
+	}
+
+	public void notifyAddIterator(Graph g, Iterator<Triple> it) {
+		append(ADD, it);
+	}
+
+	public void notifyAddGraph(Graph g, Graph added) {
+		append(ADD, added.find(Node.ANY, Node.ANY, Node.ANY));
+	}
+
+	public void notifyDeleteTriple(Graph g, Triple t) {
+		append(DELETE, Collections.singletonList(t));
+	}
+
+	public void notifyDeleteList(Graph g, List<Triple> triples) {
+		append(DELETE, triples);
+	}
+
+	public void notifyDeleteArray(Graph g, Triple[] triples) {
+		append(DELETE, Arrays.asList(triples));
+	}
+
+	public void notifyDeleteIterator(Graph g, Iterator<Triple> it) {
+		append(DELETE, it);
+	}
+
+	public void notifyDeleteGraph(Graph g, Graph removed) {
+		append(DELETE, removed.find(Node.ANY, Node.ANY, Node.ANY));
+	}
+
+	public void notifyEvent(Graph source, Object value) {
+		// the removed triples are not reported, so record the pattern
+		if (GraphEvents.removeAll.equals(value)) {
+			append(REMOVE, Collections.singletonList(Triple.ANY));
+		} else if (value instanceof GraphEvents
+				&& "remove".equals(((GraphEvents) value).getTitle())) {
+			append(REMOVE, Collections.singletonList(((GraphEvents) value)
+					.getTriple()));
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * {@link Tracker} that appends messages to a file from a background thread.
+ * Messages are queued without blocking the caller and written in batches;
+ * if the queue is full the message is discarded and counted. If the file
+ * cannot be written, later messages are discarded and counted too, and the
+ * error is thrown by {@link #close()}.
+ */
+
+public class AsyncFileTracker implements Tracker, Closeable {
+
+	private static final int BATCH_SIZE = 1024;
+
+	private final Level threshold;
+	private final BlockingQueue<String> queue;
+	private final Writer writer;
+	private final Thread thread;
+	private final AtomicLong dropped;
+	// held for reading while a message is queued, so that once close() has
+	// taken it for writing no message can be queued after the writer stops
+	private final ReadWriteLock closing = new ReentrantReadWriteLock();
+	private volatile boolean closed;
+	private volatile IOException failure;
+
+	/**
+	 * @param file The file to append messages to
+	 * @param threshold The lowest level of message to record
+	 * @param capacity The maximum number of messages waiting to be written
+	 * @throws IOException if the file cannot be opened
+	 */
+	public AsyncFileTracker(File file, Level threshold, int capacity) throws IOException
+	{
+		this.threshold = threshold;
+		this.queue = new ArrayBlockingQueue<String>(capacity);
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+		this.dropped = new AtomicLong();
+		this.thread = new Thread(new Runnable() {
+			public void run()
+			{
+				writeMessages();
+			}
+		}, "provenance-tracker");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public boolean isEnabled(Level level)
+	{
+		return level != Level.OFF && level.compareTo(threshold) >= 0;
+	}
+
+	public void debug(String msg)
+	{
+		record(Level.DEBUG, msg);
+	}
+
+	public void log(String msg)
+	{
+		record(Level.LOG, msg);
+	}
+
+	public void error(String msg)
+	{
+		record(Level.ERROR, msg);
+	}
+
+	/**
+	 * Get the number of messages discarded because the queue was full or the
+	 * file could not be written
+	 * 
+	 * @return number of dropped messages
+	 */
+	public long getDropped()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Write any queued messages and close the file
+	 * 
+	 * @throws IOException if the file could not be written, including an
+	 *             error raised earlier by the background thread
+	 */
+	public void close() throws IOException
+	{
+		closing.writeLock().lock();
+		try {
+			closed = true;
+		} finally {
+			closing.writeLock().unlock();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			if(failure == null)
+				throw e;
+		}
+		if(failure != null)
+			throw failure;
+	}
+
+	private void record(Level level, String msg)
+	{
+		if(!isEnabled(level))
+			return;
+		closing.readLock().lock();
+		try {
+			if(closed)
+				return;
+			if(failure != null || !queue.offer(level + " " + msg))
+				dropped.incrementAndGet();
+		} finally {
+			closing.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Write queued messages in batches until closed and the queue is empty
+	 */
+	private void writeMessages()
+	{
+		List<String> batch = new ArrayList<String>(BATCH_SIZE);
+		try {
+			while(!closed || !queue.isEmpty())
+			{
+				String first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if(first == null)
+					continue;
+				batch.add(first);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for(String msg : batch)
+				{
+					writer.write(msg);
+					writer.write('\n');
+				}
+				batch.clear();
+				if(queue.isEmpty())
+					writer.flush();
+			}
+			writer.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// reported by close()
+			failure = e;
+			dropped.addAndGet(batch.size() + queue.size());
+			queue.clear();
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package uk.ac.dotrural.prov.jena;
+
+/**
+ * {@link Tracker} that writes messages to the console, errors to standard
+ * error and everything else to standard out
+ */
+
+public class ConsoleTracker implements Tracker {
+
+	private final Level threshold;
+
+	/**
+	 * Create a tracker that records messages at every level
+	 */
+	public ConsoleTracker()
+	{
+		this(Level.DEBUG);
+	}
+
+	/**
+	 * @param threshold The lowest level of message to record
+	 */
+	public ConsoleTracker(Level threshold)
+	{
+		this.threshold = threshold;
+	}
+
+	public boolean isEnabled(Level level)
+	{
+		return level != Level.OFF && level.compareTo(threshold) >= 0;
+	}
+
+	public void debug(String msg)
+	{
+		if(isEnabled(Level.DEBUG))
+			System.out.println(msg);
+	}
+
+	public void log(String msg)
+	{
+		if(isEnabled(Level.LOG))
+			System.out.println(msg);
+	}
+
+	public void error(String msg)
+	{
+		if(isEnabled(Level.ERROR))
+			System.err.println(msg);
+	}
+
+}
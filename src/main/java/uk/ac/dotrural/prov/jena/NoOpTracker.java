@@ -0,0 +1,28 @@
+package uk.ac.dotrural.prov.jena;
+
+/**
+ * {@link Tracker} that discards all messages
+ */
+
+public class NoOpTracker implements Tracker {
+
+	public static final NoOpTracker INSTANCE = new NoOpTracker();
+
+	public boolean isEnabled(Level level)
+	{
+		return false;
+	}
+
+	public void debug(String msg)
+	{
+	}
+
+	public void log(String msg)
+	{
+	}
+
+	public void error(String msg)
+	{
+	}
+
+}
@@ -0,0 +1,478 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ProvenanceBuilder;
+import uk.ac.dotrural.prov.XsdDateTime;
+import uk.ac.dotrural.prov.io.RdfFormat;
+import uk.ac.dotrural.prov.io.RdfOutput;
+import uk.ac.dotrural.prov.jena.Tracker.Level;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Factory;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.compose.MultiUnion;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.graph.GraphReadOnly;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+/**
+ * Provenance model split across a number of independent in memory graphs so
+ * that provenance can be added from many threads at once. Statements are
+ * placed in a partition chosen by hashing their subject, so everything about
+ * a resource, including its type, is held in one partition. Each partition
+ * has its own lock and type index; adding a statement locks only the
+ * partition of its subject, and checking the type of its object reads only
+ * the partition of the object.
+ *
+ * Reads and exports merge the partitions, taking the read lock of each
+ * partition they read.
+ */
+
+public class PartitionedProvenanceBundle implements ProvenanceBuilder {
+
+	private static final Node ACTED_ON_BEHALF_OF = Node.createURI(ProvO.actedOnBehalfOf);
+	private static final Node ENDED_AT_TIME = Node.createURI(ProvO.endedAtTime);
+	private static final Node STARTED_AT_TIME = Node.createURI(ProvO.startedAtTime);
+	private static final Node USED = Node.createURI(ProvO.used);
+	private static final Node WAS_ASSOCIATED_WITH = Node.createURI(ProvO.wasAssociatedWith);
+	private static final Node WAS_ATTRIBUTED_TO = Node.createURI(ProvO.wasAttributedTo);
+	private static final Node WAS_DERIVED_FROM = Node.createURI(ProvO.wasDerivedFrom);
+	private static final Node WAS_GENERATED_BY = Node.createURI(ProvO.wasGeneratedBy);
+	private static final Node WAS_INFORMED_BY = Node.createURI(ProvO.wasInformedBy);
+
+	private final String namespace;
+	private final Tracker tracker;
+	private final Graph[] graphs;
+	private final ReadWriteLock[] locks;
+	private final TypeIndex[] typeIndexes;
+
+	/**
+	 * @param ns Namespace used when generating URIs
+	 * @param partitions Number of partitions, typically a small multiple of
+	 *            the number of writer threads
+	 */
+	public PartitionedProvenanceBundle(String ns, int partitions)
+	{
+		this(ns, partitions, new ConsoleTracker());
+	}
+
+	/**
+	 * @param ns Namespace used when generating URIs
+	 * @param partitions Number of partitions, typically a small multiple of
+	 *            the number of writer threads
+	 * @param tracker Tracker used to log assertions, use
+	 *            {@link NoOpTracker#INSTANCE} to disable logging
+	 */
+	public PartitionedProvenanceBundle(String ns, int partitions, Tracker tracker)
+	{
+		if(partitions < 1)
+			throw new IllegalArgumentException("At least one partition is required");
+		namespace = ns;
+		this.tracker = tracker;
+		graphs = new Graph[partitions];
+		locks = new ReadWriteLock[partitions];
+		typeIndexes = new TypeIndex[partitions];
+		for(int i = 0; i < partitions; i++)
+		{
+			graphs[i] = Factory.createDefaultGraph();
+			locks[i] = new ReentrantReadWriteLock();
+			typeIndexes[i] = TypeIndex.register(graphs[i]);
+		}
+	}
+
+	public boolean addActedOnBehalfOf(String agent1, String agent2)
+	{
+		return addRelation(agent1, TypeIndex.AGENT, ACTED_ON_BEHALF_OF, agent2, TypeIndex.AGENT);
+	}
+
+	public boolean addEndedAtTime(String activity, long timestamp)
+	{
+		return addTime(activity, ENDED_AT_TIME, timestamp);
+	}
+
+	public boolean addStartedAtTime(String activity, long timestamp)
+	{
+		return addTime(activity, STARTED_AT_TIME, timestamp);
+	}
+
+	public boolean addUsed(String activity, String entity)
+	{
+		return addRelation(activity, TypeIndex.ACTIVITY, USED, entity, TypeIndex.ENTITY);
+	}
+
+	public boolean addWasAssociatedWith(String activity, String agent)
+	{
+		return addRelation(activity, TypeIndex.ACTIVITY, WAS_ASSOCIATED_WITH, agent, TypeIndex.AGENT);
+	}
+
+	public boolean addWasAttributedTo(String entity, String agent)
+	{
+		return addRelation(entity, TypeIndex.ENTITY, WAS_ATTRIBUTED_TO, agent, TypeIndex.AGENT);
+	}
+
+	public boolean addWasDerivedFrom(String entity1, String entity2)
+	{
+		return addRelation(entity1, TypeIndex.ENTITY, WAS_DERIVED_FROM, entity2, TypeIndex.ENTITY);
+	}
+
+	public boolean addWasGeneratedBy(String entity, String activity)
+	{
+		return addRelation(entity, TypeIndex.ENTITY, WAS_GENERATED_BY, activity, TypeIndex.ACTIVITY);
+	}
+
+	public boolean addWasInformedBy(String activity1, String activity2)
+	{
+		return addRelation(activity1, TypeIndex.ACTIVITY, WAS_INFORMED_BY, activity2, TypeIndex.ACTIVITY);
+	}
+
+	public String createActivity()
+	{
+		return createActivity(generateUri());
+	}
+
+	public String createActivity(String uri)
+	{
+		return addType(uri, TypeIndex.ACTIVITY_NODE);
+	}
+
+	public String createAgent()
+	{
+		return createAgent(generateUri());
+	}
+
+	public String createAgent(String uri)
+	{
+		return addType(uri, TypeIndex.AGENT_NODE);
+	}
+
+	public String createEntity()
+	{
+		return createEntity(generateUri());
+	}
+
+	public String createEntity(String uri)
+	{
+		return addType(uri, TypeIndex.ENTITY_NODE);
+	}
+
+	/**
+	 * Check whether a resource has a PROV type, in whichever partition holds
+	 * it
+	 *
+	 * @param uri The URI of the resource
+	 * @param type One of {@link TypeIndex#ACTIVITY}, {@link TypeIndex#ENTITY}
+	 *            or {@link TypeIndex#AGENT}
+	 * @return true if the resource has the type
+	 */
+	public boolean hasType(String uri, byte type)
+	{
+		return hasType(Node.createURI(uri), type);
+	}
+
+	/**
+	 * Add triples directly without type checks or logging, for bulk loading.
+	 * The triples are grouped by partition and each group is added under one
+	 * lock.
+	 *
+	 * @param triples The triples to add
+	 */
+	public void addTriples(List<Triple> triples)
+	{
+		List<List<Triple>> groups = new ArrayList<List<Triple>>(graphs.length);
+		for(int i = 0; i < graphs.length; i++)
+			groups.add(new ArrayList<Triple>());
+		for(Triple t : triples)
+			groups.get(partition(t.getSubject())).add(t);
+		for(int i = 0; i < graphs.length; i++)
+		{
+			if(groups.get(i).isEmpty())
+				continue;
+			locks[i].writeLock().lock();
+			try {
+				GraphUtil.add(graphs[i], groups.get(i));
+			} finally {
+				locks[i].writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of partitions
+	 */
+	public int getPartitionCount()
+	{
+		return graphs.length;
+	}
+
+	/**
+	 * @return The number of triples in all partitions
+	 */
+	public long size()
+	{
+		long size = 0;
+		for(int i = 0; i < graphs.length; i++)
+		{
+			locks[i].readLock().lock();
+			try {
+				size += graphs[i].size();
+			} finally {
+				locks[i].readLock().unlock();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Find the triples matching a pattern. Only the partition of the subject
+	 * is read if the subject is given, otherwise every partition is read. The
+	 * matches are copied under the partition read locks, so the result can be
+	 * used while provenance is being added.
+	 *
+	 * @param s The subject, or Node.ANY
+	 * @param p The predicate, or Node.ANY
+	 * @param o The object, or Node.ANY
+	 * @return The matching triples
+	 */
+	public List<Triple> find(Node s, Node p, Node o)
+	{
+		List<Triple> found = new ArrayList<Triple>();
+		if(s.isConcrete())
+			find(partition(s), s, p, o, found);
+		else
+		{
+			for(int i = 0; i < graphs.length; i++)
+				find(i, s, p, o, found);
+		}
+		return found;
+	}
+
+	/**
+	 * Get a read only model over the union of the partitions. Each read takes
+	 * the read locks of the partitions it touches, the same as
+	 * {@link #find(Node, Node, Node)}, so the model can be queried while
+	 * provenance is being added. A read that spans partitions is not an
+	 * atomic snapshot of them.
+	 *
+	 * @return The model
+	 */
+	public Model getModel()
+	{
+		return createModel(new LockedUnion());
+	}
+
+	/**
+	 * Write the provenance model to the given OutputStream, blocking additions
+	 * while it is written
+	 *
+	 * @param out The OutputStream to write the model to
+	 */
+	public void write(OutputStream out)
+	{
+		lockAll();
+		try {
+			createModel(new MultiUnion(graphs)).write(out);
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Write the provenance model to the given OutputStream one triple at a
+	 * time, a partition after another, blocking additions while it is written
+	 *
+	 * @param out The OutputStream to write the model to, it is not closed
+	 * @param format The serialisation to use
+	 * @param gzip Whether to gzip the output
+	 * @return The number of triples written
+	 * @throws IOException
+	 */
+	public long write(OutputStream out, RdfFormat format, boolean gzip) throws IOException
+	{
+		lockAll();
+		try {
+			// the partitions are disjoint, so they are concatenated rather
+			// than merged through a union graph
+			ExtendedIterator<Triple> triples = NullIterator.instance();
+			for(Graph graph : graphs)
+				triples = triples.andThen(graph.find(Node.ANY, Node.ANY, Node.ANY));
+			return RdfOutput.write(triples, out, format, gzip, null);
+		} finally {
+			unlockAll();
+		}
+	}
+
+	private boolean addRelation(String subject, byte subjectType, Node predicate, String object, byte objectType)
+	{
+		Node s = Node.createURI(subject);
+		Node o = Node.createURI(object);
+		if(!hasType(o, objectType))
+		{
+			typeError(object, objectType);
+			return false;
+		}
+		int p = partition(s);
+		locks[p].writeLock().lock();
+		try {
+			if(!typeIndexes[p].hasType(s, subjectType))
+			{
+				typeError(subject, subjectType);
+				return false;
+			}
+			add(p, Triple.create(s, predicate, o));
+			return true;
+		} finally {
+			locks[p].writeLock().unlock();
+		}
+	}
+
+	private boolean addTime(String activity, Node predicate, long timestamp)
+	{
+		Node s = Node.createURI(activity);
+		int p = partition(s);
+		locks[p].writeLock().lock();
+		try {
+			if(!typeIndexes[p].hasType(s, TypeIndex.ACTIVITY))
+			{
+				typeError(activity, TypeIndex.ACTIVITY);
+				return false;
+			}
+			add(p, Triple.create(s, predicate, Node.createLiteral(XsdDateTime.format(timestamp), XSDDatatype.XSDdateTime)));
+			return true;
+		} finally {
+			locks[p].writeLock().unlock();
+		}
+	}
+
+	private String addType(String uri, Node type)
+	{
+		Node s = Node.createURI(uri);
+		int p = partition(s);
+		locks[p].writeLock().lock();
+		try {
+			add(p, Triple.create(s, TypeIndex.RDF_TYPE, type));
+		} finally {
+			locks[p].writeLock().unlock();
+		}
+		return uri;
+	}
+
+	/**
+	 * Add a triple to a partition, the caller holds its write lock
+	 */
+	private void add(int partition, Triple t)
+	{
+		graphs[partition].add(t);
+		if(tracker.isEnabled(Level.LOG))
+			tracker.log(t.toString() + " added to model");
+	}
+
+	private boolean hasType(Node resource, byte type)
+	{
+		int p = partition(resource);
+		locks[p].readLock().lock();
+		try {
+			return typeIndexes[p].hasType(resource, type);
+		} finally {
+			locks[p].readLock().unlock();
+		}
+	}
+
+	/**
+	 * Copy the triples of a partition matching a pattern under its read lock
+	 */
+	private void find(int partition, Node s, Node p, Node o, List<Triple> found)
+	{
+		locks[partition].readLock().lock();
+		try {
+			ExtendedIterator<Triple> it = graphs[partition].find(s, p, o);
+			try {
+				while(it.hasNext())
+					found.add(it.next());
+			} finally {
+				it.close();
+			}
+		} finally {
+			locks[partition].readLock().unlock();
+		}
+	}
+
+	private static Model createModel(Graph union)
+	{
+		Model model = ModelFactory.createModelForGraph(new GraphReadOnly(union));
+		model.setNsPrefix("prov", ProvO.ns);
+		model.setNsPrefix("rdf", TypeIndex.RDF_TYPE.getNameSpace());
+		return model;
+	}
+
+	private void typeError(String uri, byte type)
+	{
+		if(tracker.isEnabled(Level.ERROR))
+			tracker.error(uri + " is not of type " + TypeIndex.typeName(type));
+	}
+
+	private int partition(Node subject)
+	{
+		return (subject.hashCode() & Integer.MAX_VALUE) % graphs.length;
+	}
+
+	/**
+	 * Take the read lock of every partition, always in the same order
+	 */
+	private void lockAll()
+	{
+		for(ReadWriteLock lock : locks)
+			lock.readLock().lock();
+	}
+
+	private void unlockAll()
+	{
+		for(int i = locks.length - 1; i >= 0; i--)
+			locks[i].readLock().unlock();
+	}
+
+	/**
+	 * Union of the partitions whose reads go through
+	 * {@link PartitionedProvenanceBundle#find(Node, Node, Node)}
+	 */
+	private class LockedUnion extends GraphBase
+	{
+		@Override
+		protected ExtendedIterator<Triple> graphBaseFind(TripleMatch m)
+		{
+			Triple t = m.asTriple();
+			return WrappedIterator.create(PartitionedProvenanceBundle.this.find(t.getSubject(), t.getPredicate(), t.getObject()).iterator());
+		}
+
+		@Override
+		protected int graphBaseSize()
+		{
+			return (int) PartitionedProvenanceBundle.this.size();
+		}
+	}
+
+	/**
+	 * Generate a URI containing a UUID
+	 *
+	 * @return The new unique URI
+	 */
+	private String generateUri()
+	{
+		return namespace + UUID.randomUUID();
+	}
+}
@@ -0,0 +1,166 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ProvenanceBuilder;
+import uk.ac.dotrural.prov.XsdDateTime;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * Implementation of {@link ProvenanceBuilder} that creates Jena {@link Triple}s
+ * directly, without building or parsing any SPARQL text. The pending triples
+ * are written to a store with
+ * {@link JenaSparqlUtils#performTripleUpdates(Collection)}, or added to any
+ * other graph by the caller.
+ */
+public class ProvTripleBuilder implements ProvenanceBuilder {
+
+	private static final Node RDF_TYPE = Node
+			.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+	private static final Node ACTED_ON_BEHALF_OF = Node
+			.createURI(ProvO.actedOnBehalfOf);
+	private static final Node ENDED_AT_TIME = Node.createURI(ProvO.endedAtTime);
+	private static final Node STARTED_AT_TIME = Node
+			.createURI(ProvO.startedAtTime);
+	private static final Node USED = Node.createURI(ProvO.used);
+	private static final Node WAS_ASSOCIATED_WITH = Node
+			.createURI(ProvO.wasAssociatedWith);
+	private static final Node WAS_ATTRIBUTED_TO = Node
+			.createURI(ProvO.wasAttributedTo);
+	private static final Node WAS_DERIVED_FROM = Node
+			.createURI(ProvO.wasDerivedFrom);
+	private static final Node WAS_GENERATED_BY = Node
+			.createURI(ProvO.wasGeneratedBy);
+	private static final Node WAS_INFORMED_BY = Node
+			.createURI(ProvO.wasInformedBy);
+	private static final Node ACTIVITY = Node.createURI(ProvO.Activity);
+	private static final Node AGENT = Node.createURI(ProvO.Agent);
+	private static final Node ENTITY = Node.createURI(ProvO.Entity);
+
+	private List<Triple> triples;
+	private String ns;
+
+	public ProvTripleBuilder(String ns) {
+		super();
+		this.ns = ns;
+		this.triples = new ArrayList<Triple>();
+	}
+
+	/**
+	 * Gets a copy of the pending triples
+	 * 
+	 * @return the triples added since the last call to {@link #clearTriples()}
+	 */
+	public Collection<Triple> getTriples() {
+		return new ArrayList<Triple>(this.triples);
+	}
+
+	public boolean clearTriples() {
+		this.triples.clear();
+		return true;
+	}
+
+	public boolean addActedOnBehalfOf(String agent1Uri, String agent2Uri) {
+		addUriTriple(agent1Uri, ACTED_ON_BEHALF_OF, agent2Uri);
+		return true;
+	}
+
+	public boolean addEndedAtTime(String activityUri, long timestamp) {
+		addDateTimeTriple(activityUri, ENDED_AT_TIME, timestamp);
+		return true;
+	}
+
+	public boolean addStartedAtTime(String activityUri, long timestamp) {
+		addDateTimeTriple(activityUri, STARTED_AT_TIME, timestamp);
+		return true;
+	}
+
+	public boolean addUsed(String activityUri, String entityUri) {
+		addUriTriple(activityUri, USED, entityUri);
+		return true;
+	}
+
+	public boolean addWasAssociatedWith(String activityUri, String agentUri) {
+		addUriTriple(activityUri, WAS_ASSOCIATED_WITH, agentUri);
+		return true;
+	}
+
+	public boolean addWasAttributedTo(String entityUri, String agentUri) {
+		addUriTriple(entityUri, WAS_ATTRIBUTED_TO, agentUri);
+		return true;
+	}
+
+	public boolean addWasDerivedFrom(String entity1Uri, String entity2Uri) {
+		addUriTriple(entity1Uri, WAS_DERIVED_FROM, entity2Uri);
+		return true;
+	}
+
+	public boolean addWasGeneratedBy(String entityUri, String activityUri) {
+		addUriTriple(entityUri, WAS_GENERATED_BY, activityUri);
+		return true;
+	}
+
+	public boolean addWasInformedBy(String activity1Uri, String activity2Uri) {
+		addUriTriple(activity1Uri, WAS_INFORMED_BY, activity2Uri);
+		return true;
+	}
+
+	public String createActivity() {
+		return createActivity(generateUri());
+	}
+
+	public String createActivity(String uri) {
+		addTypeTriple(uri, ACTIVITY);
+		return uri;
+	}
+
+	public String createAgent() {
+		return createAgent(generateUri());
+	}
+
+	public String createAgent(String uri) {
+		addTypeTriple(uri, AGENT);
+		return uri;
+	}
+
+	public String createEntity() {
+		return createEntity(generateUri());
+	}
+
+	public String createEntity(String uri) {
+		addTypeTriple(uri, ENTITY);
+		return uri;
+	}
+
+	private void addUriTriple(String s, Node p, String o) {
+		this.triples.add(Triple.create(Node.createURI(s), p, Node.createURI(o)));
+	}
+
+	private void addTypeTriple(String s, Node type) {
+		this.triples.add(Triple.create(Node.createURI(s), RDF_TYPE, type));
+	}
+
+	private void addDateTimeTriple(String s, Node p, long timestamp) {
+		Node literal = Node.createLiteral(
+				XsdDateTime.format(timestamp),
+				XSDDatatype.XSDdateTime);
+		this.triples.add(Triple.create(Node.createURI(s), p, literal));
+	}
+
+	/**
+	 * Generate a URI containing a UUID
+	 * 
+	 * @return The new unique URI
+	 */
+	private String generateUri() {
+		return this.ns + UUID.randomUUID();
+	}
+}
@@ -1,14 +1,33 @@
 package uk.ac.dotrural.prov.jena;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
+import uk.ac.dotrural.prov.ProvO;
 import uk.ac.dotrural.prov.ProvenanceBuilder;
-import uk.ac.dotrural.prov.jena.Tracker;
+import uk.ac.dotrural.prov.XsdDateTime;
+import uk.ac.dotrural.prov.io.ProvenanceSnapshot;
+import uk.ac.dotrural.prov.io.RdfFormat;
+import uk.ac.dotrural.prov.io.RdfOutput;
+import uk.ac.dotrural.prov.io.WriteAheadLog;
+import uk.ac.dotrural.prov.io.WriteAheadLog.SyncPolicy;
+import uk.ac.dotrural.prov.jena.Tracker.Level;
 
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.OntModel;
 import com.hp.hpl.jena.ontology.OntModelSpec;
 import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.Resource;
@@ -26,16 +45,45 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	private OntModel prov;
 	private String namespace;
 	private Tracker tracker;
+	private TypeIndex typeIndex;
+	private TripleJournal journal;
+	private int journalLimit = TripleJournal.DEFAULT_LIMIT;
+	private TimeIndex timeIndex;
+	private WriteAheadLog log;
+	private long duplicates;
 	
 	// Namespaces
 	private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
 	private static final String PROV_NS = "http://www.w3.org/ns/prov#";
 	
 	public ProvenanceBundle(String ns)
+	{
+		this(ns, new ConsoleTracker());
+	}
+	
+	/**
+	 * @param ns Namespace used when generating URIs
+	 * @param tracker Tracker used to log assertions, use
+	 *            {@link NoOpTracker#INSTANCE} to disable logging
+	 */
+	public ProvenanceBundle(String ns, Tracker tracker)
+	{
+		this(ns, tracker, ModelFactory.createDefaultModel());
+	}
+	
+	/**
+	 * @param ns Namespace used when generating URIs
+	 * @param tracker Tracker used to log assertions, use
+	 *            {@link NoOpTracker#INSTANCE} to disable logging
+	 * @param model Model to hold the provenance, such as a named graph of a
+	 *            dataset; any statements it already holds are type indexed
+	 */
+	public ProvenanceBundle(String ns, Tracker tracker, Model model)
 	{
 		namespace = ns;
-		prov = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM);
-		tracker = new Tracker();
+		prov = ModelFactory.createOntologyModel(OntModelSpec.OWL_MEM, model);
+		this.tracker = tracker;
+		typeIndex = TypeIndex.register(prov.getBaseModel().getGraph());
 		
 		//Set namespaces
 		prov.setNsPrefix("prov", PROV_NS);
@@ -43,7 +91,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	}
 	
 	/**
-	 * Add a statement to the model
+	 * Add a statement to the model, unless it is already there
 	 * 
 	 * @param s A resource describing the subject
 	 * @param p Property
@@ -53,13 +101,16 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	private String add(Resource s, Property p, Resource o)
 	{
 		Statement stmt = createStatement(s, p, o); 
+		if(isDuplicate(stmt))
+			return s.getURI();
 		prov.add(stmt);
-		tracker.log(stmt.toString() + " added to model");
+		if(tracker.isEnabled(Level.LOG))
+			tracker.log(stmt.toString() + " added to model");
 		return s.getURI();		
 	}
 
 	/**
-	 * Add a statement to the model
+	 * Add a statement to the model, unless it is already there
 	 * 
 	 * @param s A resource describing the subject
 	 * @param p Property
@@ -69,11 +120,43 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	private String add(Resource s, Property p, Literal o)
 	{
 		Statement stmt = createStatement(s, p, o);
+		if(isDuplicate(stmt))
+			return s.getURI();
 		prov.add(stmt);
-		tracker.log(stmt.toString() + " added to model");
+		if(tracker.isEnabled(Level.LOG))
+			tracker.log(stmt.toString() + " added to model");
 		return s.getURI();
 	}
 
+	/**
+	 * Check whether a statement is already in the model, so that repeated
+	 * assertions such as creating a shared agent on every run are not added,
+	 * journaled or logged again
+	 * 
+	 * @param stmt The statement
+	 * @return true if the statement is already in the model
+	 */
+	private boolean isDuplicate(Statement stmt)
+	{
+		if(!prov.getBaseModel().getGraph().contains(stmt.asTriple()))
+			return false;
+		duplicates++;
+		if(tracker.isEnabled(Level.DEBUG))
+			tracker.debug(stmt.toString() + " already in model");
+		return true;
+	}
+	
+	/**
+	 * Get the number of assertions skipped because the statement was already
+	 * in the model
+	 * 
+	 * @return The number of duplicate assertions
+	 */
+	public long getDuplicateCount()
+	{
+		return duplicates;
+	}
+
 	/**
 	 * Add statement describing agent1 acting on behalf of another
 	 * 
@@ -95,7 +178,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addActedOnBehalfOf(Resource agent1, Resource agent2)
 	{
-		if(checkType(agent1, "Agent") && checkType(agent2, "Agent"))
+		if(checkType(agent1, TypeIndex.AGENT) && checkType(agent2, TypeIndex.AGENT))
 		{
 			add(agent1, prov.createProperty(PROV_NS + "actedOnBehalfOf"), agent2);
 			return true;				
@@ -124,9 +207,9 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addEndedAtTime(Resource activity, long timestamp)
 	{
-		if(checkType(activity, "Activity"))
+		if(checkType(activity, TypeIndex.ACTIVITY))
 		{
-			add(activity, prov.createProperty(PROV_NS + "endedAtTime"), prov.createTypedLiteral(timestamp));
+			add(activity, prov.createProperty(PROV_NS + "endedAtTime"), createDateTime(timestamp));
 		}
 		return false;
 	}
@@ -152,9 +235,9 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addStartedAtTime(Resource activity, long timestamp)
 	{
-		if(checkType(activity, "Activity"))
+		if(checkType(activity, TypeIndex.ACTIVITY))
 		{
-			add(activity, prov.createProperty(PROV_NS + "startedAtTime"), prov.createTypedLiteral(timestamp));
+			add(activity, prov.createProperty(PROV_NS + "startedAtTime"), createDateTime(timestamp));
 			return true;
 		}
 		return false;		
@@ -181,7 +264,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addUsed(Resource activity, Resource entity)
 	{
-		if(checkType(activity, "Activity") && checkType(entity, "Entity"))
+		if(checkType(activity, TypeIndex.ACTIVITY) && checkType(entity, TypeIndex.ENTITY))
 		{
 			add(activity, prov.createProperty(PROV_NS + "used"), entity);
 			return true;
@@ -208,7 +291,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addWasAssociatedWith(Resource activity, Resource agent)
 	{
-		if(checkType(activity, "Activity") && checkType(agent, "Agent"))
+		if(checkType(activity, TypeIndex.ACTIVITY) && checkType(agent, TypeIndex.AGENT))
 		{
 			add(activity, prov.createProperty(PROV_NS + "wasAssociatedWith"), agent);
 			return true;
@@ -237,7 +320,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addWasAttributedTo(Resource entity, Resource agent)
 	{
-		if(checkType(entity, "Entity") && checkType(agent, "Agent"))
+		if(checkType(entity, TypeIndex.ENTITY) && checkType(agent, TypeIndex.AGENT))
 		{
 			add(entity, prov.createProperty(PROV_NS + "wasAttributedTo"), agent);
 			return true;
@@ -266,7 +349,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addWasDerivedFrom(Resource entity1, Resource entity2)
 	{
-		if(checkType(entity1, "Entity") && checkType(entity2, "Entity"))
+		if(checkType(entity1, TypeIndex.ENTITY) && checkType(entity2, TypeIndex.ENTITY))
 		{
 			add(entity1, prov.createProperty(PROV_NS + "wasDerivedFrom"), entity2);
 		}
@@ -294,7 +377,7 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	  */
 	public boolean addWasGeneratedBy(Resource entity, Resource activity)
 	{
-		if(checkType(entity, "Entity") && checkType(activity, "Activity"))
+		if(checkType(entity, TypeIndex.ENTITY) && checkType(activity, TypeIndex.ACTIVITY))
 		{
 			add(entity, prov.createProperty(PROV_NS + "wasGeneratedBy"), activity);
 			return true;
@@ -321,11 +404,11 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	 */
 	public boolean addWasInformedBy(Resource activity1, Resource activity2)
 	{
-		if(checkType(activity1, "Activity") && checkType(activity2, "Activity"))
+		if(checkType(activity1, TypeIndex.ACTIVITY) && checkType(activity2, TypeIndex.ACTIVITY))
 		{
 			add(activity1, prov.createProperty(PROV_NS + "wasInformedBy"), activity2);
 		}
-		else
+		else if(tracker.isEnabled(Level.ERROR))
 		{
 			tracker.error("Both arguments must be an activity");
 		}
@@ -333,20 +416,78 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	}
 	
 	/**
-	 * Check the type of the given Resource
+	 * Check the type of the given Resource using the type index
 	 * 
 	 * @param r The resource to type check
-	 * @param type String describing the type of resource
+	 * @param type {@link TypeIndex} flag describing the type of resource
 	 * @return boolean indicating success
 	 */
-	private boolean checkType(Resource r, String type)
+	private boolean checkType(Resource r, byte type)
 	{
-		tracker.log(r.getURI() + " was accessed at " + (System.currentTimeMillis() / 1000));
-		boolean success = prov.contains(createStatement(r, prov.createProperty(RDF_NS + "type"), prov.createResource(PROV_NS + type)));
-		if(!success)
-			tracker.error(r.getURI() + " is not of type " + type);
+		if(tracker.isEnabled(Level.DEBUG))
+			tracker.debug(r.getURI() + " was accessed at " + (System.currentTimeMillis() / 1000));
+		boolean success = typeIndex.hasType(r.asNode(), type);
+		if(!success && tracker.isEnabled(Level.ERROR))
+			tracker.error(r.getURI() + " is not of type " + TypeIndex.typeName(type));
 		return success;
 	}
+	
+	/**
+	 * Add triples directly to the model without type checks or logging, for
+	 * bulk loading. The type index is updated from any rdf:type triples
+	 * added. Triples already in the model are skipped and counted as
+	 * duplicates, so they are not journaled or logged again.
+	 * 
+	 * @param triples The triples to add
+	 */
+	public void addTriples(List<Triple> triples)
+	{
+		Graph graph = prov.getBaseModel().getGraph();
+		Set<Triple> fresh = new LinkedHashSet<Triple>(triples.size());
+		for(Triple t : triples)
+		{
+			if(graph.contains(t) || !fresh.add(t))
+				duplicates++;
+		}
+		GraphUtil.add(graph, new ArrayList<Triple>(fresh));
+		sync();
+	}
+	
+	/**
+	 * Remove up to batchSize of the activities that ended before cutoff, the
+	 * oldest first, with the entities only they reference. Call repeatedly,
+	 * for example from a scheduled task, until it returns 0.
+	 * 
+	 * @param cutoff Milliseconds since the epoch
+	 * @param batchSize Maximum number of activities to remove
+	 * @return The number of triples removed
+	 * @see Retention#removeActivities(Graph, java.util.Collection)
+	 */
+	public long removeActivitiesEndedBefore(long cutoff, int batchSize)
+	{
+		Graph graph = prov.getBaseModel().getGraph();
+		if(timeIndex == null)
+			timeIndex = TimeIndex.register(graph);
+		List<Node> activities = new ArrayList<Node>();
+		for(String uri : timeIndex.range(ProvO.endedAtTime, Long.MIN_VALUE, cutoff, 0, batchSize))
+			activities.add(Node.createURI(uri));
+		long removed = Retention.removeActivities(graph, activities).size();
+		sync();
+		if(tracker.isEnabled(Level.LOG))
+			tracker.log(removed + " triples removed from model");
+		return removed;
+	}
+	
+	/**
+	 * Recreate the index of Activity, Entity and Agent types from the model.
+	 * The index is kept up to date with changes made through the model, this
+	 * is only needed if the underlying graph has been changed without
+	 * notifying its listeners.
+	 */
+	public void rebuildTypeIndex()
+	{
+		typeIndex.rebuild(prov.getBaseModel().getGraph());
+	}
 
 	/**
 	 * Create a new activity and add it to prov model
@@ -439,6 +580,18 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 		return stmt;
 	}
 
+	/**
+	 * Create an xsd:dateTime literal, the same form used by the other
+	 * builders
+	 * 
+	 * @param timestamp Milliseconds since the epoch
+	 * @return The literal
+	 */
+	private Literal createDateTime(long timestamp)
+	{
+		return prov.createTypedLiteral(XsdDateTime.format(timestamp), XSDDatatype.XSDdateTime);
+	}
+
 	/**
 	 * Generate a URI containing a UUID
 	 * 
@@ -479,4 +632,184 @@ public class ProvenanceBundle implements ProvenanceBuilder{
 	{
 		prov.write(out);
 	}
+	
+	/**
+	 * Write the provenance model to the given OutputStream one triple at a
+	 * time, without building the whole document in memory
+	 * 
+	 * @param out The OutputStream to write the model to, it is not closed
+	 * @param format The serialisation to use
+	 * @param gzip Whether to gzip the output
+	 * @return The number of triples written
+	 * @throws IOException
+	 */
+	public long write(OutputStream out, RdfFormat format, boolean gzip) throws IOException
+	{
+		Graph graph = prov.getBaseModel().getGraph();
+		return RdfOutput.write(graph.find(Node.ANY, Node.ANY, Node.ANY), out, format, gzip, null);
+	}
+	
+	/**
+	 * Save the provenance model as a binary snapshot that can be restored
+	 * far faster than the model can be parsed. If a log is open it is
+	 * truncated, as the snapshot holds the changes it recorded.
+	 * 
+	 * @param file The snapshot file, replaced once the snapshot is complete
+	 * @return The number of triples saved
+	 * @throws IOException
+	 */
+	public long snapshot(File file) throws IOException
+	{
+		Graph graph = prov.getBaseModel().getGraph();
+		long count = ProvenanceSnapshot.write(graph.find(Node.ANY, Node.ANY, Node.ANY), file);
+		if(log != null)
+			log.truncate();
+		return count;
+	}
+	
+	/**
+	 * Add the triples of a snapshot written by {@link #snapshot(File)} to the
+	 * model, normally when the bundle is empty after a restart and before
+	 * {@link #openLog(File, SyncPolicy)}. The type index is updated from
+	 * them.
+	 * 
+	 * @param file The snapshot file
+	 * @return The number of triples restored
+	 * @throws IOException
+	 */
+	public long restore(File file) throws IOException
+	{
+		return ProvenanceSnapshot.read(file, prov.getBaseModel().getGraph());
+	}
+	
+	/**
+	 * Replay a write-ahead log into the model and then record every later
+	 * change to it, so that the model can be rebuilt after a crash from the
+	 * last {@link #snapshot(File)} and the log. Assertions are recorded as
+	 * they are made and made durable, as policy requires, by {@link #sync()}
+	 * once per batch such as a workflow run, so a batch pays for one fsync
+	 * rather than one per statement. {@link #addTriples(List)} and
+	 * {@link #removeActivitiesEndedBefore(long, int)} sync themselves. A bundle
+	 * is built from one thread, so writers never share a sync; use
+	 * {@link uk.ac.dotrural.prov.sparql.JenaSparqlUtils#openLog(File, SyncPolicy)}
+	 * for group commit across concurrent writers.
+	 * 
+	 * @param file The log file, created if it does not exist
+	 * @param policy When changes are forced to disk
+	 * @return The number of triples replayed from the log
+	 * @throws IOException
+	 */
+	public long openLog(File file, SyncPolicy policy) throws IOException
+	{
+		if(log != null)
+			throw new IllegalStateException("A log is already open");
+		Graph graph = prov.getBaseModel().getGraph();
+		WriteAheadLog opened = new WriteAheadLog(file, policy, WriteAheadLog.DEFAULT_INTERVAL);
+		long replayed;
+		try {
+			replayed = opened.replay(graph);
+		} catch (IOException e) {
+			opened.close();
+			throw e;
+		}
+		graph.getEventManager().register(opened);
+		log = opened;
+		if(tracker.isEnabled(Level.LOG))
+			tracker.log(replayed + " triples replayed from " + file);
+		return replayed;
+	}
+	
+	/**
+	 * Stop recording changes and close the write-ahead log, forcing any
+	 * changes not yet on disk
+	 * 
+	 * @throws IOException
+	 */
+	public void closeLog() throws IOException
+	{
+		if(log == null)
+			return;
+		prov.getBaseModel().getGraph().getEventManager().unregister(log);
+		WriteAheadLog closing = log;
+		log = null;
+		closing.close();
+	}
+	
+	/**
+	 * Make the changes recorded by the write-ahead log since the last sync as
+	 * durable as its policy requires. Does nothing if no log is open.
+	 * 
+	 * @see WriteAheadLog#sync()
+	 */
+	public void sync()
+	{
+		if(log != null)
+			log.sync();
+	}
+	
+	/**
+	 * Mark the triples added so far, so that later additions can be written
+	 * with {@link #writeSince(long, OutputStream, RdfFormat, boolean)}. Triples
+	 * are only recorded once the first checkpoint has been taken.
+	 * 
+	 * @return The checkpoint
+	 */
+	public long checkpoint()
+	{
+		if(journal == null)
+			journal = TripleJournal.register(prov.getBaseModel().getGraph(), journalLimit);
+		return journal.checkpoint();
+	}
+	
+	/**
+	 * Set the number of added triples recorded for
+	 * {@link #writeSince(long, OutputStream, RdfFormat, boolean)}, one million
+	 * by default. Once it is reached the oldest are released, as by
+	 * {@link #releaseCheckpoint(long)}, and checkpoints taken before them can
+	 * no longer be written.
+	 * 
+	 * @param limit The number of triples
+	 */
+	public void setJournalLimit(int limit)
+	{
+		if(journal != null)
+			journal.setLimit(limit);
+		else if(limit < 1)
+			throw new IllegalArgumentException("The journal limit must be positive");
+		journalLimit = limit;
+	}
+	
+	/**
+	 * Write the triples added since a checkpoint that are still in the model,
+	 * each once however many times it was added. The record of triples added
+	 * before the checkpoint is then released, so earlier checkpoints can no
+	 * longer be written.
+	 * 
+	 * @param checkpoint A value returned by {@link #checkpoint()}
+	 * @param out The OutputStream to write the triples to, it is not closed
+	 * @param format The serialisation to use
+	 * @param gzip Whether to gzip the output
+	 * @return The number of triples written
+	 * @throws IOException
+	 */
+	public long writeSince(long checkpoint, OutputStream out, RdfFormat format, boolean gzip) throws IOException
+	{
+		if(journal == null)
+			throw new IllegalStateException("No checkpoint has been taken");
+		long written = RdfOutput.write(journal.since(checkpoint), out, format, gzip, null);
+		journal.release(checkpoint);
+		return written;
+	}
+	
+	/**
+	 * Release the record of triples added before a checkpoint, after which
+	 * earlier checkpoints can no longer be written
+	 * 
+	 * @param checkpoint A value returned by {@link #checkpoint()}
+	 */
+	public void releaseCheckpoint(long checkpoint)
+	{
+		if(journal != null)
+			journal.release(checkpoint);
+	}
 }
@@ -0,0 +1,195 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.io.RdfFormat;
+import uk.ac.dotrural.prov.io.RdfOutput;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * Holds provenance as a set of PROV bundles, each stored in its own named
+ * graph of a {@link Dataset} with the bundle URI as the graph name. A bundle
+ * can be built, queried, exported or deleted without touching the statements
+ * of other bundles, so the cost of each is proportional to the size of the
+ * bundle rather than the whole store.
+ *
+ * The methods of this class may be called from multiple threads, but the
+ * statements of a bundle are not locked: like {@link ProvenanceBundle} each
+ * bundle should only be built from one thread at a time, and should not be
+ * read through {@link #getGetter(String)} or {@link #write(String,
+ * OutputStream, RdfFormat, boolean)} while it is being built.
+ */
+
+public class ProvenanceDataset {
+
+	private final String namespace;
+	private final Tracker tracker;
+	private final Dataset dataset;
+	private final Map<String, ProvenanceBundle> bundles = new HashMap<String, ProvenanceBundle>();
+	private final Map<String, ProvenanceGetter> getters = new HashMap<String, ProvenanceGetter>();
+
+	/**
+	 * Create an in memory dataset
+	 *
+	 * @param ns Namespace used when generating URIs
+	 */
+	public ProvenanceDataset(String ns)
+	{
+		this(ns, DatasetFactory.createMem(), new ConsoleTracker());
+	}
+
+	/**
+	 * @param ns Namespace used when generating URIs
+	 * @param dataset Dataset holding the bundles; changes are not made in
+	 *            transactions
+	 * @param tracker Tracker used by the bundles to log assertions, use
+	 *            {@link NoOpTracker#INSTANCE} to disable logging
+	 */
+	public ProvenanceDataset(String ns, Dataset dataset, Tracker tracker)
+	{
+		this.namespace = ns;
+		this.dataset = dataset;
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Get the builder for a bundle, creating the bundle if it does not exist
+	 *
+	 * @param bundleUri The URI of the bundle, used as the graph name
+	 * @return The bundle
+	 */
+	public synchronized ProvenanceBundle getBundle(String bundleUri)
+	{
+		ProvenanceBundle bundle = bundles.get(bundleUri);
+		if(bundle == null)
+		{
+			if(!dataset.containsNamedModel(bundleUri))
+				dataset.addNamedModel(bundleUri, ModelFactory.createDefaultModel());
+			bundle = new ProvenanceBundle(namespace, tracker, dataset.getNamedModel(bundleUri));
+			bundles.put(bundleUri, bundle);
+		}
+		return bundle;
+	}
+
+	/**
+	 * Get a getter that only reads the statements of one bundle. The getter
+	 * of an existing bundle is created once and shared, as its indexes listen
+	 * to the bundle graph until the bundle is deleted.
+	 *
+	 * @param bundleUri The URI of the bundle
+	 * @return The getter, which finds nothing if the bundle does not exist
+	 */
+	public synchronized ProvenanceGetter getGetter(String bundleUri)
+	{
+		ProvenanceGetter getter = getters.get(bundleUri);
+		if(getter == null)
+		{
+			if(!dataset.containsNamedModel(bundleUri))
+				return new ProvSparqlGetter(new JenaSparqlUtils(ModelFactory.createDefaultModel()));
+			getter = new ProvSparqlGetter(new JenaSparqlUtils(dataset.getNamedModel(bundleUri)));
+			getters.put(bundleUri, getter);
+		}
+		return getter;
+	}
+
+	/**
+	 * @param bundleUri The URI of the bundle
+	 * @return true if the dataset holds the bundle
+	 */
+	public synchronized boolean containsBundle(String bundleUri)
+	{
+		return dataset.containsNamedModel(bundleUri);
+	}
+
+	/**
+	 * @return The URIs of the bundles in the dataset
+	 */
+	public synchronized List<String> getBundleUris()
+	{
+		List<String> uris = new ArrayList<String>();
+		Iterator<String> names = dataset.listNames();
+		while(names.hasNext())
+			uris.add(names.next());
+		return uris;
+	}
+
+	/**
+	 * Remove a bundle and all of its statements
+	 *
+	 * @param bundleUri The URI of the bundle
+	 * @return true if the bundle existed
+	 */
+	public synchronized boolean deleteBundle(String bundleUri)
+	{
+		bundles.remove(bundleUri);
+		getters.remove(bundleUri);
+		if(!dataset.containsNamedModel(bundleUri))
+			return false;
+		dataset.removeNamedModel(bundleUri);
+		return true;
+	}
+
+	/**
+	 * Write the statements of one bundle to the given OutputStream one triple
+	 * at a time. N-Quads output names the bundle graph.
+	 *
+	 * @param bundleUri The URI of the bundle
+	 * @param out The OutputStream to write to, it is not closed
+	 * @param format The serialisation to use
+	 * @param gzip Whether to gzip the output
+	 * @return The number of triples written
+	 * @throws IOException
+	 */
+	public long write(String bundleUri, OutputStream out, RdfFormat format, boolean gzip) throws IOException
+	{
+		return RdfOutput.write(getBundleModel(bundleUri).getGraph().find(Node.ANY, Node.ANY, Node.ANY),
+				out, format, gzip, Node.createURI(bundleUri));
+	}
+
+	/**
+	 * Write every bundle to the given OutputStream one quad at a time
+	 *
+	 * @param out The OutputStream to write to, it is not closed
+	 * @param format The serialisation to use, normally
+	 *            {@link RdfFormat#NQUADS} or {@link RdfFormat#BINARY} to
+	 *            keep the bundle of each statement
+	 * @param gzip Whether to gzip the output
+	 * @return The number of quads written
+	 * @throws IOException
+	 */
+	public long write(OutputStream out, RdfFormat format, boolean gzip) throws IOException
+	{
+		return RdfOutput.writeQuads(dataset.asDatasetGraph().find(), out, format, gzip);
+	}
+
+	/**
+	 * Get the underlying dataset
+	 *
+	 * @return The dataset
+	 */
+	public Dataset getDataset()
+	{
+		return dataset;
+	}
+
+	private synchronized Model getBundleModel(String bundleUri)
+	{
+		if(!dataset.containsNamedModel(bundleUri))
+			return ModelFactory.createDefaultModel();
+		return dataset.getNamedModel(bundleUri);
+	}
+}
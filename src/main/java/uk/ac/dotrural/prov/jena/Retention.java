@@ -0,0 +1,97 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.dotrural.prov.ProvO;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphUtil;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Removes activities from a graph along with the entities that only they
+ * reference, to keep the size of a store bounded. Callers choose which
+ * activities to remove, normally a small batch of those that ended before a
+ * cutoff, and hold the write lock of the graph while they are removed.
+ */
+
+public final class Retention {
+
+	static final Node USED = Node.createURI(ProvO.used);
+	static final Node WAS_GENERATED_BY = Node.createURI(ProvO.wasGeneratedBy);
+
+	private Retention()
+	{
+	}
+
+	/**
+	 * Remove every statement about or referring to the given activities.
+	 * Entities they used or generated are also removed if no remaining
+	 * statement refers to them and they were not generated by a remaining
+	 * activity. Agents are kept.
+	 *
+	 * @param graph The graph to remove statements from
+	 * @param activities The activities to remove
+	 * @return The statements removed
+	 */
+	public static List<Triple> removeActivities(Graph graph, Collection<Node> activities)
+	{
+		List<Triple> removed = new ArrayList<Triple>();
+		Set<Node> entities = new LinkedHashSet<Node>();
+		for(Node activity : activities)
+		{
+			int start = removed.size();
+			collect(graph.find(activity, Node.ANY, Node.ANY), removed);
+			for(int i = start; i < removed.size(); i++)
+				if(USED.equals(removed.get(i).getPredicate()))
+					entities.add(removed.get(i).getObject());
+			start = removed.size();
+			collect(graph.find(Node.ANY, Node.ANY, activity), removed);
+			for(int i = start; i < removed.size(); i++)
+				if(WAS_GENERATED_BY.equals(removed.get(i).getPredicate()))
+					entities.add(removed.get(i).getSubject());
+		}
+		// an activity informed by another in the batch is found twice
+		removed = new ArrayList<Triple>(new LinkedHashSet<Triple>(removed));
+		GraphUtil.delete(graph, removed);
+
+		List<Triple> entityTriples = new ArrayList<Triple>();
+		for(Node entity : entities)
+		{
+			if(isReferenced(graph, entity))
+				continue;
+			collect(graph.find(entity, Node.ANY, Node.ANY), entityTriples);
+		}
+		GraphUtil.delete(graph, entityTriples);
+		removed.addAll(entityTriples);
+		return removed;
+	}
+
+	private static boolean isReferenced(Graph graph, Node entity)
+	{
+		ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, entity);
+		try {
+			if(it.hasNext())
+				return true;
+		} finally {
+			it.close();
+		}
+		return graph.contains(entity, WAS_GENERATED_BY, Node.ANY);
+	}
+
+	private static void collect(ExtendedIterator<Triple> it, List<Triple> triples)
+	{
+		try {
+			while(it.hasNext())
+				triples.add(it.next());
+		} finally {
+			it.close();
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.XsdDateTime;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Sorted in memory index of the <code>prov:startedAtTime</code> and
+ * <code>prov:endedAtTime</code> of activities. Registered as a listener on a
+ * graph it is kept up to date as timestamps are added and removed, so the
+ * activities in a time range are found in O(log n + k) rather than by
+ * scanning every timestamp with a FILTER.
+ */
+
+public class TimeIndex implements GraphListener {
+
+	static final Node STARTED_AT_TIME = Node.createURI(ProvO.startedAtTime);
+	static final Node ENDED_AT_TIME = Node.createURI(ProvO.endedAtTime);
+
+	/**
+	 * The time and URI of a resource found by a range query, which can be
+	 * passed back as the cursor for the next page
+	 */
+	public static final class Timestamp {
+		private final long time;
+		private final String uri;
+
+		public Timestamp(long time, String uri)
+		{
+			this.time = time;
+			this.uri = uri;
+		}
+
+		/**
+		 * @return Milliseconds since the epoch
+		 */
+		public long getTime()
+		{
+			return time;
+		}
+
+		public String getUri()
+		{
+			return uri;
+		}
+
+		@Override
+		public String toString()
+		{
+			return uri + "@" + time;
+		}
+	}
+
+	/**
+	 * A timestamp literal of a resource, ordered by time, URI then literal.
+	 * The literal is part of the key so that two literals of one resource
+	 * that decode to the same millisecond are separate entries, and deleting
+	 * one leaves the other indexed.
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final long time;
+		final String uri;
+		// null sorts after every literal, for cursors
+		final String literal;
+
+		Entry(long time, String uri, String literal)
+		{
+			this.time = time;
+			this.uri = uri;
+			this.literal = literal;
+		}
+
+		public int compareTo(Entry o)
+		{
+			if(time != o.time)
+				return time < o.time ? -1 : 1;
+			int c = uri.compareTo(o.uri);
+			if(c != 0)
+				return c;
+			if(literal == null || o.literal == null)
+				return literal == o.literal ? 0 : literal == null ? 1 : -1;
+			return literal.compareTo(o.literal);
+		}
+	}
+
+	private final NavigableSet<Entry> started = new TreeSet<Entry>();
+	private final NavigableSet<Entry> ended = new TreeSet<Entry>();
+
+	/**
+	 * Create an index of the timestamps in graph and keep it up to date with
+	 * changes made to graph
+	 * 
+	 * @param graph The graph to index
+	 * @return The index
+	 */
+	public static TimeIndex register(Graph graph)
+	{
+		TimeIndex index = new TimeIndex();
+		index.rebuild(graph);
+		graph.getEventManager().register(index);
+		return index;
+	}
+
+	/**
+	 * Get the resources with a timestamp in a range, ordered by time. The
+	 * skipped resources are stepped over one by one, so a page costs
+	 * O(log n + offset + k); use
+	 * {@link #range(String, long, long, Timestamp, int)} to page through
+	 * large ranges.
+	 * 
+	 * @param predicate {@link ProvO#startedAtTime} or {@link ProvO#endedAtTime}
+	 * @param from Start of the range in milliseconds, inclusive
+	 * @param to End of the range in milliseconds, exclusive
+	 * @param offset Number of matching resources to skip
+	 * @param limit Maximum number of resources to return
+	 * @return URIs of the resources
+	 */
+	public synchronized List<String> range(String predicate, long from, long to, int offset, int limit)
+	{
+		List<String> uris = new ArrayList<String>();
+		Iterator<Entry> it = entries(predicate, from, to, null);
+		for(int skipped = 0; skipped < offset && it.hasNext(); skipped++)
+			it.next();
+		while(uris.size() < limit && it.hasNext())
+			uris.add(it.next().uri);
+		return uris;
+	}
+
+	/**
+	 * Get the resources with a timestamp in a range that come after a cursor,
+	 * ordered by time then URI. Passing the last timestamp of one page as the
+	 * cursor for the next finds each page in O(log n + k) however deep it
+	 * is, and pages stay consistent while timestamps are added.
+	 * 
+	 * @param predicate {@link ProvO#startedAtTime} or {@link ProvO#endedAtTime}
+	 * @param from Start of the range in milliseconds, inclusive
+	 * @param to End of the range in milliseconds, exclusive
+	 * @param after Last timestamp of the previous page, or null for the first
+	 *            page
+	 * @param limit Maximum number of resources to return
+	 * @return The timestamps of the resources
+	 */
+	public synchronized List<Timestamp> range(String predicate, long from, long to, Timestamp after, int limit)
+	{
+		List<Timestamp> page = new ArrayList<Timestamp>();
+		Iterator<Entry> it = entries(predicate, from, to, after);
+		while(page.size() < limit && it.hasNext())
+		{
+			Entry entry = it.next();
+			page.add(new Timestamp(entry.time, entry.uri));
+		}
+		return page;
+	}
+
+	/**
+	 * @return Number of timestamps indexed
+	 */
+	public synchronized int size()
+	{
+		return started.size() + ended.size();
+	}
+
+	/**
+	 * Discard the index and recreate it from the timestamps in graph
+	 * 
+	 * @param graph The graph to index
+	 */
+	public synchronized void rebuild(Graph graph)
+	{
+		started.clear();
+		ended.clear();
+		for(Node predicate : new Node[] { STARTED_AT_TIME, ENDED_AT_TIME })
+		{
+			ExtendedIterator<Triple> it = graph.find(Node.ANY, predicate, Node.ANY);
+			try {
+				while(it.hasNext())
+					add(it.next());
+			} finally {
+				it.close();
+			}
+		}
+	}
+
+	/**
+	 * Index a triple if it is a timestamp
+	 */
+	public synchronized void add(Triple t)
+	{
+		Entry entry = entry(t);
+		if(entry != null)
+			set(t.getPredicate()).add(entry);
+	}
+
+	/**
+	 * Remove a triple from the index if it is a timestamp
+	 */
+	public synchronized void delete(Triple t)
+	{
+		Entry entry = entry(t);
+		if(entry != null)
+			set(t.getPredicate()).remove(entry);
+	}
+
+	/**
+	 * Iterate over the entries in a range, after a cursor if one is given
+	 */
+	private Iterator<Entry> entries(String predicate, long from, long to, Timestamp after)
+	{
+		NavigableSet<Entry> set = set(Node.createURI(predicate));
+		if(set == null || from >= to)
+			return Collections.<Entry> emptyList().iterator();
+		Entry start = new Entry(from, "", "");
+		boolean inclusive = true;
+		if(after != null && after.time >= from)
+		{
+			// after every literal of the cursor's resource at its time
+			start = new Entry(after.time, after.uri, null);
+			inclusive = false;
+		}
+		Entry end = new Entry(to, "", "");
+		if(start.compareTo(end) >= 0)
+			return Collections.<Entry> emptyList().iterator();
+		return set.subSet(start, inclusive, end, false).iterator();
+	}
+
+	private NavigableSet<Entry> set(Node predicate)
+	{
+		if(STARTED_AT_TIME.equals(predicate))
+			return started;
+		if(ENDED_AT_TIME.equals(predicate))
+			return ended;
+		return null;
+	}
+
+	private Entry entry(Triple t)
+	{
+		if(set(t.getPredicate()) == null || !t.getSubject().isURI())
+			return null;
+		long time = XsdDateTime.toMillis(t.getObject());
+		if(time == Long.MIN_VALUE)
+			return null;
+		return new Entry(time, t.getSubject().getURI(), t.getObject().toString());
+	}
+
+	public void notifyAddTriple(Graph g, Triple t)
+	{
+		add(t);
+	}
+
+	public void notifyAddArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			add(it.next());
+	}
+
+	public void notifyAddGraph(Graph g, Graph added)
+	{
+		notifyAddIterator(g, added.find(Node.ANY, STARTED_AT_TIME, Node.ANY));
+		notifyAddIterator(g, added.find(Node.ANY, ENDED_AT_TIME, Node.ANY));
+	}
+
+	public void notifyDeleteTriple(Graph g, Triple t)
+	{
+		delete(t);
+	}
+
+	public void notifyDeleteList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			delete(t);
+	}
+
+	public void notifyDeleteArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			delete(t);
+	}
+
+	public void notifyDeleteIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			delete(it.next());
+	}
+
+	public void notifyDeleteGraph(Graph g, Graph removed)
+	{
+		notifyDeleteIterator(g, removed.find(Node.ANY, STARTED_AT_TIME, Node.ANY));
+		notifyDeleteIterator(g, removed.find(Node.ANY, ENDED_AT_TIME, Node.ANY));
+	}
+
+	public void notifyEvent(Graph source, Object value)
+	{
+		if(GraphEvents.removeAll.equals(value))
+			synchronized(this) {
+				started.clear();
+				ended.clear();
+			}
+		else if(value instanceof GraphEvents && "remove".equals(((GraphEvents) value).getTitle()))
+			// pattern removal, the removed triples are not reported
+			rebuild(source);
+	}
+
+}
@@ -0,0 +1,160 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * The timestamps added and removed by one write, held until the write commits
+ * and then applied to a {@link TimeIndex}. Used for transactional stores such
+ * as TDB, whose graphs only last for one transaction so an index cannot stay
+ * registered on them. Changes that are not reported triple by triple, such as
+ * clearing the graph, leave the changes incomplete, and the index must then be
+ * rebuilt instead.
+ */
+
+public class TimeIndexChanges implements GraphListener {
+
+	private final Set<Triple> added = new LinkedHashSet<Triple>();
+	private final Set<Triple> deleted = new LinkedHashSet<Triple>();
+	private boolean complete = true;
+
+	/**
+	 * Record a triple added to the store, if it is a timestamp
+	 */
+	public synchronized void add(Triple t)
+	{
+		if(isTimestamp(t))
+		{
+			deleted.remove(t);
+			added.add(t);
+		}
+	}
+
+	/**
+	 * Record a triple removed from the store, if it is a timestamp
+	 */
+	public synchronized void delete(Triple t)
+	{
+		if(isTimestamp(t))
+		{
+			added.remove(t);
+			deleted.add(t);
+		}
+	}
+
+	/**
+	 * Record that the store changed in a way that was not reported triple by
+	 * triple
+	 */
+	public synchronized void invalidate()
+	{
+		complete = false;
+	}
+
+	/**
+	 * @return true if every change has been recorded
+	 */
+	public synchronized boolean isComplete()
+	{
+		return complete;
+	}
+
+	/**
+	 * Apply the recorded changes to index, which must hold the timestamps of
+	 * the store as they were before the write
+	 *
+	 * @param index The index to update
+	 * @return false, leaving index unchanged, if the changes are incomplete
+	 */
+	public synchronized boolean applyTo(TimeIndex index)
+	{
+		if(!complete)
+			return false;
+		for(Triple t : deleted)
+			index.delete(t);
+		for(Triple t : added)
+			index.add(t);
+		return true;
+	}
+
+	private static boolean isTimestamp(Triple t)
+	{
+		return TimeIndex.STARTED_AT_TIME.equals(t.getPredicate())
+				|| TimeIndex.ENDED_AT_TIME.equals(t.getPredicate());
+	}
+
+	public void notifyAddTriple(Graph g, Triple t)
+	{
+		add(t);
+	}
+
+	public void notifyAddArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			add(it.next());
+	}
+
+	public void notifyAddGraph(Graph g, Graph added)
+	{
+		notifyAddIterator(g, added.find(Node.ANY, TimeIndex.STARTED_AT_TIME, Node.ANY));
+		notifyAddIterator(g, added.find(Node.ANY, TimeIndex.ENDED_AT_TIME, Node.ANY));
+	}
+
+	public void notifyDeleteTriple(Graph g, Triple t)
+	{
+		delete(t);
+	}
+
+	public void notifyDeleteList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			delete(t);
+	}
+
+	public void notifyDeleteArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			delete(t);
+	}
+
+	public void notifyDeleteIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			delete(it.next());
+	}
+
+	public void notifyDeleteGraph(Graph g, Graph removed)
+	{
+		notifyDeleteIterator(g, removed.find(Node.ANY, TimeIndex.STARTED_AT_TIME, Node.ANY));
+		notifyDeleteIterator(g, removed.find(Node.ANY, TimeIndex.ENDED_AT_TIME, Node.ANY));
+	}
+
+	public void notifyEvent(Graph source, Object value)
+	{
+		// removeAll and pattern removal do not report the removed triples
+		if(GraphEvents.removeAll.equals(value)
+				|| (value instanceof GraphEvents && "remove".equals(((GraphEvents) value).getTitle())))
+			invalidate();
+	}
+
+}
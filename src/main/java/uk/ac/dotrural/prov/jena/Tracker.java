@@ -1,21 +1,41 @@
 package uk.ac.dotrural.prov.jena;
 
 /**
- * Class for logging provenance assertions and retractions
+ * Interface for logging provenance assertions and retractions. Callers should
+ * check {@link #isEnabled(Level)} before building a message so that no
+ * strings are created when a level is disabled.
  * 
  * @author Chris Baillie
  */
 
-public class Tracker {
+public interface Tracker {
 
-	public void log(String msg)
-	{
-		System.out.println(msg);
+	/**
+	 * Message levels, in increasing order of severity
+	 */
+	public enum Level {
+		/** Detailed messages, such as each resource access */
+		DEBUG,
+		/** Assertions and retractions */
+		LOG,
+		/** Failed assertions */
+		ERROR,
+		/** Threshold that disables all messages */
+		OFF
 	}
-	
-	public void error(String msg)
-	{
-		System.err.println(msg);
-	}
-	
+
+	/**
+	 * Check whether messages at the given level will be recorded
+	 * 
+	 * @param level The level of the message
+	 * @return true if messages at level are recorded
+	 */
+	public boolean isEnabled(Level level);
+
+	public void debug(String msg);
+
+	public void log(String msg);
+
+	public void error(String msg);
+
 }
@@ -0,0 +1,189 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+/**
+ * Records the triples added to a graph so those added since a checkpoint can
+ * be exported without scanning the whole graph. The journal holds references
+ * to the triples already in the graph; entries before the oldest checkpoint
+ * still needed should be released with {@link #release(long)}. At most
+ * limit entries are kept, the oldest being released once it is reached.
+ */
+
+class TripleJournal implements GraphListener {
+
+	/**
+	 * Default number of entries kept
+	 */
+	static final int DEFAULT_LIMIT = 1000000;
+
+	private final Graph graph;
+	private List<Triple> added = new ArrayList<Triple>();
+	private long base;
+	private int limit;
+
+	private TripleJournal(Graph graph, int limit)
+	{
+		this.graph = graph;
+		setLimit(limit);
+	}
+
+	/**
+	 * Start recording triples added to graph
+	 * 
+	 * @param limit Maximum number of entries kept
+	 */
+	static TripleJournal register(Graph graph, int limit)
+	{
+		TripleJournal journal = new TripleJournal(graph, limit);
+		graph.getEventManager().register(journal);
+		return journal;
+	}
+
+	/**
+	 * @return Checkpoint identifying the triples added so far
+	 */
+	synchronized long checkpoint()
+	{
+		return base + added.size();
+	}
+
+	/**
+	 * Set the maximum number of entries kept, releasing the oldest if there
+	 * are more
+	 */
+	synchronized void setLimit(int limit)
+	{
+		if(limit < 1)
+			throw new IllegalArgumentException("The journal limit must be positive");
+		this.limit = limit;
+		if(added.size() > limit)
+			release(base + added.size() - limit);
+	}
+
+	/**
+	 * Get the triples added since a checkpoint that are still in the graph. A
+	 * triple removed and added again is returned once.
+	 * 
+	 * @param checkpoint Value returned by {@link #checkpoint()}
+	 * @return Iterator over the triples, in the order they were first added
+	 */
+	synchronized Iterator<Triple> since(long checkpoint)
+	{
+		if(checkpoint < base || checkpoint > base + added.size())
+			throw new IllegalArgumentException("Unknown or released checkpoint " + checkpoint);
+		final List<Triple> journal = added;
+		final int end = added.size();
+		final int start = (int) (checkpoint - base);
+		return new NiceIterator<Triple>() {
+			private final Set<Triple> seen = new HashSet<Triple>();
+			private int i = start;
+			private Triple next;
+
+			@Override
+			public boolean hasNext() {
+				while(next == null && i < end)
+				{
+					Triple t = journal.get(i++);
+					if(graph.contains(t) && seen.add(t))
+						next = t;
+				}
+				return next != null;
+			}
+
+			@Override
+			public Triple next() {
+				if(!hasNext())
+					throw new NoSuchElementException();
+				Triple t = next;
+				next = null;
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Discard journal entries before a checkpoint
+	 */
+	synchronized void release(long checkpoint)
+	{
+		int drop = (int) Math.min(checkpoint - base, added.size());
+		if(drop <= 0)
+			return;
+		added = new ArrayList<Triple>(added.subList(drop, added.size()));
+		base += drop;
+	}
+
+	private synchronized void add(Triple t)
+	{
+		// release a quarter of the entries at a time so that copying the
+		// journal is amortised over many additions
+		if(added.size() >= limit)
+			release(base + Math.max(1, limit / 4));
+		added.add(t);
+	}
+
+	public void notifyAddTriple(Graph g, Triple t)
+	{
+		add(t);
+	}
+
+	public void notifyAddArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			add(it.next());
+	}
+
+	public void notifyAddGraph(Graph g, Graph added)
+	{
+		notifyAddIterator(g, added.find(Node.ANY, Node.ANY, Node.ANY));
+	}
+
+	// removed triples stay in the journal and are skipped by since()
+	public void notifyDeleteTriple(Graph g, Triple t)
+	{
+	}
+
+	public void notifyDeleteList(Graph g, List<Triple> triples)
+	{
+	}
+
+	public void notifyDeleteArray(Graph g, Triple[] triples)
+	{
+	}
+
+	public void notifyDeleteIterator(Graph g, Iterator<Triple> it)
+	{
+	}
+
+	public void notifyDeleteGraph(Graph g, Graph removed)
+	{
+	}
+
+	public void notifyEvent(Graph source, Object value)
+	{
+	}
+}
@@ -0,0 +1,210 @@
+package uk.ac.dotrural.prov.jena;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.dotrural.prov.ProvO;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.GraphEvents;
+import com.hp.hpl.jena.graph.GraphListener;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * In memory index of the PROV types (Activity, Entity, Agent) of resources,
+ * held as a set of flags per resource. Registered as a listener on a graph it
+ * is kept up to date as <code>rdf:type</code> statements are added and
+ * removed, so type checks become a hash lookup rather than a model query.
+ */
+
+public class TypeIndex implements GraphListener {
+
+	public static final byte ACTIVITY = 1;
+	public static final byte ENTITY = 2;
+	public static final byte AGENT = 4;
+
+	static final Node RDF_TYPE = Node.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+	static final Node ACTIVITY_NODE = Node.createURI(ProvO.Activity);
+	static final Node ENTITY_NODE = Node.createURI(ProvO.Entity);
+	static final Node AGENT_NODE = Node.createURI(ProvO.Agent);
+
+	private final Map<Node, Byte> types = new HashMap<Node, Byte>();
+
+	/**
+	 * Create an index of the types in graph and keep it up to date with
+	 * changes made to graph
+	 * 
+	 * @param graph The graph to index
+	 * @return The index
+	 */
+	public static TypeIndex register(Graph graph)
+	{
+		TypeIndex index = new TypeIndex();
+		index.rebuild(graph);
+		graph.getEventManager().register(index);
+		return index;
+	}
+
+	/**
+	 * Get the name of the PROV type of a flag
+	 * 
+	 * @param flag One of {@link #ACTIVITY}, {@link #ENTITY} or {@link #AGENT}
+	 * @return The local name of the type
+	 */
+	public static String typeName(byte flag)
+	{
+		switch(flag)
+		{
+		case ACTIVITY:
+			return "Activity";
+		case ENTITY:
+			return "Entity";
+		case AGENT:
+			return "Agent";
+		default:
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Check whether the resource has the PROV type
+	 * 
+	 * @param resource The resource
+	 * @param flag One of {@link #ACTIVITY}, {@link #ENTITY} or {@link #AGENT}
+	 * @return true if the resource has the type
+	 */
+	public boolean hasType(Node resource, byte flag)
+	{
+		Byte flags = types.get(resource);
+		return flags != null && (flags.byteValue() & flag) != 0;
+	}
+
+	/**
+	 * Discard the index and recreate it from the type statements in graph
+	 * 
+	 * @param graph The graph to index
+	 */
+	public void rebuild(Graph graph)
+	{
+		types.clear();
+		ExtendedIterator<Triple> it = graph.find(Node.ANY, RDF_TYPE, Node.ANY);
+		try {
+			while(it.hasNext())
+				add(it.next());
+		} finally {
+			it.close();
+		}
+	}
+
+	/**
+	 * Get the type flag for a type node
+	 * 
+	 * @return the flag, or 0 if the node is not a PROV type
+	 */
+	static byte flag(Node type)
+	{
+		if(ACTIVITY_NODE.equals(type))
+			return ACTIVITY;
+		if(ENTITY_NODE.equals(type))
+			return ENTITY;
+		if(AGENT_NODE.equals(type))
+			return AGENT;
+		return 0;
+	}
+
+	private void add(Triple t)
+	{
+		if(!RDF_TYPE.equals(t.getPredicate()))
+			return;
+		byte flag = flag(t.getObject());
+		if(flag == 0)
+			return;
+		Byte flags = types.get(t.getSubject());
+		types.put(t.getSubject(), (byte) (flags == null ? flag : flags.byteValue() | flag));
+	}
+
+	private void delete(Triple t)
+	{
+		if(!RDF_TYPE.equals(t.getPredicate()))
+			return;
+		byte flag = flag(t.getObject());
+		Byte flags = types.get(t.getSubject());
+		if(flag == 0 || flags == null)
+			return;
+		byte remaining = (byte) (flags.byteValue() & ~flag);
+		if(remaining == 0)
+			types.remove(t.getSubject());
+		else
+			types.put(t.getSubject(), remaining);
+	}
+
+	public void notifyAddTriple(Graph g, Triple t)
+	{
+		add(t);
+	}
+
+	public void notifyAddArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			add(t);
+	}
+
+	public void notifyAddIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			add(it.next());
+	}
+
+	public void notifyAddGraph(Graph g, Graph added)
+	{
+		notifyAddIterator(g, added.find(Node.ANY, RDF_TYPE, Node.ANY));
+	}
+
+	public void notifyDeleteTriple(Graph g, Triple t)
+	{
+		delete(t);
+	}
+
+	public void notifyDeleteList(Graph g, List<Triple> triples)
+	{
+		for(Triple t : triples)
+			delete(t);
+	}
+
+	public void notifyDeleteArray(Graph g, Triple[] triples)
+	{
+		for(Triple t : triples)
+			delete(t);
+	}
+
+	public void notifyDeleteIterator(Graph g, Iterator<Triple> it)
+	{
+		while(it.hasNext())
+			delete(it.next());
+	}
+
+	public void notifyDeleteGraph(Graph g, Graph removed)
+	{
+		notifyDeleteIterator(g, removed.find(Node.ANY, RDF_TYPE, Node.ANY));
+	}
+
+	public void notifyEvent(Graph source, Object value)
+	{
+		if(GraphEvents.removeAll.equals(value))
+			types.clear();
+		else if(value instanceof GraphEvents && "remove".equals(((GraphEvents) value).getTitle()))
+			// pattern removal, the removed triples are not reported
+			rebuild(source);
+	}
+
+}
@@ -0,0 +1,511 @@
+package uk.ac.dotrural.prov.sparql;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.apache.jena.riot.tokens.Token;
+import org.apache.jena.riot.tokens.Tokenizer;
+import org.apache.jena.riot.tokens.TokenizerFactory;
+
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ResultHandler;
+import uk.ac.dotrural.prov.XsdDateTime;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.OpAsQuery;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+
+/**
+ * Implementation of {@link SparqlUtils} that talks to a remote store over the
+ * SPARQL 1.1 Protocol. Connections are pooled and kept alive between calls;
+ * each call to {@link #performUpdates(Collection)} is sent as a single POST
+ * with the updates joined into one request. Results are requested as
+ * tab-separated values, which are parsed as they are read, and responses are
+ * gzip compressed when the server supports it.
+ * <p>
+ * Requests that fail with an I/O error or a 5xx response are retried with
+ * exponential backoff, unless some results have already been read. Updates
+ * are retried too, which is safe for the <code>INSERT DATA</code> updates
+ * built by {@link ProvSparqlUpdateBuilder}.
+ * Failures are reported with {@link QueryExceptionHTTP}.
+ * <p>
+ * Instances are safe to use from multiple threads and should be closed to
+ * release their connections.
+ */
+public class HttpSparqlUtils implements SparqlUtils, Closeable {
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 20;
+	public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	public static final long DEFAULT_BACKOFF_MILLIS = 100;
+
+	private static final String ACCEPT = "text/tab-separated-values, application/sparql-results+json;q=0.9, application/sparql-results+xml;q=0.8";
+	private static final ContentType SPARQL_UPDATE = ContentType.create(
+			"application/sparql-update", "UTF-8");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Subjects per query when traversing */
+	private static final int VALUES_CHUNK = 500;
+
+	/**
+	 * Receives the rows of a result set as they are parsed
+	 */
+	private interface RowHandler {
+		/**
+		 * @param values
+		 *            value of each variable, null if unbound
+		 * @return false to stop reading
+		 */
+		boolean row(Map<String, Node> values);
+	}
+
+	private static class CountingRowHandler implements RowHandler {
+		private final RowHandler handler;
+		private long rows;
+
+		CountingRowHandler(RowHandler handler) {
+			this.handler = handler;
+		}
+
+		public boolean row(Map<String, Node> values) {
+			rows++;
+			return handler.row(values);
+		}
+	}
+
+	private final String queryEndpoint;
+	private final String updateEndpoint;
+	private final int maxRetries;
+	private final long backoffMillis;
+	private final PoolingClientConnectionManager connections;
+	private final HttpClient client;
+
+	/**
+	 * @param queryEndpoint
+	 *            URL of the SPARQL query service
+	 * @param updateEndpoint
+	 *            URL of the SPARQL update service
+	 */
+	public HttpSparqlUtils(String queryEndpoint, String updateEndpoint) {
+		this(queryEndpoint, updateEndpoint, DEFAULT_MAX_CONNECTIONS,
+				DEFAULT_TIMEOUT_MILLIS, DEFAULT_MAX_RETRIES,
+				DEFAULT_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * @param queryEndpoint
+	 *            URL of the SPARQL query service
+	 * @param updateEndpoint
+	 *            URL of the SPARQL update service
+	 * @param maxConnections
+	 *            maximum number of pooled connections
+	 * @param timeoutMillis
+	 *            connect and read timeout
+	 * @param maxRetries
+	 *            number of times a failed request is retried
+	 * @param backoffMillis
+	 *            delay before the first retry, doubled for each later retry
+	 */
+	public HttpSparqlUtils(String queryEndpoint, String updateEndpoint,
+			int maxConnections, int timeoutMillis, int maxRetries,
+			long backoffMillis) {
+		super();
+		this.queryEndpoint = queryEndpoint;
+		this.updateEndpoint = updateEndpoint;
+		this.maxRetries = maxRetries;
+		this.backoffMillis = backoffMillis;
+		this.connections = new PoolingClientConnectionManager();
+		this.connections.setMaxTotal(maxConnections);
+		this.connections.setDefaultMaxPerRoute(maxConnections);
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, timeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, timeoutMillis);
+		DefaultHttpClient client = new DefaultHttpClient(this.connections,
+				params);
+		// decompress with interceptors rather than DecompressingHttpClient,
+		// which executes a copy of each request so it could not be aborted
+		client.addRequestInterceptor(new RequestAcceptEncoding());
+		client.addResponseInterceptor(new ResponseContentEncoding());
+		this.client = client;
+	}
+
+	/**
+	 * Closes the pooled connections
+	 */
+	public void close() {
+		this.connections.shutdown();
+	}
+
+	public boolean performUpdates(Collection<String> updates) {
+		if (updates.isEmpty()) {
+			return true;
+		}
+		StringBuilder request = new StringBuilder();
+		for (String update : updates) {
+			if (request.length() > 0) {
+				request.append(" ;\n");
+			}
+			request.append(update);
+		}
+		HttpPost post = new HttpPost(this.updateEndpoint);
+		post.setEntity(new StringEntity(request.toString(), SPARQL_UPDATE));
+		execute(post, null);
+		return true;
+	}
+
+	public Collection<String> performQuerySting(String query) {
+		final List<String> results = new ArrayList<String>();
+		select(query, new RowHandler() {
+			public boolean row(Map<String, Node> values) {
+				if (values.size() > 1) {
+					throw new IllegalArgumentException(
+							"Query has more than one variable in the select so I don't know which one to return values for");
+				}
+				Iterator<Node> it = values.values().iterator();
+				if (it.hasNext()) {
+					Node node = it.next();
+					if (node != null) {
+						results.add(getNodeStrValue(node));
+					}
+				}
+				return true;
+			}
+		});
+		return results;
+	}
+
+	public Collection<String> performQuerySting(Op op, final Var variable) {
+		final List<String> results = new ArrayList<String>();
+		select(toQuery(op), new RowHandler() {
+			public boolean row(Map<String, Node> values) {
+				Node node = values.get(variable.getVarName());
+				if (node != null) {
+					results.add(getNodeStrValue(node));
+				}
+				return true;
+			}
+		});
+		return results;
+	}
+
+	public void performQuery(Op op, final Var variable,
+			final ResultHandler handler) {
+		select(toQuery(op), new RowHandler() {
+			public boolean row(Map<String, Node> values) {
+				Node node = values.get(variable.getVarName());
+				return node == null || handler.handle(getNodeStrValue(node));
+			}
+		});
+	}
+
+	public Map<String, Collection<String>> performQueryMap(Op op,
+			final Var key, final Var value) {
+		final Map<String, Collection<String>> results = new HashMap<String, Collection<String>>();
+		select(toQuery(op), new RowHandler() {
+			public boolean row(Map<String, Node> values) {
+				Node keyNode = values.get(key.getVarName());
+				Node valueNode = values.get(value.getVarName());
+				if (keyNode != null && valueNode != null) {
+					String keyStr = getNodeStrValue(keyNode);
+					Collection<String> keyValues = results.get(keyStr);
+					if (keyValues == null) {
+						keyValues = new ArrayList<String>();
+						results.put(keyStr, keyValues);
+					}
+					keyValues.add(getNodeStrValue(valueNode));
+				}
+				return true;
+			}
+		});
+		return results;
+	}
+
+	public Long performQueryLong(String query) {
+		final Long[] result = new Long[1];
+		select(query, new RowHandler() {
+			public boolean row(Map<String, Node> values) {
+				if (values.size() > 1) {
+					throw new IllegalArgumentException(
+							"Query has more than one variable in the select so I don't know which one to return values for");
+				}
+				for (Node node : values.values()) {
+					if (node != null && node.isLiteral()) {
+						long value = XsdDateTime.toMillis(node);
+						if (value != Long.MIN_VALUE) {
+							result[0] = value;
+						}
+					}
+				}
+				return false;
+			}
+		});
+		return result[0];
+	}
+
+	public Long performQueryLong(Op op, final Var variable) {
+		final Long[] result = new Long[1];
+		select(toQuery(op), new RowHandler() {
+			public boolean row(Map<String, Node> values) {
+				Node node = values.get(variable.getVarName());
+				if (node != null) {
+					long value = XsdDateTime.toMillis(node);
+					if (value != Long.MIN_VALUE) {
+						result[0] = value;
+						return false;
+					}
+				}
+				return true;
+			}
+		});
+		return result[0];
+	}
+
+	/**
+	 * Remote stores are not indexed by time, so this runs a
+	 * <code>FILTER</code> query ordered by time
+	 */
+	public List<String> performTimeRangeQuery(String predicate, long from,
+			long to, int offset, int limit) {
+		String query = "SELECT ?s WHERE { ?s <" + predicate + "> ?t . "
+				+ "FILTER(?t >= " + dateTime(from) + " && ?t < "
+				+ dateTime(to) + ") } ORDER BY ?t ?s OFFSET " + offset
+				+ " LIMIT " + limit;
+		return new ArrayList<String>(performQuerySting(query));
+	}
+
+	/**
+	 * Traverses one level at a time, each level being a single query (per
+	 * {@value #VALUES_CHUNK} subjects) for all of the predicates
+	 */
+	public Lineage performTraversal(String startUri,
+			Collection<String> predicates, int maxDepth, int limit) {
+		final Lineage lineage = new Lineage(startUri);
+		if (predicates.isEmpty()) {
+			return lineage;
+		}
+		StringBuilder predicateValues = new StringBuilder();
+		for (String predicate : predicates) {
+			predicateValues.append('<').append(predicate).append("> ");
+		}
+		List<String> frontier = new ArrayList<String>();
+		frontier.add(startUri);
+		for (int depth = 1; depth <= maxDepth && !frontier.isEmpty(); depth++) {
+			final List<String> next = new ArrayList<String>();
+			final int level = depth;
+			for (int start = 0; start < frontier.size(); start += VALUES_CHUNK) {
+				StringBuilder query = new StringBuilder(
+						"SELECT ?s ?p ?o WHERE { VALUES ?s { ");
+				for (String subject : frontier.subList(start,
+						Math.min(frontier.size(), start + VALUES_CHUNK))) {
+					query.append('<').append(subject).append("> ");
+				}
+				query.append("} VALUES ?p { ").append(predicateValues)
+						.append("} ?s ?p ?o . FILTER(!isLiteral(?o)) }");
+				final int remaining = limit - lineage.size();
+				query.append(" LIMIT ").append(remaining + 1);
+				final int[] seen = new int[1];
+				select(query.toString(), new RowHandler() {
+					public boolean row(Map<String, Node> values) {
+						if (seen[0]++ >= remaining) {
+							lineage.setTruncated(true);
+							return false;
+						}
+						String object = getNodeStrValue(values.get("o"));
+						if (lineage.addEdge(getNodeStrValue(values.get("s")),
+								getNodeStrValue(values.get("p")), object,
+								level)) {
+							next.add(object);
+						}
+						return true;
+					}
+				});
+				if (lineage.isTruncated()) {
+					return lineage;
+				}
+			}
+			frontier = next;
+		}
+		return lineage;
+	}
+
+	private static String dateTime(long millis) {
+		// keep to the four digit years every store can parse
+		millis = Math.max(-62135596800000L, Math.min(253402300799999L, millis));
+		return "\"" + XsdDateTime.format(millis) + "\"^^<"
+				+ XsdDateTime.DATATYPE + ">";
+	}
+
+	private static String toQuery(Op op) {
+		return OpAsQuery.asQuery(op).serialize();
+	}
+
+	/**
+	 * Runs a SELECT query, passing each row to handler as it is parsed
+	 */
+	private void select(String query, final RowHandler handler) {
+		HttpPost post = new HttpPost(this.queryEndpoint);
+		List<NameValuePair> form = new ArrayList<NameValuePair>();
+		form.add(new BasicNameValuePair("query", query));
+		post.setEntity(new UrlEncodedFormEntity(form, UTF8));
+		post.setHeader("Accept", ACCEPT);
+		execute(post, handler);
+	}
+
+	/**
+	 * Sends a request, retrying on I/O errors and server errors
+	 */
+	private void execute(HttpPost post, RowHandler rowHandler) {
+		CountingRowHandler handler = rowHandler == null ? null
+				: new CountingRowHandler(rowHandler);
+		for (int attempt = 0;; attempt++) {
+			try {
+				HttpResponse response = this.client.execute(post);
+				HttpEntity entity = response.getEntity();
+				int status = response.getStatusLine().getStatusCode();
+				boolean complete = true;
+				try {
+					if (status >= 200 && status < 300) {
+						if (handler != null && entity != null) {
+							complete = false;
+							complete = readResults(entity, handler);
+						}
+						return;
+					}
+				} finally {
+					if (complete) {
+						EntityUtils.consumeQuietly(entity);
+					} else {
+						// drop the connection rather than read the rest
+						post.abort();
+					}
+				}
+				if (status < 500 || attempt >= this.maxRetries) {
+					throw new QueryExceptionHTTP(status, response
+							.getStatusLine().getReasonPhrase());
+				}
+			} catch (IOException e) {
+				post.reset();
+				// rows already passed on cannot be taken back
+				if (attempt >= this.maxRetries
+						|| (handler != null && handler.rows > 0)) {
+					throw new QueryExceptionHTTP(e);
+				}
+			}
+			try {
+				Thread.sleep(this.backoffMillis << attempt);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new QueryExceptionHTTP(e);
+			}
+		}
+	}
+
+	/**
+	 * @return false if handler stopped before the end of the results
+	 */
+	private boolean readResults(HttpEntity entity, RowHandler handler)
+			throws IOException {
+		ContentType type = ContentType.getOrDefault(entity);
+		InputStream in = entity.getContent();
+		String mimeType = type.getMimeType();
+		if ("text/tab-separated-values".equals(mimeType)) {
+			return readTsv(in, handler);
+		} else {
+			ResultSet results = "application/sparql-results+json"
+					.equals(mimeType) ? ResultSetFactory.fromJSON(in)
+					: ResultSetFactory.fromXML(in);
+			List<String> vars = results.getResultVars();
+			while (results.hasNext()) {
+				QuerySolution solution = results.next();
+				Map<String, Node> values = new HashMap<String, Node>();
+				for (String var : vars) {
+					values.put(var, solution.contains(var) ? solution.get(var)
+							.asNode() : null);
+				}
+				if (!handler.row(values)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Parses SPARQL 1.1 TSV results a line at a time
+	 */
+	private static boolean readTsv(InputStream in, RowHandler handler)
+			throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+				UTF8));
+		String header = reader.readLine();
+		if (header == null) {
+			return true;
+		}
+		String[] vars = header.split("\t", -1);
+		for (int i = 0; i < vars.length; i++) {
+			vars[i] = vars[i].startsWith("?") ? vars[i].substring(1) : vars[i];
+		}
+		for (String line = reader.readLine(); line != null; line = reader
+				.readLine()) {
+			String[] cells = line.split("\t", -1);
+			Map<String, Node> values = new HashMap<String, Node>();
+			for (int i = 0; i < vars.length; i++) {
+				values.put(vars[i], i < cells.length ? parseTerm(cells[i])
+						: null);
+			}
+			if (!handler.row(values)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Node parseTerm(String cell) {
+		if (cell.length() == 0) {
+			return null;
+		}
+		Tokenizer tokenizer = TokenizerFactory.makeTokenizerString(cell);
+		Token token = tokenizer.next();
+		return token.asNode();
+	}
+
+	private static String getNodeStrValue(Node node) {
+		if (node.isURI()) {
+			return node.getURI();
+		} else if (node.isLiteral()) {
+			return node.getLiteralValue().toString();
+		}
+		return node.toString();
+	}
+}
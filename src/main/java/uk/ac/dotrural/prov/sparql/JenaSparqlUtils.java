@@ -1,36 +1,158 @@
 package uk.ac.dotrural.prov.sparql;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.hp.hpl.jena.ontology.OntModel;
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ResultHandler;
+import uk.ac.dotrural.prov.XsdDateTime;
+import uk.ac.dotrural.prov.io.ProvenanceSnapshot;
+import uk.ac.dotrural.prov.io.WriteAheadLog;
+import uk.ac.dotrural.prov.io.WriteAheadLog.SyncPolicy;
+import uk.ac.dotrural.prov.jena.Retention;
+import uk.ac.dotrural.prov.jena.TimeIndex;
+import uk.ac.dotrural.prov.jena.TimeIndexChanges;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.ontology.OntModelSpec;
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
 import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ReadWrite;
 import com.hp.hpl.jena.query.ResultSet;
-import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.shared.Lock;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.sparql.core.DatasetGraphWrapper;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.modify.request.UpdateData;
+import com.hp.hpl.jena.sparql.modify.request.UpdateDeleteWhere;
+import com.hp.hpl.jena.sparql.modify.request.UpdateWithUsing;
+import com.hp.hpl.jena.tdb.TDBFactory;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.update.Update;
 import com.hp.hpl.jena.update.UpdateAction;
 import com.hp.hpl.jena.update.UpdateRequest;
-import com.hp.hpl.jena.vocabulary.XSD;
 
 
 /**
- * Implementation of {@link SparqlUtils} that uses an in memory Jena ontology model
+ * Implementation of {@link SparqlUtils} that uses a local Jena store. By
+ * default this is an in memory Jena ontology model; other backends can be
+ * selected with {@link #createInMemory()}, {@link #createTdb(String)} or by
+ * passing a {@link Model} or {@link Dataset} to the constructor.
+ * <p>
+ * Instances are safe to use from multiple threads. Updates and queries are
+ * run inside transactions when the dataset supports them, otherwise under the
+ * multiple reader/single writer lock of the model or dataset, so queries run in
+ * parallel and each call to {@link #performUpdates(Collection)} is applied as
+ * one serialized write.
  * 
  * @author David Corsar
  *
  */
 public class JenaSparqlUtils implements SparqlUtils {
 	
-	private OntModel model;
+	private Dataset dataset;
+	private Model model;
+	private Lock lock;
+	private TimeIndex timeIndex;
+	private long timeIndexVersion;
+	private final AtomicLong writeVersion = new AtomicLong();
+	private volatile WriteAheadLog log;
 	
 	public JenaSparqlUtils(){
+		this(ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM));
+	}
+
+	/**
+	 * Use the given model as the store
+	 * 
+	 * @param model
+	 *            model queries and updates are performed against
+	 */
+	public JenaSparqlUtils(Model model){
 		super();
-		this.model = ModelFactory.createOntologyModel(OntModelSpec.OWL_DL_MEM);
+		this.model = model;
+		this.dataset = DatasetFactory.create(model);
+		this.lock = model.getLock();
+	}
+
+	/**
+	 * Use the default graph of the given dataset as the store
+	 * 
+	 * @param dataset
+	 *            dataset queries and updates are performed against
+	 */
+	public JenaSparqlUtils(Dataset dataset){
+		super();
+		this.dataset = dataset;
+		if (!dataset.supportsTransactions()) {
+			this.lock = dataset.getLock();
+		}
+	}
+
+	/**
+	 * Creates an instance backed by a plain in memory graph, without the
+	 * ontology model layer
+	 * 
+	 * @return a new in memory store
+	 */
+	public static JenaSparqlUtils createInMemory(){
+		return new JenaSparqlUtils(ModelFactory.createDefaultModel());
+	}
+
+	/**
+	 * Creates an instance backed by a persistent TDB dataset
+	 * 
+	 * @param directory
+	 *            location of the TDB files, created if it does not exist
+	 * @return a new TDB backed store
+	 */
+	public static JenaSparqlUtils createTdb(String directory){
+		return new JenaSparqlUtils(TDBFactory.createDataset(directory));
+	}
+
+	public Dataset getDataset() {
+		return dataset;
+	}
+
+	/**
+	 * Gets the model updates are applied to. For transactional datasets this
+	 * must be called, and the model used, inside a transaction.
+	 * 
+	 * @return the default model of the store
+	 */
+	public Model getModel() {
+		if (this.model != null) {
+			return this.model;
+		}
+		return this.dataset.getDefaultModel();
+	}
+
+	/**
+	 * Closes the underlying dataset, releasing any files held by a persistent
+	 * backend
+	 */
+	public void close() {
+		this.dataset.close();
 	}
 
 	public boolean performUpdates(Collection<String> updates) {
@@ -39,26 +161,215 @@ public class JenaSparqlUtils implements SparqlUtils {
 		for (String update : updates) {
 			ur.add(update);
 		}
-		UpdateAction.execute(ur, this.model);
+		begin(ReadWrite.WRITE);
+		try {
+			if (this.dataset.supportsTransactions()) {
+				long version = this.writeVersion.get();
+				TimeIndexChanges changes = new TimeIndexChanges();
+				for (Update update : ur.getOperations()) {
+					if (!(update instanceof UpdateData
+							|| update instanceof UpdateWithUsing
+							|| update instanceof UpdateDeleteWhere)) {
+						// graph management, changes are not made quad by quad
+						changes.invalidate();
+					}
+				}
+				UpdateAction.execute(ur, new TimestampRecorder(
+						this.dataset.asDatasetGraph(), changes));
+				commit();
+				applyTimeIndexChanges(version,
+						this.writeVersion.incrementAndGet(), changes);
+			} else {
+				UpdateAction.execute(ur, this.dataset);
+				commit();
+				this.writeVersion.incrementAndGet();
+			}
+		} finally {
+			end();
+		}
+		sync();
 		
 		return true;
 	}
 
+	/**
+	 * Adds the triples directly to the underlying graph, avoiding the cost of
+	 * creating and parsing SPARQL updates for in-process stores
+	 * 
+	 * @param triples
+	 *            the triples to add
+	 * @return true when the triples have been added
+	 */
+	public boolean performTripleUpdates(Collection<Triple> triples) {
+		begin(ReadWrite.WRITE);
+		try {
+			long version = this.writeVersion.get();
+			Graph graph = getModel().getGraph();
+			TimeIndexChanges changes = recordTimestamps(graph);
+			try {
+				for (Triple triple : triples) {
+					graph.add(triple);
+				}
+			} finally {
+				if (changes != null) {
+					graph.getEventManager().unregister(changes);
+				}
+			}
+			commit();
+			long next = this.writeVersion.incrementAndGet();
+			if (changes != null) {
+				applyTimeIndexChanges(version, next, changes);
+			}
+		} finally {
+			end();
+		}
+		sync();
+		return true;
+	}
+
 	public Collection<String> performQuerySting(String query) {
 		
-		QueryExecution queryExecution = QueryExecutionFactory.create(query,this.model);
-		ResultSet results = queryExecution.execSelect();
-		List<String> resultVars = results.getResultVars();
-		if (resultVars.size()>1){
-			throw new IllegalArgumentException("Query has more than one variable in the select so I don't know which one to return values for");
+		begin(ReadWrite.READ);
+		try {
+			QueryExecution queryExecution = QueryExecutionFactory.create(query,this.dataset);
+			try {
+				ResultSet results = queryExecution.execSelect();
+				List<String> resultVars = results.getResultVars();
+				if (resultVars.size()>1){
+					throw new IllegalArgumentException("Query has more than one variable in the select so I don't know which one to return values for");
+				}
+				String variable = resultVars.get(0);
+				Collection<String> resultsStrs = new ArrayList<String>();
+				while (results.hasNext()){
+					QuerySolution qs = results.next();
+					resultsStrs.add(getNodeStrValue(qs.get(variable)));
+				}
+				return resultsStrs;
+			} finally {
+				queryExecution.close();
+			}
+		} finally {
+			end();
+		}
+	}
+
+	public Collection<String> performQuerySting(Op op, Var variable) {
+		begin(ReadWrite.READ);
+		try {
+			QueryIterator results = Algebra.exec(op, this.dataset.asDatasetGraph());
+			Collection<String> resultsStrs = new ArrayList<String>();
+			while (results.hasNext()){
+				Node node = results.nextBinding().get(variable);
+				if (node != null){
+					resultsStrs.add(getNodeStrValue(node));
+				}
+			}
+			results.close();
+			return resultsStrs;
+		} finally {
+			end();
+		}
+	}
+
+	public void performQuery(Op op, Var variable, ResultHandler handler) {
+		begin(ReadWrite.READ);
+		try {
+			QueryIterator results = Algebra.exec(op, this.dataset.asDatasetGraph());
+			try {
+				while (results.hasNext()){
+					Node node = results.nextBinding().get(variable);
+					if (node != null && !handler.handle(getNodeStrValue(node))){
+						break;
+					}
+				}
+			} finally {
+				results.close();
+			}
+		} finally {
+			end();
+		}
+	}
+
+	public Map<String, Collection<String>> performQueryMap(Op op, Var key, Var value) {
+		begin(ReadWrite.READ);
+		try {
+			QueryIterator results = Algebra.exec(op, this.dataset.asDatasetGraph());
+			Map<String, Collection<String>> resultsMap = new HashMap<String, Collection<String>>();
+			while (results.hasNext()){
+				Binding binding = results.nextBinding();
+				Node keyNode = binding.get(key);
+				Node valueNode = binding.get(value);
+				if (keyNode == null || valueNode == null){
+					continue;
+				}
+				String keyStr = getNodeStrValue(keyNode);
+				Collection<String> values = resultsMap.get(keyStr);
+				if (values == null){
+					values = new ArrayList<String>();
+					resultsMap.put(keyStr, values);
+				}
+				values.add(getNodeStrValue(valueNode));
+			}
+			results.close();
+			return resultsMap;
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Walks the graph directly rather than issuing a query per hop
+	 */
+	public Lineage performTraversal(String startUri, Collection<String> predicates, int maxDepth, int limit) {
+		List<Node> predicateNodes = new ArrayList<Node>(predicates.size());
+		for (String predicate : predicates) {
+			predicateNodes.add(Node.createURI(predicate));
 		}
-		String variable = resultVars.get(0);
-		Collection<String> resultsStrs = new ArrayList<String>();
-		while (results.hasNext()){
-			QuerySolution qs = results.next();
-			resultsStrs.add(getNodeStrValue(qs.get(variable)));
+		Lineage lineage = new Lineage(startUri);
+		begin(ReadWrite.READ);
+		try {
+			Graph graph = getModel().getGraph();
+			List<Node> frontier = new ArrayList<Node>();
+			frontier.add(Node.createURI(startUri));
+			for (int depth = 1; depth <= maxDepth && !frontier.isEmpty(); depth++) {
+				List<Node> next = new ArrayList<Node>();
+				for (Node subject : frontier) {
+					for (Node predicate : predicateNodes) {
+						ExtendedIterator<Triple> it = graph.find(subject, predicate, Node.ANY);
+						try {
+							while (it.hasNext()) {
+								Node object = it.next().getObject();
+								if (object.isLiteral()) {
+									continue;
+								}
+								if (lineage.size() >= limit) {
+									lineage.setTruncated(true);
+									return lineage;
+								}
+								if (lineage.addEdge(getNodeStrValue(subject), predicate.getURI(), getNodeStrValue(object), depth)) {
+									next.add(object);
+								}
+							}
+						} finally {
+							it.close();
+						}
+					}
+				}
+				frontier = next;
+			}
+			return lineage;
+		} finally {
+			end();
+		}
+	}
+
+	private String getNodeStrValue(Node node) {
+		if (node.isURI()){
+			return node.getURI();
+		} else if (node.isLiteral()){
+			return node.getLiteralValue().toString();
 		}
-		return resultsStrs;
+		return node.toString();
 	}
 
 	private String getNodeStrValue(RDFNode rdfNode) {
@@ -75,25 +386,405 @@ public class JenaSparqlUtils implements SparqlUtils {
 		return null;
 	}
 
+	public Long performQueryLong(Op op, Var variable) {
+		begin(ReadWrite.READ);
+		try {
+			QueryIterator results = Algebra.exec(op, this.dataset.asDatasetGraph());
+			try {
+				while (results.hasNext()){
+					Node node = results.nextBinding().get(variable);
+					if (node != null){
+						long value = XsdDateTime.toMillis(node);
+						if (value != Long.MIN_VALUE){
+							return value;
+						}
+					}
+				}
+				return null;
+			} finally {
+				results.close();
+			}
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Saves the store as a binary snapshot, which can be restored far faster
+	 * than RDF can be parsed. Writers wait until the snapshot is complete, and
+	 * then the write-ahead log, if open, is truncated.
+	 * 
+	 * @param file
+	 *            the snapshot file, replaced once the snapshot is complete
+	 * @return the number of triples saved
+	 * @throws IOException
+	 */
+	public long snapshot(File file) throws IOException {
+		begin(ReadWrite.READ);
+		try {
+			Graph graph = getModel().getGraph();
+			long count = ProvenanceSnapshot.write(graph.find(Node.ANY, Node.ANY, Node.ANY), file);
+			WriteAheadLog current = this.log;
+			if (current != null) {
+				current.truncate();
+			}
+			return count;
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Adds the triples of a snapshot written by {@link #snapshot(File)} to the
+	 * store as one write, normally when the store is empty after a restart and
+	 * before {@link #openLog(File, SyncPolicy)}
+	 * 
+	 * @param file
+	 *            the snapshot file
+	 * @return the number of triples restored
+	 * @throws IOException
+	 */
+	public long restore(File file) throws IOException {
+		long count;
+		begin(ReadWrite.WRITE);
+		try {
+			count = ProvenanceSnapshot.read(file, getModel().getGraph());
+			commit();
+			this.writeVersion.incrementAndGet();
+		} finally {
+			end();
+		}
+		sync();
+		return count;
+	}
+
+	/**
+	 * Replays a write-ahead log into the store as one write and then records
+	 * every later change to it, so that the store can be rebuilt after a crash
+	 * from the last {@link #snapshot(File)} and the log. Each write returns
+	 * once its changes are as durable as policy requires; writers that finish
+	 * together share one sync of the log. Only for stores without
+	 * transactions, as TDB keeps its own journal.
+	 * 
+	 * @param file
+	 *            the log file, created if it does not exist
+	 * @param policy
+	 *            when changes are forced to disk
+	 * @return the number of triples replayed from the log
+	 * @throws IOException
+	 */
+	public long openLog(File file, SyncPolicy policy) throws IOException {
+		if (this.dataset.supportsTransactions()) {
+			throw new IllegalStateException("Transactional datasets are made durable by their own journal");
+		}
+		WriteAheadLog opened = new WriteAheadLog(file, policy, WriteAheadLog.DEFAULT_INTERVAL);
+		begin(ReadWrite.WRITE);
+		try {
+			if (this.log != null) {
+				throw new IllegalStateException("A log is already open");
+			}
+			Graph graph = getModel().getGraph();
+			long replayed = opened.replay(graph);
+			graph.getEventManager().register(opened);
+			this.log = opened;
+			this.writeVersion.incrementAndGet();
+			return replayed;
+		} finally {
+			end();
+			if (this.log != opened) {
+				opened.close();
+			}
+		}
+	}
+
+	/**
+	 * Stops recording changes and closes the write-ahead log, forcing any
+	 * changes not yet on disk
+	 * 
+	 * @throws IOException
+	 */
+	public void closeLog() throws IOException {
+		WriteAheadLog current;
+		begin(ReadWrite.WRITE);
+		try {
+			current = this.log;
+			if (current == null) {
+				return;
+			}
+			getModel().getGraph().getEventManager().unregister(current);
+			this.log = null;
+		} finally {
+			end();
+		}
+		current.close();
+	}
+
+	/**
+	 * Gets the open write-ahead log
+	 * 
+	 * @return the log, or null if no log is open
+	 */
+	public WriteAheadLog getLog() {
+		return this.log;
+	}
+
+	private void sync() {
+		WriteAheadLog current = this.log;
+		if (current != null) {
+			current.sync();
+		}
+	}
+
+	/**
+	 * Removes up to batchSize of the activities that ended before cutoff, the
+	 * oldest first, with the entities only they reference, as one write. Call
+	 * repeatedly, for example from a scheduled task, until it returns 0;
+	 * readers and writers only wait for one batch at a time.
+	 * 
+	 * @param cutoff
+	 *            milliseconds since the epoch
+	 * @param batchSize
+	 *            maximum number of activities to remove
+	 * @return the number of triples removed
+	 * @see Retention#removeActivities(Graph, Collection)
+	 */
+	public long removeActivitiesEndedBefore(long cutoff, int batchSize) {
+		List<Triple> removed;
+		begin(ReadWrite.WRITE);
+		try {
+			// writers are serialised, so the version cannot move until end()
+			long version = this.writeVersion.get();
+			TimeIndex index = getTimeIndex(version);
+			List<Node> activities = new ArrayList<Node>();
+			for (String uri : index.range(ProvO.endedAtTime, Long.MIN_VALUE, cutoff, 0, batchSize)) {
+				activities.add(Node.createURI(uri));
+			}
+			if (activities.isEmpty()) {
+				commit();
+				return 0;
+			}
+			removed = Retention.removeActivities(getModel().getGraph(), activities);
+			commit();
+			long next = this.writeVersion.incrementAndGet();
+			if (this.dataset.supportsTransactions()) {
+				TimeIndexChanges changes = new TimeIndexChanges();
+				for (Triple triple : removed) {
+					changes.delete(triple);
+				}
+				applyTimeIndexChanges(version, next, changes);
+			}
+		} finally {
+			end();
+		}
+		sync();
+		return removed.size();
+	}
+
+	/**
+	 * Uses a sorted index of the timestamps. For in memory stores the index is
+	 * kept up to date by listening to the graph. Transactional stores have no
+	 * long lived graph to listen to, so each write records the timestamps it
+	 * changes and applies them to the index once committed; the index is only
+	 * rebuilt after a write whose changes could not be recorded, such as
+	 * restoring a snapshot or clearing a graph. The skipped resources are
+	 * stepped over, so deep pages cost O(offset);
+	 * {@link #performTimeRangeQuery(String, long, long, TimeIndex.Timestamp, int)}
+	 * pages by cursor instead.
+	 */
+	public List<String> performTimeRangeQuery(String predicate, long from, long to, int offset, int limit) {
+		long version = this.writeVersion.get();
+		begin(ReadWrite.READ);
+		try {
+			return getTimeIndex(version).range(predicate, from, to, offset, limit);
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Finds the resources with a timestamp in a range that come after a
+	 * cursor, ordered by time then URI, so that a large range can be paged
+	 * through without skipping
+	 * 
+	 * @param predicate
+	 *            the timestamp property, such as
+	 *            {@link uk.ac.dotrural.prov.ProvO#startedAtTime}
+	 * @param from
+	 *            start of the range in milliseconds, inclusive
+	 * @param to
+	 *            end of the range in milliseconds, exclusive
+	 * @param after
+	 *            last timestamp returned for the previous page, or null for
+	 *            the first page
+	 * @param limit
+	 *            maximum number of resources to return
+	 * @return the timestamps of the resources
+	 * @see TimeIndex#range(String, long, long, TimeIndex.Timestamp, int)
+	 */
+	public List<TimeIndex.Timestamp> performTimeRangeQuery(String predicate, long from, long to, TimeIndex.Timestamp after, int limit) {
+		long version = this.writeVersion.get();
+		begin(ReadWrite.READ);
+		try {
+			return getTimeIndex(version).range(predicate, from, to, after, limit);
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Gets the time index, creating it on first use. Must be called inside a
+	 * read transaction started after version was read.
+	 */
+	private synchronized TimeIndex getTimeIndex(long version) {
+		if (this.timeIndex == null) {
+			Graph graph = getModel().getGraph();
+			if (this.dataset.supportsTransactions()) {
+				this.timeIndex = new TimeIndex();
+				this.timeIndex.rebuild(graph);
+			} else {
+				this.timeIndex = TimeIndex.register(graph);
+			}
+			this.timeIndexVersion = version;
+		} else if (this.dataset.supportsTransactions() && this.timeIndexVersion < version) {
+			this.timeIndex.rebuild(getModel().getGraph());
+			this.timeIndexVersion = version;
+		}
+		return this.timeIndex;
+	}
+
+	/**
+	 * Starts recording the timestamps changed in graph, if the index of a
+	 * transactional store needs to be told about them
+	 * 
+	 * @return the changes, to be unregistered from graph once written, or null
+	 */
+	private TimeIndexChanges recordTimestamps(Graph graph) {
+		if (!this.dataset.supportsTransactions()) {
+			return null;
+		}
+		TimeIndexChanges changes = new TimeIndexChanges();
+		graph.getEventManager().register(changes);
+		return changes;
+	}
+
+	/**
+	 * Applies the timestamps changed by a committed write to the index of a
+	 * transactional store. If the index did not match the store just before
+	 * the write, or the changes are incomplete, it is left to be rebuilt by
+	 * the next query.
+	 * 
+	 * @param version
+	 *            the write version read inside the write transaction
+	 * @param next
+	 *            the write version after the write
+	 */
+	private synchronized void applyTimeIndexChanges(long version, long next, TimeIndexChanges changes) {
+		if (this.timeIndex == null || this.timeIndexVersion != version || next != version + 1) {
+			return;
+		}
+		if (changes.applyTo(this.timeIndex)) {
+			this.timeIndexVersion = next;
+		}
+	}
+
+	/**
+	 * Passes the changes made by SPARQL Update through to a dataset, recording
+	 * the timestamps added to or removed from its default graph
+	 */
+	private static class TimestampRecorder extends DatasetGraphWrapper {
+
+		private final TimeIndexChanges changes;
+
+		TimestampRecorder(DatasetGraph dsg, TimeIndexChanges changes) {
+			super(dsg);
+			this.changes = changes;
+		}
+
+		@Override
+		public void add(Quad quad) {
+			super.add(quad);
+			if (quad.isDefaultGraph()) {
+				this.changes.add(quad.asTriple());
+			}
+		}
+
+		@Override
+		public void delete(Quad quad) {
+			super.delete(quad);
+			if (quad.isDefaultGraph()) {
+				this.changes.delete(quad.asTriple());
+			}
+		}
+
+		@Override
+		public void add(Node g, Node s, Node p, Node o) {
+			add(new Quad(g, s, p, o));
+		}
+
+		@Override
+		public void delete(Node g, Node s, Node p, Node o) {
+			delete(new Quad(g, s, p, o));
+		}
+
+		@Override
+		public void deleteAny(Node g, Node s, Node p, Node o) {
+			super.deleteAny(g, s, p, o);
+			this.changes.invalidate();
+		}
+	}
+
 	public Long performQueryLong(String query) {
-		QueryExecution queryExecution = QueryExecutionFactory.create(query,this.model);
-		ResultSet results = queryExecution.execSelect();
-		List<String> resultVars = results.getResultVars();
-		if (resultVars.size()>1){
-			throw new IllegalArgumentException("Query has more than one variable in the select so I don't know which one to return values for");
-		}
-		String variable = resultVars.get(0);
-		if (results.hasNext()){
-			QuerySolution qs = results.next();
-			RDFNode node = qs.get(variable);
-			if (node.isLiteral()){
-				Literal l = node.asLiteral();
-				if (l.getDatatype() != XSD.xlong){
-					return l.getLong();
+		begin(ReadWrite.READ);
+		try {
+			QueryExecution queryExecution = QueryExecutionFactory.create(query,this.dataset);
+			try {
+				ResultSet results = queryExecution.execSelect();
+				List<String> resultVars = results.getResultVars();
+				if (resultVars.size()>1){
+					throw new IllegalArgumentException("Query has more than one variable in the select so I don't know which one to return values for");
+				}
+				String variable = resultVars.get(0);
+				Long value = null;
+				if (results.hasNext()){
+					QuerySolution qs = results.next();
+					RDFNode node = qs.get(variable);
+					if (node != null && node.isLiteral()){
+						long l = XsdDateTime.toMillis(node.asNode());
+						if (l != Long.MIN_VALUE){
+							value = l;
+						}
+					}
 				}
+				return value;
+			} finally {
+				queryExecution.close();
 			}
+		} finally {
+			end();
+		}
+	}
+
+	private void begin(ReadWrite mode) {
+		if (this.dataset.supportsTransactions()) {
+			this.dataset.begin(mode);
+		} else {
+			this.lock.enterCriticalSection(mode == ReadWrite.READ ? Lock.READ
+					: Lock.WRITE);
+		}
+	}
+
+	private void commit() {
+		if (this.dataset.supportsTransactions()) {
+			this.dataset.commit();
+		}
+	}
+
+	private void end() {
+		if (this.dataset.supportsTransactions()) {
+			this.dataset.end();
+		} else {
+			this.lock.leaveCriticalSection();
 		}
-		return null;
 	}
 
 }
@@ -1,21 +1,79 @@
 package uk.ac.dotrural.prov.sparql;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-
-import org.joda.time.DateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import uk.ac.dotrural.prov.Lineage;
 import uk.ac.dotrural.prov.ProvO;
 import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.ResultHandler;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.algebra.Table;
+import com.hp.hpl.jena.sparql.algebra.TableFactory;
+import com.hp.hpl.jena.sparql.algebra.op.OpBGP;
+import com.hp.hpl.jena.sparql.algebra.op.OpProject;
+import com.hp.hpl.jena.sparql.algebra.op.OpSequence;
+import com.hp.hpl.jena.sparql.algebra.op.OpSlice;
+import com.hp.hpl.jena.sparql.algebra.op.OpTable;
+import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.Substitute;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
 
 /**
- * Implementation of {@link ProvenanceGetter} using SPARQL queries
+ * Implementation of {@link ProvenanceGetter} using SPARQL queries. The query
+ * for each predicate is compiled once; the subject is substituted into the
+ * compiled algebra for each call. Lookups for a collection of subjects join
+ * the pattern with a <code>VALUES</code> table of the subjects so they run as
+ * a single query. Paged lookups wrap the compiled query in a slice, so only
+ * the requested page is read from the store.
  * 
  * @author David Corsar
  *
  */
 public class ProvSparqlGetter implements ProvenanceGetter {
 
+	private static final Var SUBJECT = Var.alloc("s");
+	private static final Var VALUE = Var.alloc("var");
+	private static final Var OBJECT = Var.alloc("o");
+	private static final List<Var> SUBJECT_VALUE = Arrays.asList(SUBJECT,
+			VALUE);
+	private static final Map<String, Op> PATTERNS = new HashMap<String, Op>();
+	private static final Map<String, Op> QUERIES = new HashMap<String, Op>();
+	private static final Map<String, Op> INVERSE_QUERIES = new HashMap<String, Op>();
+
+	static {
+		String[] predicates = { ProvO.actedOnBehalfOf, ProvO.endedAtTime,
+				ProvO.startedAtTime, ProvO.used, ProvO.wasAssociatedWith,
+				ProvO.wasAttributedTo, ProvO.wasDerivedFrom,
+				ProvO.wasGeneratedBy, ProvO.wasInformedBy };
+		for (String predicate : predicates) {
+			// ?s <predicate> ?var
+			List<Triple> triples = new ArrayList<Triple>();
+			triples.add(Triple.create(SUBJECT, Node.createURI(predicate),
+					VALUE));
+			Op pattern = new OpBGP(BasicPattern.wrap(triples));
+			PATTERNS.put(predicate, pattern);
+			QUERIES.put(predicate,
+					new OpProject(pattern, Arrays.asList(VALUE)));
+			// ?var <predicate> ?o, evaluated with ?o bound so the store's
+			// object index is used
+			List<Triple> inverse = new ArrayList<Triple>();
+			inverse.add(Triple.create(VALUE, Node.createURI(predicate),
+					OBJECT));
+			INVERSE_QUERIES.put(predicate, new OpProject(new OpBGP(
+					BasicPattern.wrap(inverse)), Arrays.asList(VALUE)));
+		}
+	}
+
 	private SparqlUtils utils;
 
 	public ProvSparqlGetter(SparqlUtils utils){
@@ -28,21 +86,19 @@ public class ProvSparqlGetter implements ProvenanceGetter {
 	}
 
 	public long getEndedAtTime(String activityUri) {
-		Collection<String> results = executeQuery(activityUri, ProvO.endedAtTime);
-		Iterator<String> s = results.iterator();
-		if (s.hasNext()){
-			return ProvSparqlUpdateBuilder.XML_DATE_TIME_FORMAT.parseDateTime(s.next()).getMillis();
-		}
-		return Long.MIN_VALUE;
+		return executeTimeQuery(activityUri, ProvO.endedAtTime);
 	}
 
 	public long getStartedAtTime(String activityUri) {
-		Collection<String> results = executeQuery(activityUri, ProvO.startedAtTime);
-		Iterator<String> s = results.iterator();
-		if (s.hasNext()){
-			return ProvSparqlUpdateBuilder.XML_DATE_TIME_FORMAT.parseDateTime(s.next()).getMillis();
-		}
-		return Long.MIN_VALUE;
+		return executeTimeQuery(activityUri, ProvO.startedAtTime);
+	}
+
+	public List<String> getActivitiesStartedBetween(long from, long to, int offset, int limit) {
+		return utils.performTimeRangeQuery(ProvO.startedAtTime, from, to, offset, limit);
+	}
+
+	public List<String> getActivitiesEndedBetween(long from, long to, int offset, int limit) {
+		return utils.performTimeRangeQuery(ProvO.endedAtTime, from, to, offset, limit);
 	}
 
 	public Collection<String> getUsed(String activityUri) {
@@ -69,9 +125,163 @@ public class ProvSparqlGetter implements ProvenanceGetter {
 		return executeQuery(activityUri, ProvO.wasInformedBy);
 	}
 
+	public Collection<String> getActedOnBehalfOfBy(String agentUri) {
+		return executeInverseQuery(agentUri, ProvO.actedOnBehalfOf);
+	}
+
+	public Collection<String> getUsedBy(String entityUri) {
+		return executeInverseQuery(entityUri, ProvO.used);
+	}
+
+	public Collection<String> getAssociatedActivities(String agentUri) {
+		return executeInverseQuery(agentUri, ProvO.wasAssociatedWith);
+	}
+
+	public Collection<String> getAttributed(String agentUri) {
+		return executeInverseQuery(agentUri, ProvO.wasAttributedTo);
+	}
+
+	public Collection<String> getDerivations(String entityUri) {
+		return executeInverseQuery(entityUri, ProvO.wasDerivedFrom);
+	}
+
+	public Collection<String> getGenerated(String activityUri) {
+		return executeInverseQuery(activityUri, ProvO.wasGeneratedBy);
+	}
+
+	public Collection<String> getInformed(String activityUri) {
+		return executeInverseQuery(activityUri, ProvO.wasInformedBy);
+	}
+
+	public Map<String, Collection<String>> getActedOnBehalfOf(
+			Collection<String> agentUris) {
+		return executeQuery(agentUris, ProvO.actedOnBehalfOf);
+	}
+
+	public Map<String, Collection<String>> getUsed(
+			Collection<String> activityUris) {
+		return executeQuery(activityUris, ProvO.used);
+	}
+
+	public Map<String, Collection<String>> getWasAssociatedWith(
+			Collection<String> activityUris) {
+		return executeQuery(activityUris, ProvO.wasAssociatedWith);
+	}
+
+	public Map<String, Collection<String>> getWasAttributedTo(
+			Collection<String> entityUris) {
+		return executeQuery(entityUris, ProvO.wasAttributedTo);
+	}
+
+	public Map<String, Collection<String>> getWasDerivedFrom(
+			Collection<String> entityUris) {
+		return executeQuery(entityUris, ProvO.wasDerivedFrom);
+	}
+
+	public Map<String, Collection<String>> getWasGeneratedBy(
+			Collection<String> entityUris) {
+		return executeQuery(entityUris, ProvO.wasGeneratedBy);
+	}
+
+	public Map<String, Collection<String>> getWasInformedBy(
+			Collection<String> activityUris) {
+		return executeQuery(activityUris, ProvO.wasInformedBy);
+	}
+
+	public Lineage getLineage(String uri, int maxDepth, int limit,
+			Collection<String> predicates) {
+		return utils.performTraversal(uri, predicates, maxDepth, limit);
+	}
+
+	public List<String> getObjects(String subjectUri, String predicate,
+			int offset, int limit) {
+		Op op = new OpSlice(bind(QUERIES, predicate, SUBJECT, subjectUri),
+				offset, limit);
+		return new ArrayList<String>(utils.performQuerySting(op, VALUE));
+	}
+
+	public List<String> getSubjects(String objectUri, String predicate,
+			int offset, int limit) {
+		Op op = new OpSlice(bind(INVERSE_QUERIES, predicate, OBJECT,
+				objectUri), offset, limit);
+		return new ArrayList<String>(utils.performQuerySting(op, VALUE));
+	}
+
+	public void forEachObject(String subjectUri, String predicate,
+			ResultHandler handler) {
+		utils.performQuery(bind(QUERIES, predicate, SUBJECT, subjectUri),
+				VALUE, handler);
+	}
+
+	public void forEachSubject(String objectUri, String predicate,
+			ResultHandler handler) {
+		utils.performQuery(bind(INVERSE_QUERIES, predicate, OBJECT, objectUri),
+				VALUE, handler);
+	}
+
+	/**
+	 * Substitutes uri for variable in the compiled query for predicate
+	 */
+	private static Op bind(Map<String, Op> queries, String predicate,
+			Var variable, String uri) {
+		Op query = queries.get(predicate);
+		if (query == null) {
+			throw new IllegalArgumentException("Not a PROV relation: "
+					+ predicate);
+		}
+		return Substitute.substitute(query, variable, Node.createURI(uri));
+	}
+
 	private Collection<String> executeQuery(String subjectUri, String predicate) {
-		String query = String.format("SELECT ?var WHERE {<%s> <%s> ?var.}",
-				subjectUri, predicate);
-		return utils.performQuerySting(query);
+		Op op = Substitute.substitute(QUERIES.get(predicate), SUBJECT,
+				Node.createURI(subjectUri));
+		return utils.performQuerySting(op, VALUE);
+	}
+
+	private Collection<String> executeInverseQuery(String objectUri, String predicate) {
+		Op op = Substitute.substitute(INVERSE_QUERIES.get(predicate), OBJECT,
+				Node.createURI(objectUri));
+		return utils.performQuerySting(op, VALUE);
+	}
+
+	private long executeTimeQuery(String subjectUri, String predicate) {
+		Op op = Substitute.substitute(QUERIES.get(predicate), SUBJECT,
+				Node.createURI(subjectUri));
+		Long time = utils.performQueryLong(op, VALUE);
+		return time == null ? Long.MIN_VALUE : time.longValue();
+	}
+
+	/**
+	 * Looks up the values of predicate for all of the subjects in one query,
+	 * equivalent to
+	 * <code>SELECT ?s ?var WHERE {VALUES ?s {...} ?s &lt;predicate&gt; ?var.}</code>
+	 * 
+	 * @return map with an entry for every subject, in iteration order
+	 */
+	private Map<String, Collection<String>> executeQuery(
+			Collection<String> subjectUris, String predicate) {
+		Map<String, Collection<String>> results = new LinkedHashMap<String, Collection<String>>();
+		if (subjectUris.isEmpty()) {
+			return results;
+		}
+		Table subjects = TableFactory.create();
+		for (String subjectUri : subjectUris) {
+			if (!results.containsKey(subjectUri)) {
+				subjects.addBinding(BindingFactory.binding(SUBJECT,
+						Node.createURI(subjectUri)));
+				results.put(subjectUri, new ArrayList<String>());
+			}
+		}
+		Op op = new OpProject(OpSequence.create(OpTable.create(subjects),
+				PATTERNS.get(predicate)), SUBJECT_VALUE);
+		Map<String, Collection<String>> found = utils.performQueryMap(op,
+				SUBJECT, VALUE);
+		for (Map.Entry<String, Collection<String>> entry : found.entrySet()) {
+			Collection<String> values = results.get(entry.getKey());
+			if (values != null) {
+				values.addAll(entry.getValue());
+			}
+		}
+		return results;
 	}
 }
@@ -10,7 +10,11 @@
 package uk.ac.dotrural.prov.sparql;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.joda.time.DateTime;
@@ -21,9 +25,19 @@ import org.joda.time.format.ISODateTimeFormat;
 
 import uk.ac.dotrural.prov.ProvO;
 import uk.ac.dotrural.prov.ProvenanceBuilder;
+import uk.ac.dotrural.prov.XsdDateTime;
 
 /**
- * Implementation of {@link ProvenanceBuilder} using SPARQL insert queries
+ * Implementation of {@link ProvenanceBuilder} using SPARQL insert queries.
+ * Pending triples are grouped into <code>INSERT DATA</code> blocks of up to
+ * <code>batchSize</code> triples when {@link #getUpdates()} is called.
+ * <p>
+ * A triple that is already pending is not added again, so repeated calls such
+ * as <code>createAgent(uri)</code> for a shared agent produce one insert. A
+ * bounded number of triples recently marked as performed with
+ * {@link #markPerformed()} can also be remembered, so that they are not sent
+ * to the store again. {@link #getPendingDuplicates()} and
+ * {@link #getRecentDuplicates()} count the triples dropped.
  * 
  * @author David Corsar Copywrite David Corsar
  * 
@@ -32,29 +46,161 @@ public class ProvSparqlUpdateBuilder implements ProvenanceBuilder {
 
 	private static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
 
+	/**
+	 * @deprecated drops milliseconds, use {@link XsdDateTime}
+	 */
+	@Deprecated
 	public static final DateTimeFormatter XML_DATE_TIME_FORMAT = ISODateTimeFormat
 			.dateTimeNoMillis();
 
-	private Collection<String> updates;
+	/**
+	 * Default number of triples per <code>INSERT DATA</code> block, one
+	 * update per triple
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1;
+
+	private Set<String> triples;
+	private Map<String, Boolean> recent;
 	private String ns;
+	private int batchSize;
+	private long pendingDuplicates;
+	private long recentDuplicates;
 
 	public ProvSparqlUpdateBuilder(String ns) {
+		this(ns, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param ns
+	 *            namespace used when generating URIs
+	 * @param batchSize
+	 *            maximum number of triples grouped into a single
+	 *            <code>INSERT DATA</code> update
+	 */
+	public ProvSparqlUpdateBuilder(String ns, int batchSize) {
+		this(ns, batchSize, 0);
+	}
+
+	/**
+	 * @param ns
+	 *            namespace used when generating URIs
+	 * @param batchSize
+	 *            maximum number of triples grouped into a single
+	 *            <code>INSERT DATA</code> update
+	 * @param recentCapacity
+	 *            number of recently performed triples remembered, least
+	 *            recently performed or repeated first out, so that they are
+	 *            dropped if added again; 0 to only drop triples that are
+	 *            still pending
+	 */
+	public ProvSparqlUpdateBuilder(String ns, int batchSize,
+			final int recentCapacity) {
 		super();
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		if (recentCapacity < 0) {
+			throw new IllegalArgumentException(
+					"Recent triple capacity must not be negative");
+		}
 		this.ns = ns;
-		this.updates = new LinkedList<String>();
+		this.batchSize = batchSize;
+		this.triples = new LinkedHashSet<String>();
+		if (recentCapacity > 0) {
+			this.recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Boolean> eldest) {
+					return size() > recentCapacity;
+				}
+			};
+		}
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Gets the number of triples dropped because they were already pending
+	 * 
+	 * @return number of duplicate triples
+	 */
+	public long getPendingDuplicates() {
+		return pendingDuplicates;
 	}
 
+	/**
+	 * Gets the number of triples dropped because they were recently performed
+	 * 
+	 * @return number of duplicate triples
+	 */
+	public long getRecentDuplicates() {
+		return recentDuplicates;
+	}
+
+	/**
+	 * Forgets the recently performed triples, for example after statements
+	 * are removed from the store, so that they are sent again if added
+	 */
+	public void clearRecent() {
+		if (this.recent != null) {
+			this.recent.clear();
+		}
+	}
+
+	/**
+	 * Gets the pending updates, with the pending triples grouped into
+	 * <code>INSERT DATA</code> blocks of up to <code>batchSize</code> triples
+	 * 
+	 * @return SPARQL update strings
+	 */
 	public Collection<String> getUpdates() {
-		Collection<String> updateCopy = new LinkedList<String>();
-		updateCopy.addAll(this.updates);
-		return updateCopy;
+		Collection<String> updates = new LinkedList<String>();
+		StringBuilder block = null;
+		int count = 0;
+		for (String triple : this.triples) {
+			if (block == null) {
+				block = new StringBuilder("INSERT DATA {");
+			}
+			block.append(triple);
+			if (++count == batchSize) {
+				updates.add(block.append('}').toString());
+				block = null;
+				count = 0;
+			}
+		}
+		if (block != null) {
+			updates.add(block.append('}').toString());
+		}
+		return updates;
 	}
 
+	/**
+	 * Discards the pending updates. Use {@link #markPerformed()} instead once
+	 * they have been performed, so that their triples are remembered.
+	 */
 	public boolean clearUpdates() {
-		this.updates.clear();
+		this.triples.clear();
 		return true;
 	}
 
+	/**
+	 * Records that the pending updates have been performed, remembering their
+	 * triples as recently performed if a recent triple capacity was given, and
+	 * clears them
+	 */
+	public void markPerformed() {
+		if (this.recent != null) {
+			for (String triple : this.triples) {
+				this.recent.put(triple, Boolean.TRUE);
+			}
+		}
+		this.triples.clear();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -82,7 +228,7 @@ public class ProvSparqlUpdateBuilder implements ProvenanceBuilder {
 	}
 
 	private String toXsdDateTime(long timestamp) {
-		return XML_DATE_TIME_FORMAT.print(timestamp);
+		return XsdDateTime.format(timestamp);
 	}
 
 	/*
@@ -208,12 +354,21 @@ public class ProvSparqlUpdateBuilder implements ProvenanceBuilder {
 	}
 
 	private void addUriUpdate(String s, String p, String o) {
-		this.updates.add(String
-				.format("INSERT DATA {<%s> <%s> <%s>.}", s, p, o));
+		addTriple("<" + s + "> <" + p + "> <" + o + ">.");
 	}
 
 	private void addLiteralUpdate(String s, String p, String o) {
-		this.updates.add(String.format("INSERT DATA {<%s> <%s> %s.}", s, p, o));
+		addTriple("<" + s + "> <" + p + "> " + o + ".");
+	}
+
+	private void addTriple(String triple) {
+		if (this.triples.contains(triple)) {
+			this.pendingDuplicates++;
+		} else if (this.recent != null && this.recent.get(triple) != null) {
+			this.recentDuplicates++;
+		} else {
+			this.triples.add(triple);
+		}
 	}
 
 	public String createActivity() {
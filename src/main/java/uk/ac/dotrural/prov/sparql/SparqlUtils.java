@@ -1,6 +1,14 @@
 package uk.ac.dotrural.prov.sparql;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ResultHandler;
+
+import com.hp.hpl.jena.sparql.algebra.Op;
+import com.hp.hpl.jena.sparql.core.Var;
 
 /**
  * Class with some utility methods for performing queries to support the SPARQL implementations
@@ -15,6 +23,85 @@ public interface SparqlUtils {
 	
 	public Collection<String> performQuerySting(String query);
 	
+	/**
+	 * Evaluates an already compiled query, avoiding the cost of parsing query
+	 * text on each call
+	 * 
+	 * @param op
+	 *            the query algebra to evaluate
+	 * @param variable
+	 *            the variable to return values for
+	 * @return the values bound to variable
+	 */
+	public Collection<String> performQuerySting(Op op, Var variable);
+	
+	/**
+	 * Evaluates an already compiled query that binds two variables, grouping
+	 * the values of one by the values of the other
+	 * 
+	 * @param op
+	 *            the query algebra to evaluate
+	 * @param key
+	 *            the variable to group results by
+	 * @param value
+	 *            the variable to return values for
+	 * @return the values bound to value, grouped by the value bound to key
+	 */
+	public Map<String, Collection<String>> performQueryMap(Op op, Var key, Var value);
+	
+	/**
+	 * Evaluates an already compiled query, passing the values of variable to
+	 * handler as they are read rather than collecting them
+	 * 
+	 * @param op
+	 *            the query algebra to evaluate
+	 * @param variable
+	 *            the variable to return values for
+	 * @param handler
+	 *            receives each value; reading stops when it returns false
+	 */
+	public void performQuery(Op op, Var variable, ResultHandler handler);
+	
 	public Long performQueryLong(String query);
+	
+	/**
+	 * Evaluates an already compiled query, returning the first value of
+	 * variable that is an integer or <code>xsd:dateTime</code> literal.
+	 * dateTimes are returned as milliseconds since the epoch.
+	 * 
+	 * @param op
+	 *            the query algebra to evaluate
+	 * @param variable
+	 *            the variable to return the value of
+	 * @return the value, or null if there is none
+	 */
+	public Long performQueryLong(Op op, Var variable);
+	
+	/**
+	 * Finds the resources with a timestamp in a range, ordered by time
+	 * 
+	 * @param predicate
+	 *            the timestamp property, such as
+	 *            {@link uk.ac.dotrural.prov.ProvO#startedAtTime}
+	 * @param from
+	 *            start of the range in milliseconds, inclusive
+	 * @param to
+	 *            end of the range in milliseconds, exclusive
+	 * @param offset
+	 *            number of matching resources to skip
+	 * @param limit
+	 *            maximum number of resources to return
+	 * @return URIs of the resources
+	 */
+	public List<String> performTimeRangeQuery(String predicate, long from, long to, int offset, int limit);
+	
+	/**
+	 * Traverses the store breadth first from startUri following the given
+	 * predicates
+	 * 
+	 * @see uk.ac.dotrural.prov.ProvenanceGetter#getLineage(String, int, int,
+	 *      Collection)
+	 */
+	public Lineage performTraversal(String startUri, Collection<String> predicates, int maxDepth, int limit);
 
 }
@@ -0,0 +1,158 @@
+package uk.ac.dotrural.prov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.dotrural.prov.AsyncProvenanceBuilder.Backpressure;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+import uk.ac.dotrural.prov.sparql.ProvSparqlUpdateBuilder;
+
+/**
+ * Tests the {@link AsyncProvenanceBuilder} in front of a
+ * {@link ProvSparqlUpdateBuilder}
+ */
+public class AsyncProvenanceBuilderTest {
+
+	private static final String ns = "http://www.example.com/";
+	private static final String activityUri = ns + "activity/snooping";
+
+	private JenaSparqlUtils utils;
+	private ProvSparqlUpdateBuilder builder;
+	private Runnable performUpdates;
+
+	@Before
+	public void setUp() throws Exception {
+		this.utils = new JenaSparqlUtils();
+		this.builder = new ProvSparqlUpdateBuilder(ns, 100);
+		this.performUpdates = new Runnable() {
+			public void run() {
+				utils.performUpdates(builder.getUpdates());
+				builder.clearUpdates();
+			}
+		};
+	}
+
+	@Test
+	public void testCloseStoresEverything() {
+		AsyncProvenanceBuilder async = new AsyncProvenanceBuilder(ns, builder,
+				performUpdates, 50, 20, 10, Backpressure.BLOCK);
+		for (int i = 0; i < 500; i++) {
+			assertTrue(async.addUsed(activityUri, ns + "entity/" + i));
+		}
+		async.close();
+		assertEquals(0, async.getQueued());
+		assertEquals(0, async.getDropped());
+		assertEquals(500, new ProvSparqlGetter(utils).getUsed(activityUri)
+				.size());
+	}
+
+	@Test
+	public void testDropWhenFull() {
+		// the flusher is never woken early and waits an hour between flushes
+		AsyncProvenanceBuilder async = new AsyncProvenanceBuilder(ns, builder,
+				performUpdates, 10, 100, 3600000, Backpressure.DROP);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(async.addUsed(activityUri, ns + "entity/" + i));
+		}
+		assertFalse(async.addUsed(activityUri, ns + "entity/dropped"));
+		assertEquals(1, async.getDropped());
+
+		async.flush();
+		assertEquals(10, new ProvSparqlGetter(utils).getUsed(activityUri)
+				.size());
+		assertTrue(async.addUsed(activityUri, ns + "entity/afterFlush"));
+		async.close();
+		assertEquals(11, new ProvSparqlGetter(utils).getUsed(activityUri)
+				.size());
+	}
+
+	@Test
+	public void testFailedBatchesAreReported() {
+		final AtomicBoolean available = new AtomicBoolean();
+		AsyncProvenanceBuilder async = new AsyncProvenanceBuilder(ns, builder,
+				new Runnable() {
+					public void run() {
+						if (!available.get()) {
+							throw new IllegalStateException("store unavailable");
+						}
+						performUpdates.run();
+					}
+				}, new Runnable() {
+					public void run() {
+						builder.clearUpdates();
+					}
+				}, 10, 5, 3600000, Backpressure.BLOCK);
+		for (int i = 0; i < 7; i++) {
+			async.addUsed(activityUri, ns + "entity/" + i);
+		}
+		try {
+			async.flush();
+			fail("Expected the failed batches to be reported");
+		} catch (IllegalStateException e) {
+			assertEquals("store unavailable", e.getCause().getMessage());
+		}
+		assertEquals(7, async.getFailed());
+		// reported once
+		async.flush();
+
+		// the failed assertions are not sent with the next batch
+		available.set(true);
+		async.addUsed(activityUri, ns + "entity/later");
+		async.close();
+		assertEquals(7, async.getFailed());
+		assertEquals(Arrays.asList(ns + "entity/later"), new ProvSparqlGetter(
+				utils).getUsed(activityUri));
+	}
+
+	@Test
+	public void testCloseWhileRecording() throws Exception {
+		final AsyncProvenanceBuilder async = new AsyncProvenanceBuilder(ns,
+				builder, performUpdates, 20, 10, 10, Backpressure.BLOCK);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			futures.add(executor.submit(new Callable<Integer>() {
+				public Integer call() {
+					int recorded = 0;
+					try {
+						for (int i = 0; i < 1000; i++) {
+							if (async.addUsed(activityUri, ns + "entity/"
+									+ thread + "_" + i)) {
+								recorded++;
+							}
+						}
+					} catch (IllegalStateException e) {
+						// closed
+					}
+					return recorded;
+				}
+			}));
+		}
+		Thread.sleep(20);
+		async.close();
+		int recorded = 0;
+		for (Future<Integer> future : futures) {
+			recorded += future.get();
+		}
+		executor.shutdown();
+		// every assertion accepted was stored
+		assertEquals(recorded, new ProvSparqlGetter(utils).getUsed(activityUri)
+				.size());
+	}
+}
@@ -0,0 +1,88 @@
+package uk.ac.dotrural.prov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Test;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Tests the {@link XsdDateTime} codec against Joda time
+ */
+public class XsdDateTimeTest {
+
+	private static final DateTimeFormatter JODA = ISODateTimeFormat
+			.dateTime().withZone(DateTimeZone.UTC);
+	private static final DateTimeFormatter JODA_PARSER = ISODateTimeFormat
+			.dateTimeParser().withZone(DateTimeZone.UTC);
+
+	@Test
+	public void testFormat() {
+		assertEquals("1970-01-01T00:00:00Z", XsdDateTime.format(0L));
+		assertEquals("2013-02-20T12:06:01.250Z",
+				XsdDateTime.format(1361361961250L));
+		assertEquals("1969-12-31T23:59:59.999Z", XsdDateTime.format(-1L));
+		assertEquals("0001-01-01T00:00:00Z",
+				XsdDateTime.format(-62135596800000L));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			// years 0001 to 9999
+			long millis = -62135596800000L
+					+ (long) (random.nextDouble() * 315537897600000L);
+			String lexical = XsdDateTime.format(millis);
+			assertEquals(JODA_PARSER.parseDateTime(lexical).getMillis(), millis);
+			assertEquals(millis, XsdDateTime.parse(lexical));
+			assertEquals(millis, XsdDateTime.parse(JODA.print(millis)));
+		}
+	}
+
+	@Test
+	public void testParse() {
+		assertEquals(1361361961000L, XsdDateTime.parse("2013-02-20T12:06:01"));
+		assertEquals(1361361961123L,
+				XsdDateTime.parse("2013-02-20T12:06:01.123456Z"));
+		assertEquals(1361361961500L,
+				XsdDateTime.parse("2013-02-20T12:06:01.5Z"));
+		assertEquals(1361361961000L,
+				XsdDateTime.parse("2013-02-20T13:06:01+01:00"));
+		assertEquals(1361361961000L,
+				XsdDateTime.parse("2013-02-20T07:36:01-04:30"));
+		assertEquals(1361404800000L,
+				XsdDateTime.parse("2013-02-20T24:00:00Z"));
+		for (String invalid : new String[] { "", "2013-02-20", "13-02-20T12:06:01Z",
+				"2013-02-20T12:06:01.Z", "2013-13-20T12:06:01Z",
+				"2013-02-20T12:06:01+0100", "2013-02-20T12:06:01ZZ" }) {
+			try {
+				XsdDateTime.parse(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testToMillis() {
+		assertEquals(1361361961250L, XsdDateTime.toMillis(Node.createLiteral(
+				"2013-02-20T12:06:01.250Z", null, XSDDatatype.XSDdateTime)));
+		assertEquals(1361361961250L, XsdDateTime.toMillis(Node.createLiteral(
+				"1361361961250", null, XSDDatatype.XSDlong)));
+		assertEquals(Long.MIN_VALUE, XsdDateTime.toMillis(Node.createLiteral(
+				"yesterday", null, XSDDatatype.XSDdateTime)));
+		assertEquals(Long.MIN_VALUE, XsdDateTime.toMillis(Node.createLiteral(
+				"2013-02-20T12:06:01Z")));
+		assertEquals(Long.MIN_VALUE,
+				XsdDateTime.toMillis(Node.createURI("http://www.example.com/")));
+	}
+}
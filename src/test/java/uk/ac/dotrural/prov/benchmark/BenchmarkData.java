@@ -0,0 +1,85 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.dotrural.prov.ProvenanceBuilder;
+import uk.ac.dotrural.prov.jena.ProvTripleBuilder;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+
+/**
+ * Creates provenance graphs of a given size for the benchmarks
+ */
+class BenchmarkData {
+
+	static final String ns = "http://www.example.com/";
+
+	/** Triples recorded for each activity by {@link #record} */
+	static final int TRIPLES_PER_ACTIVITY = 6;
+
+	private static final int CHUNK = 60000;
+
+	/**
+	 * Records activities that each use an entity to generate another, until
+	 * about <code>triples</code> triples have been added
+	 * 
+	 * @return URIs of the activities
+	 */
+	static List<String> record(ProvenanceBuilder builder, int triples) {
+		int activities = Math.max(1, triples / TRIPLES_PER_ACTIVITY);
+		List<String> activityUris = new ArrayList<String>(activities);
+		for (int i = 0; i < activities; i++) {
+			activityUris.add(recordActivity(builder, i));
+		}
+		return activityUris;
+	}
+
+	/**
+	 * Fills a store with about <code>triples</code> triples without going
+	 * through SPARQL
+	 * 
+	 * @return URIs of the activities
+	 */
+	static List<String> record(JenaSparqlUtils utils, int triples) {
+		int activities = Math.max(1, triples / TRIPLES_PER_ACTIVITY);
+		List<String> activityUris = new ArrayList<String>(activities);
+		ProvTripleBuilder builder = new ProvTripleBuilder(ns);
+		for (int i = 0; i < activities; i++) {
+			activityUris.add(recordActivity(builder, i));
+			if (i % (CHUNK / TRIPLES_PER_ACTIVITY) == 0) {
+				utils.performTripleUpdates(builder.getTriples());
+				builder.clearTriples();
+			}
+		}
+		utils.performTripleUpdates(builder.getTriples());
+		return activityUris;
+	}
+
+	private static String recordActivity(ProvenanceBuilder builder, int i) {
+		String activity = builder.createActivity(ns + "activity/" + i);
+		String input = builder.createEntity(ns + "entity/in/" + i);
+		String output = builder.createEntity(ns + "entity/out/" + i);
+		builder.addUsed(activity, input);
+		builder.addWasGeneratedBy(output, activity);
+		builder.addWasDerivedFrom(output, input);
+		return activity;
+	}
+
+	/**
+	 * Output stream that discards everything written to it
+	 */
+	static class NullOutputStream extends OutputStream {
+		long written;
+
+		@Override
+		public void write(int b) {
+			written++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			written += len;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.compact.CompactProvenanceStore;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+
+/**
+ * Compares lookup latency of the {@link CompactProvenanceStore} with
+ * {@link ProvSparqlGetter} over the default in memory store. Running
+ * {@link #main} instead reports the heap used per triple by each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompactStoreBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int graphSize;
+
+	private CompactProvenanceStore compact;
+	private ProvSparqlGetter sparql;
+	private List<String> activities;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		compact = new CompactProvenanceStore(BenchmarkData.ns);
+		activities = BenchmarkData.record(compact, graphSize);
+		JenaSparqlUtils utils = new JenaSparqlUtils();
+		BenchmarkData.record(utils, graphSize);
+		sparql = new ProvSparqlGetter(utils);
+	}
+
+	@Benchmark
+	public Collection<String> compactGetUsed(Cursor cursor) {
+		return compact.getUsed(activities.get(cursor.next++
+				% activities.size()));
+	}
+
+	@Benchmark
+	public Collection<String> sparqlGetUsed(Cursor cursor) {
+		return sparql.getUsed(activities.get(cursor.next++
+				% activities.size()));
+	}
+
+	/**
+	 * Prints the heap bytes per triple for each store
+	 * 
+	 * @param args
+	 *            number of triples, defaults to 1000000
+	 */
+	public static void main(String[] args) {
+		int triples = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		long before = usedHeap();
+		CompactProvenanceStore store = new CompactProvenanceStore(
+				BenchmarkData.ns);
+		BenchmarkData.record(store, triples);
+		long compactBytes = usedHeap() - before;
+		System.out.printf("compact: %d bytes, %.1f bytes/triple%n",
+				compactBytes, (double) compactBytes / triples);
+		store = null;
+
+		before = usedHeap();
+		JenaSparqlUtils utils = new JenaSparqlUtils();
+		BenchmarkData.record(utils, triples);
+		long jenaBytes = usedHeap() - before;
+		System.out.printf("jena: %d bytes, %.1f bytes/triple%n", jenaBytes,
+				(double) jenaBytes / triples);
+		utils.close();
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,143 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+import uk.ac.dotrural.prov.sparql.ProvSparqlUpdateBuilder;
+
+/**
+ * Read throughput of a shared in memory {@link JenaSparqlUtils} while a writer
+ * thread continuously adds provenance in batches. Each operation splits
+ * {@value #READS} lookups between <code>readers</code> threads and waits for
+ * them, so the score is lookups per second whatever the number of readers.
+ * The triples written per second over the same time are reported as the
+ * <code>triplesWritten</code> secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentReadWriteBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+	private static final int READS = 1600;
+
+	@Param({ "1000" })
+	public int graphSize;
+
+	@Param({ "1", "2", "4", "8", "16" })
+	public int readers;
+
+	private JenaSparqlUtils utils;
+	private ProvenanceGetter getter;
+	private List<String> activities;
+	private ExecutorService executor;
+	private Thread writer;
+	private final AtomicBoolean running = new AtomicBoolean();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicInteger next = new AtomicInteger();
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Writes {
+		public long triplesWritten;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			triplesWritten = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		utils = JenaSparqlUtils.createInMemory();
+		activities = BenchmarkData.record(utils, graphSize);
+		getter = new ProvSparqlGetter(utils);
+		executor = Executors.newFixedThreadPool(readers);
+		running.set(true);
+		writer = new Thread(new Runnable() {
+			public void run() {
+				ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(
+						BenchmarkData.ns, BATCH_SIZE);
+				int i = 0;
+				while (running.get()) {
+					for (int j = 0; j < BATCH_SIZE; j++) {
+						builder.addUsed(activities.get(i++ % activities.size()),
+								builder.createEntity());
+					}
+					utils.performUpdates(builder.getUpdates());
+					builder.clearUpdates();
+					written.addAndGet(BATCH_SIZE * 2);
+				}
+			}
+		});
+		writer.start();
+	}
+
+	@Setup(Level.Iteration)
+	public void resetWrites() {
+		written.set(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		running.set(false);
+		writer.join();
+		executor.shutdownNow();
+		utils.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READS)
+	public int getUsed(Writes writes) throws Exception {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int t = 0; t < readers; t++) {
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					int found = 0;
+					for (int i = 0; i < READS / readers; i++) {
+						int activity = (next.getAndIncrement() & Integer.MAX_VALUE)
+								% activities.size();
+						found += getter.getUsed(activities.get(activity)).size();
+					}
+					return found;
+				}
+			});
+		}
+		int found = 0;
+		for (Future<Integer> result : executor.invokeAll(tasks)) {
+			found += result.get();
+		}
+		writes.triplesWritten += written.getAndSet(0);
+		return found;
+	}
+}
@@ -0,0 +1,99 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import uk.ac.dotrural.prov.io.WriteAheadLog.SyncPolicy;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * Ingest throughput of an in memory {@link JenaSparqlUtils} with a
+ * write-ahead log under each {@link SyncPolicy}, against the same store
+ * without a log. Each operation is one call to
+ * {@link JenaSparqlUtils#performTripleUpdates} with <code>batchSize</code>
+ * triples, so with {@link SyncPolicy#ALWAYS} and a batch size of 1 a single
+ * writer pays one fsync per triple. Set the number of writer threads with
+ * <code>-t</code>, or run {@link #main} to measure 1 to 16 threads in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DurableIngestBenchmark {
+
+	private static final int[] THREADS = { 1, 4, 16 };
+	private static final Node USED = Node.createURI(BenchmarkData.ns + "used");
+
+	@Param({ "ALWAYS", "INTERVAL", "NONE", "OFF" })
+	public String policy;
+
+	@Param({ "1", "100" })
+	public int batchSize;
+
+	private final AtomicLong ids = new AtomicLong();
+	private JenaSparqlUtils utils;
+	private File log;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		utils = JenaSparqlUtils.createInMemory();
+		if (!"OFF".equals(policy)) {
+			log = File.createTempFile("durable", ".log");
+			utils.openLog(log, SyncPolicy.valueOf(policy));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		utils.closeLog();
+		if (log != null) {
+			log.delete();
+		}
+	}
+
+	@Benchmark
+	public boolean ingest() {
+		List<Triple> batch = new ArrayList<Triple>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			long id = ids.incrementAndGet();
+			batch.add(Triple.create(
+					Node.createURI(BenchmarkData.ns + "activity/" + id), USED,
+					Node.createURI(BenchmarkData.ns + "entity/" + id)));
+		}
+		return utils.performTripleUpdates(batch);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : THREADS) {
+			new Runner(new OptionsBuilder()
+					.include(DurableIngestBenchmark.class.getSimpleName())
+					.threads(threads).build()).run();
+		}
+	}
+}
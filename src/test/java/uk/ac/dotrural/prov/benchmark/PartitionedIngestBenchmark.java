@@ -0,0 +1,136 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.ProvenanceBuilder;
+import uk.ac.dotrural.prov.jena.NoOpTracker;
+import uk.ac.dotrural.prov.jena.PartitionedProvenanceBundle;
+import uk.ac.dotrural.prov.jena.ProvenanceBundle;
+
+/**
+ * Ingest throughput of one {@link PartitionedProvenanceBundle} shared by a
+ * number of writer threads, against a shared {@link ProvenanceBundle} guarded
+ * by a single lock. Each invocation splits {@value #RECORDS} records between
+ * the writer threads and waits for all of them, so the score is records per
+ * second whatever the number of writers. Each record is an activity using an
+ * entity, three triples. The writers are a benchmark parameter so the 1 to 32
+ * thread sweep appears in the <code>-Pbenchmark</code> results; narrow it
+ * with <code>-p writers=8</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionedIngestBenchmark {
+
+	private static final int RECORDS = 3200;
+
+	@Param({ "1000" })
+	public int graphSize;
+
+	@Param({ "1", "8", "64" })
+	public int partitions;
+
+	@Param({ "1", "2", "4", "8", "16", "32" })
+	public int writers;
+
+	private PartitionedProvenanceBundle partitioned;
+	private ProvenanceBundle bundle;
+	private ExecutorService executor;
+
+	@Setup
+	public void startWriters() {
+		executor = Executors.newFixedThreadPool(writers);
+	}
+
+	@TearDown
+	public void stopWriters() {
+		executor.shutdownNow();
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		partitioned = new PartitionedProvenanceBundle(BenchmarkData.ns,
+				partitions, NoOpTracker.INSTANCE);
+		BenchmarkData.record(partitioned, graphSize);
+		bundle = new ProvenanceBundle(BenchmarkData.ns, NoOpTracker.INSTANCE);
+		BenchmarkData.record(bundle, graphSize);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public int partitioned() throws Exception {
+		return run(new Callable<Integer>() {
+			public Integer call() {
+				int recorded = 0;
+				for (int i = 0; i < RECORDS / writers; i++) {
+					if (record(partitioned)) {
+						recorded++;
+					}
+				}
+				return recorded;
+			}
+		});
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public int singleLock() throws Exception {
+		return run(new Callable<Integer>() {
+			public Integer call() {
+				int recorded = 0;
+				for (int i = 0; i < RECORDS / writers; i++) {
+					synchronized (bundle) {
+						if (record(bundle)) {
+							recorded++;
+						}
+					}
+				}
+				return recorded;
+			}
+		});
+	}
+
+	/**
+	 * Run writer on every writer thread and wait for them all
+	 */
+	private int run(Callable<Integer> writer) throws Exception {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < writers; i++) {
+			tasks.add(writer);
+		}
+		int recorded = 0;
+		for (Future<Integer> result : executor.invokeAll(tasks)) {
+			recorded += result.get();
+		}
+		return recorded;
+	}
+
+	private static boolean record(ProvenanceBuilder builder) {
+		return builder.addUsed(builder.createActivity(),
+				builder.createEntity());
+	}
+}
@@ -0,0 +1,68 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.jena.NoOpTracker;
+import uk.ac.dotrural.prov.jena.ProvenanceBundle;
+
+/**
+ * Throughput of {@link ProvenanceBundle} create and add operations on bundles
+ * of increasing size. Each thread has its own bundle as bundles are not
+ * thread safe. <code>addUsed</code> creates the entity it adds, so it costs
+ * one <code>createEntity</code> more than adding the relation;
+ * <code>addUsedDuplicate</code> repeats one relation to measure the skipped
+ * duplicate path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProvenanceBundleBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int graphSize;
+
+	private ProvenanceBundle bundle;
+	private String activity;
+	private String entity;
+	private long counter;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		bundle = new ProvenanceBundle(BenchmarkData.ns, NoOpTracker.INSTANCE);
+		BenchmarkData.record(bundle, graphSize);
+		activity = bundle.createActivity();
+		entity = bundle.createEntity();
+	}
+
+	@Benchmark
+	public String createEntity() {
+		return bundle.createEntity(BenchmarkData.ns + "bench/entity/"
+				+ counter++);
+	}
+
+	@Benchmark
+	public boolean addUsed() {
+		return bundle.addUsed(activity, createEntity());
+	}
+
+	@Benchmark
+	public boolean addUsedDuplicate() {
+		return bundle.addUsed(activity, entity);
+	}
+}
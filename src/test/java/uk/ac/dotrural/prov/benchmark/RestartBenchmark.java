@@ -0,0 +1,105 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.jena.NoOpTracker;
+import uk.ac.dotrural.prov.jena.ProvenanceBundle;
+
+/**
+ * Time taken to rebuild a {@link ProvenanceBundle} holding
+ * <code>graphSize</code> triples after a restart, by restoring a snapshot
+ * against parsing the same triples as Turtle or RDF/XML
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RestartBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int graphSize;
+
+	private File snapshot;
+	private File turtle;
+	private File rdfXml;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ProvenanceBundle bundle = new ProvenanceBundle(BenchmarkData.ns,
+				NoOpTracker.INSTANCE);
+		BenchmarkData.record(bundle, graphSize);
+		snapshot = File.createTempFile("restart", ".snapshot");
+		bundle.snapshot(snapshot);
+		turtle = File.createTempFile("restart", ".ttl");
+		rdfXml = File.createTempFile("restart", ".rdf");
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				turtle));
+		bundle.getModel().write(out, "TURTLE");
+		out.close();
+		out = new BufferedOutputStream(new FileOutputStream(rdfXml));
+		bundle.write(out);
+		out.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		snapshot.delete();
+		turtle.delete();
+		rdfXml.delete();
+	}
+
+	@Benchmark
+	public ProvenanceBundle restoreSnapshot() throws IOException {
+		ProvenanceBundle bundle = new ProvenanceBundle(BenchmarkData.ns,
+				NoOpTracker.INSTANCE);
+		bundle.restore(snapshot);
+		return bundle;
+	}
+
+	@Benchmark
+	public ProvenanceBundle parseTurtle() throws IOException {
+		return parse(turtle, "TURTLE");
+	}
+
+	@Benchmark
+	public ProvenanceBundle parseRdfXml() throws IOException {
+		return parse(rdfXml, "RDF/XML");
+	}
+
+	private static ProvenanceBundle parse(File file, String lang)
+			throws IOException {
+		ProvenanceBundle bundle = new ProvenanceBundle(BenchmarkData.ns,
+				NoOpTracker.INSTANCE);
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			bundle.getModel().read(in, null, lang);
+		} finally {
+			in.close();
+		}
+		return bundle;
+	}
+}
@@ -0,0 +1,65 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.io.RdfFormat;
+import uk.ac.dotrural.prov.jena.NoOpTracker;
+import uk.ac.dotrural.prov.jena.ProvenanceBundle;
+
+/**
+ * Time taken to serialize a {@link ProvenanceBundle} holding
+ * <code>graphSize</code> triples
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int graphSize;
+
+	private ProvenanceBundle bundle;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		bundle = new ProvenanceBundle(BenchmarkData.ns, NoOpTracker.INSTANCE);
+		BenchmarkData.record(bundle, graphSize);
+	}
+
+	@Param({ "NTRIPLES", "BINARY" })
+	public RdfFormat format;
+
+	@Param({ "false", "true" })
+	public boolean gzip;
+
+	@Benchmark
+	public long write() {
+		BenchmarkData.NullOutputStream out = new BenchmarkData.NullOutputStream();
+		bundle.write(out);
+		return out.written;
+	}
+
+	@Benchmark
+	public long writeStreaming() throws IOException {
+		BenchmarkData.NullOutputStream out = new BenchmarkData.NullOutputStream();
+		bundle.write(out, format, gzip);
+		return out.written;
+	}
+}
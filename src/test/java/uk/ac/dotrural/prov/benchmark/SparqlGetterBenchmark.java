@@ -0,0 +1,59 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+
+/**
+ * Single subject lookups through {@link ProvSparqlGetter} on a shared store
+ * holding <code>graphSize</code> triples
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparqlGetterBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int graphSize;
+
+	private ProvenanceGetter getter;
+	private List<String> activities;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		activities = BenchmarkData.record(utils, graphSize);
+		getter = new ProvSparqlGetter(utils);
+	}
+
+	@Benchmark
+	public Collection<String> getUsed(Cursor cursor) {
+		String activity = activities.get(cursor.next++ % activities.size());
+		return getter.getUsed(activity);
+	}
+}
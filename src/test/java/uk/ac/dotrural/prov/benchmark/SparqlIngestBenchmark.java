@@ -0,0 +1,77 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlUpdateBuilder;
+
+/**
+ * Triples per second stored through {@link ProvSparqlUpdateBuilder} and
+ * {@link JenaSparqlUtils#performUpdates(java.util.Collection)} into a shared
+ * store that already holds <code>graphSize</code> triples
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparqlIngestBenchmark {
+
+	private static final int TRIPLES = 100;
+
+	@Param({ "1000", "10000", "100000", "1000000", "10000000" })
+	public int graphSize;
+
+	@Param({ "1", "100" })
+	public int batchSize;
+
+	private JenaSparqlUtils utils;
+
+	@State(Scope.Thread)
+	public static class ThreadBuilder {
+		ProvSparqlUpdateBuilder builder;
+		String activity;
+		long counter;
+
+		@Setup(Level.Trial)
+		public void setUp(SparqlIngestBenchmark benchmark) {
+			builder = new ProvSparqlUpdateBuilder(BenchmarkData.ns,
+					benchmark.batchSize);
+			activity = builder.createActivity();
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		utils = JenaSparqlUtils.createInMemory();
+		BenchmarkData.record(utils, graphSize);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TRIPLES)
+	public boolean ingest(ThreadBuilder state) {
+		ProvSparqlUpdateBuilder builder = state.builder;
+		for (int i = 0; i < TRIPLES; i++) {
+			builder.addUsed(state.activity, BenchmarkData.ns + "bench/entity/"
+					+ state.counter++);
+		}
+		boolean result = utils.performUpdates(builder.getUpdates());
+		builder.clearUpdates();
+		return result;
+	}
+}
@@ -0,0 +1,111 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+import uk.ac.dotrural.prov.sparql.ProvSparqlUpdateBuilder;
+
+/**
+ * Update and lookup throughput of the {@link JenaSparqlUtils} backends: the
+ * default ontology model, a plain in memory graph and an on disk TDB dataset
+ * in a temporary directory. Each store starts with <code>graphSize</code>
+ * triples; <code>ingest</code> reports triples stored per second and
+ * <code>getUsed</code> single subject lookups per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBackendBenchmark {
+
+	private static final int BATCH_SIZE = 100;
+	private static final int ACTIVITIES = 100;
+	private static final int TRIPLES_PER_ACTIVITY = 6;
+
+	@Param({ "1000", "100000" })
+	public int graphSize;
+
+	@Param({ "ontology", "memory", "tdb" })
+	public String backend;
+
+	private JenaSparqlUtils utils;
+	private ProvenanceGetter getter;
+	private List<String> activities;
+	private ProvSparqlUpdateBuilder builder;
+	private File tdbDir;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		if ("ontology".equals(backend)) {
+			utils = new JenaSparqlUtils();
+		} else if ("memory".equals(backend)) {
+			utils = JenaSparqlUtils.createInMemory();
+		} else {
+			tdbDir = File.createTempFile("prov-tdb-bench", "");
+			tdbDir.delete();
+			utils = JenaSparqlUtils.createTdb(tdbDir.getAbsolutePath());
+		}
+		activities = BenchmarkData.record(utils, graphSize);
+		getter = new ProvSparqlGetter(utils);
+		builder = new ProvSparqlUpdateBuilder(BenchmarkData.ns, BATCH_SIZE);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		utils.close();
+		if (tdbDir != null) {
+			File[] files = tdbDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			tdbDir.delete();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACTIVITIES * TRIPLES_PER_ACTIVITY)
+	public boolean ingest() {
+		for (int i = 0; i < ACTIVITIES; i++) {
+			String activity = builder.createActivity();
+			String input = builder.createEntity();
+			String output = builder.createEntity();
+			builder.addUsed(activity, input);
+			builder.addWasGeneratedBy(output, activity);
+			builder.addWasDerivedFrom(output, input);
+		}
+		boolean result = utils.performUpdates(builder.getUpdates());
+		builder.clearUpdates();
+		return result;
+	}
+
+	@Benchmark
+	public Collection<String> getUsed() {
+		return getter.getUsed(activities.get(next++ % activities.size()));
+	}
+}
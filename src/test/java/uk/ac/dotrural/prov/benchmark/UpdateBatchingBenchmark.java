@@ -0,0 +1,78 @@
+package uk.ac.dotrural.prov.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlUpdateBuilder;
+
+/**
+ * Triples per second stored through a {@link ProvSparqlUpdateBuilder} with one
+ * <code>INSERT DATA</code> per triple, a <code>batchSize</code> of 1, against
+ * batched <code>INSERT DATA</code> blocks. Each operation records
+ * {@value #ACTIVITIES} workflows of nine triples into a shared ontology model
+ * store that started with <code>graphSize</code> triples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UpdateBatchingBenchmark {
+
+	private static final int ACTIVITIES = 100;
+	private static final int TRIPLES_PER_ACTIVITY = 9;
+
+	@Param({ "1000" })
+	public int graphSize;
+
+	@Param({ "1", "10", "100", "1000" })
+	public int batchSize;
+
+	private JenaSparqlUtils utils;
+	private ProvSparqlUpdateBuilder builder;
+	private String agent;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		utils = new JenaSparqlUtils();
+		BenchmarkData.record(utils, graphSize);
+		builder = new ProvSparqlUpdateBuilder(BenchmarkData.ns, batchSize);
+		agent = builder.createAgent();
+		utils.performUpdates(builder.getUpdates());
+		builder.clearUpdates();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ACTIVITIES * TRIPLES_PER_ACTIVITY)
+	public boolean recordWorkflows() {
+		for (int i = 0; i < ACTIVITIES; i++) {
+			String activity = builder.createActivity();
+			String input = builder.createEntity();
+			String output = builder.createEntity();
+			builder.addStartedAtTime(activity, System.currentTimeMillis());
+			builder.addUsed(activity, input);
+			builder.addWasAssociatedWith(activity, agent);
+			builder.addWasGeneratedBy(output, activity);
+			builder.addWasDerivedFrom(output, input);
+			builder.addEndedAtTime(activity, System.currentTimeMillis());
+		}
+		boolean result = utils.performUpdates(builder.getUpdates());
+		builder.clearUpdates();
+		return result;
+	}
+}
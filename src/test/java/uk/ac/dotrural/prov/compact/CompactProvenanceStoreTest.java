@@ -0,0 +1,189 @@
+package uk.ac.dotrural.prov.compact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ResultHandler;
+
+/**
+ * Tests for the {@link CompactProvenanceStore}
+ */
+public class CompactProvenanceStoreTest {
+
+	private CompactProvenanceStore store;
+	private static final String ns = "http://www.example.com/";
+	private static final String agentUri = ns + "agent/jamesBond";
+	private static final String entityUri = ns + "entity/coolGadget";
+	private static final String entityUri2 = ns + "entity/report";
+	private static final String activityUri = ns + "activity/snooping";
+	private static final String activityUri2 = ns + "activity/writing";
+
+	@Before
+	public void setUp() throws Exception {
+		this.store = new CompactProvenanceStore(ns);
+	}
+
+	@Test
+	public void testRelations() {
+		store.createActivity(activityUri);
+		store.createEntity(entityUri);
+		store.addUsed(activityUri, entityUri);
+		store.addUsed(activityUri, entityUri);
+		store.addWasAssociatedWith(activityUri, agentUri);
+		store.addWasGeneratedBy(entityUri2, activityUri);
+		store.addWasDerivedFrom(entityUri2, entityUri);
+		store.addStartedAtTime(activityUri, 1000L);
+
+		assertTrue(store.isActivity(activityUri));
+		assertFalse(store.isEntity(activityUri));
+		assertTrue(store.isEntity(entityUri));
+		assertFalse(store.isAgent(agentUri));
+
+		Collection<String> results = store.getUsed(activityUri);
+		assertEquals(1, results.size());
+		assertEquals(entityUri, results.iterator().next());
+		assertEquals(agentUri, store.getWasAssociatedWith(activityUri)
+				.iterator().next());
+		assertEquals(activityUri, store.getWasGeneratedBy(entityUri2)
+				.iterator().next());
+		assertEquals(entityUri, store.getWasDerivedFrom(entityUri2).iterator()
+				.next());
+		assertTrue(store.getUsed(ns + "activity/unknown").isEmpty());
+		assertTrue(store.getWasInformedBy(activityUri).isEmpty());
+
+		assertEquals(1000L, store.getStartedAtTime(activityUri));
+		assertEquals(Long.MIN_VALUE, store.getEndedAtTime(activityUri));
+		assertEquals(5, store.getRelationCount());
+		assertEquals(4, store.getUriCount());
+	}
+
+	@Test
+	public void testSharedEntity() {
+		// duplicates of edges to a shared entity are found without walking
+		// its edges
+		for (int run = 0; run < 2; run++) {
+			for (int i = 0; i < 20000; i++) {
+				store.addUsed(ns + "activity/" + i, entityUri);
+			}
+		}
+		assertEquals(20000, store.getRelationCount());
+		assertEquals(20000, store.getUsedBy(entityUri).size());
+		assertEquals(Arrays.asList(entityUri), store.getUsed(ns + "activity/7"));
+	}
+
+	@Test
+	public void testInverseLookups() {
+		store.addUsed(activityUri, entityUri);
+		store.addUsed(activityUri2, entityUri);
+		store.addUsed(activityUri2, entityUri);
+		store.addWasGeneratedBy(entityUri2, activityUri2);
+		store.addWasDerivedFrom(entityUri2, entityUri);
+		store.addWasAssociatedWith(activityUri, agentUri);
+		store.addWasAttributedTo(entityUri2, agentUri);
+		store.addWasInformedBy(activityUri2, activityUri);
+
+		assertEquals(Arrays.asList(activityUri, activityUri2),
+				store.getUsedBy(entityUri));
+		assertEquals(Arrays.asList(entityUri2),
+				store.getGenerated(activityUri2));
+		assertEquals(Arrays.asList(entityUri2), store.getDerivations(entityUri));
+		assertEquals(Arrays.asList(activityUri),
+				store.getAssociatedActivities(agentUri));
+		assertEquals(Arrays.asList(entityUri2), store.getAttributed(agentUri));
+		assertEquals(Arrays.asList(activityUri2),
+				store.getInformed(activityUri));
+		assertTrue(store.getActedOnBehalfOfBy(agentUri).isEmpty());
+		assertTrue(store.getUsedBy(ns + "entity/unknown").isEmpty());
+		assertEquals(7, store.getRelationCount());
+	}
+
+	@Test
+	public void testPagingAndStreaming() {
+		for (int i = 0; i < 25; i++) {
+			store.addUsed(activityUri, ns + "entity/" + i);
+		}
+		assertEquals(Arrays.asList(ns + "entity/10", ns + "entity/11"),
+				store.getObjects(activityUri, ProvO.used, 10, 2));
+		assertEquals(5, store.getObjects(activityUri, ProvO.used, 20, 10)
+				.size());
+		assertTrue(store.getObjects(activityUri, ProvO.used, 30, 10).isEmpty());
+		assertEquals(Arrays.asList(activityUri),
+				store.getSubjects(ns + "entity/3", ProvO.used, 0, 10));
+
+		final List<String> streamed = new ArrayList<String>();
+		store.forEachObject(activityUri, ProvO.used, new ResultHandler() {
+			public boolean handle(String value) {
+				streamed.add(value);
+				return streamed.size() < 3;
+			}
+		});
+		assertEquals(Arrays.asList(ns + "entity/0", ns + "entity/1",
+				ns + "entity/2"), streamed);
+		streamed.clear();
+		store.forEachSubject(ns + "entity/unknown", ProvO.used,
+				new ResultHandler() {
+					public boolean handle(String value) {
+						return streamed.add(value);
+					}
+				});
+		assertTrue(streamed.isEmpty());
+	}
+
+	@Test
+	public void testBulkAndLineage() {
+		store.addUsed(activityUri, entityUri);
+		store.addWasGeneratedBy(entityUri2, activityUri2);
+		store.addWasInformedBy(activityUri2, activityUri);
+		store.addWasDerivedFrom(entityUri2, entityUri);
+
+		Map<String, Collection<String>> used = store.getUsed(Arrays.asList(
+				activityUri, activityUri2));
+		assertEquals(2, used.size());
+		assertEquals(entityUri, used.get(activityUri).iterator().next());
+		assertTrue(used.get(activityUri2).isEmpty());
+
+		Lineage lineage = store.getLineage(entityUri2, 3, 100,
+				Lineage.BACKWARD);
+		assertEquals(1, lineage.getDepth(activityUri2));
+		assertEquals(2, lineage.getDepth(activityUri));
+		assertEquals(1, lineage.getDepth(entityUri));
+		assertFalse(lineage.isTruncated());
+
+		lineage = store.getLineage(entityUri2, 1, 100, Lineage.BACKWARD);
+		assertEquals(-1, lineage.getDepth(activityUri));
+
+		lineage = store.getLineage(entityUri2, 3, 1, Lineage.BACKWARD);
+		assertEquals(1, lineage.size());
+		assertTrue(lineage.isTruncated());
+	}
+
+	@Test
+	public void testTimeRange() {
+		for (int i = 9; i >= 0; i--) {
+			store.addStartedAtTime(ns + "activity/" + i, i * 1000L);
+		}
+		store.addStartedAtTime(ns + "activity/9", 2500L);
+
+		assertEquals(Arrays.asList(ns + "activity/2", ns + "activity/9",
+				ns + "activity/3", ns + "activity/4"),
+				store.getActivitiesStartedBetween(2000L, 5000L, 0, 100));
+		assertEquals(Arrays.asList(ns + "activity/3"),
+				store.getActivitiesStartedBetween(2000L, 5000L, 2, 1));
+		assertTrue(store.getActivitiesStartedBetween(9000L, 10000L, 0, 100)
+				.isEmpty());
+		assertTrue(store.getActivitiesEndedBetween(0L, 10000L, 0, 100)
+				.isEmpty());
+	}
+}
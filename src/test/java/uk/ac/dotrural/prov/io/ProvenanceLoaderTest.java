@@ -0,0 +1,111 @@
+package uk.ac.dotrural.prov.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.jena.riot.Lang;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.jena.NoOpTracker;
+import uk.ac.dotrural.prov.jena.ProvenanceBundle;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+
+/**
+ * Tests for the {@link ProvenanceLoader}
+ */
+public class ProvenanceLoaderTest {
+
+	private static final String ns = "http://www.example.com/";
+	private static final String activityUri = ns + "activity/snooping";
+	private static final String entityUri = ns + "entity/coolGadget";
+	private static final String entityUri2 = ns + "entity/report";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testGzipNTriplesIntoBundle() throws Exception {
+		File file = folder.newFile("prov.nt.gz");
+		Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+				new FileOutputStream(file)), "UTF-8");
+		for (int i = 0; i < 10; i++) {
+			writer.write("<" + activityUri + i + "> <" + ProvO.used + "> <"
+					+ entityUri + i + "> .\n");
+		}
+		writer.close();
+
+		ProvenanceBundle bundle = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		ProvenanceLoader loader = new ProvenanceLoader(bundle).setBatchSize(4)
+				.setInferTypes(true);
+		assertEquals(30, loader.load(file));
+		assertEquals(30, loader.getTriplesLoaded());
+		assertEquals(30, bundle.getModel().size());
+		assertTrue(bundle.addWasGeneratedBy(entityUri + 3, activityUri + 7));
+		assertFalse(bundle.addWasGeneratedBy(activityUri + 3, entityUri + 7));
+	}
+
+	@Test
+	public void testInferredTypesAcrossBatches() throws Exception {
+		StringBuilder nt = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			nt.append("<" + activityUri + i + "> <" + ProvO.used + "> <"
+					+ entityUri + "> .\n");
+		}
+
+		ProvenanceBundle bundle = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		ProvenanceLoader loader = new ProvenanceLoader(bundle).setBatchSize(4)
+				.setInferTypes(true);
+		assertEquals(21, loader.load(
+				new ByteArrayInputStream(nt.toString().getBytes("UTF-8")),
+				Lang.NTRIPLES));
+		assertEquals(21, bundle.getModel().size());
+		assertEquals(0, bundle.getDuplicateCount());
+	}
+
+	@Test
+	public void testTurtleIntoStore() throws Exception {
+		String turtle = "@prefix prov: <" + ProvO.ns + "> .\n" + "<"
+				+ entityUri2 + "> prov:wasGeneratedBy <" + activityUri
+				+ "> ; prov:wasDerivedFrom <" + entityUri + "> .\n";
+		JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		ProvenanceLoader loader = new ProvenanceLoader(utils);
+		assertEquals(2, loader.load(
+				new ByteArrayInputStream(turtle.getBytes("UTF-8")), Lang.TURTLE));
+
+		ProvSparqlGetter getter = new ProvSparqlGetter(utils);
+		assertEquals(activityUri, getter.getWasGeneratedBy(entityUri2)
+				.iterator().next());
+		assertEquals(entityUri, getter.getWasDerivedFrom(entityUri2)
+				.iterator().next());
+	}
+
+	@Test
+	public void testBinaryExportReload() throws Exception {
+		ProvenanceBundle bundle = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		bundle.createActivity(activityUri);
+		bundle.createEntity(entityUri);
+		bundle.addUsed(activityUri, entityUri);
+		File file = folder.newFile("prov.rdfb.gz");
+		OutputStream out = new FileOutputStream(file);
+		bundle.write(out, RdfFormat.BINARY, true);
+		out.close();
+
+		ProvenanceBundle copy = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		assertEquals(3, new ProvenanceLoader(copy).load(file));
+		assertTrue(copy.getModel().isIsomorphicWith(bundle.getModel()));
+		assertTrue(copy.addWasGeneratedBy(entityUri, activityUri));
+	}
+}
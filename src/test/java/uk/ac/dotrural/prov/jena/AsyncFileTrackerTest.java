@@ -0,0 +1,82 @@
+package uk.ac.dotrural.prov.jena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.dotrural.prov.jena.Tracker.Level;
+
+/**
+ * Tests the {@link AsyncFileTracker}
+ */
+public class AsyncFileTrackerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWritesEnabledLevels() throws Exception {
+		File file = folder.newFile("tracker.log");
+		AsyncFileTracker tracker = new AsyncFileTracker(file, Level.LOG, 100);
+		assertFalse(tracker.isEnabled(Level.DEBUG));
+		assertTrue(tracker.isEnabled(Level.LOG));
+		assertTrue(tracker.isEnabled(Level.ERROR));
+
+		tracker.debug("not written");
+		for (int i = 0; i < 50; i++) {
+			tracker.log("statement " + i);
+		}
+		tracker.error("failed");
+		tracker.close();
+
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		reader.close();
+		assertEquals(51, lines.size());
+		assertEquals("LOG statement 0", lines.get(0));
+		assertEquals("ERROR failed", lines.get(50));
+	}
+
+	@Test
+	public void testWriteFailureThrownByClose() throws Exception {
+		File full = new File("/dev/full");
+		Assume.assumeTrue(full.canWrite());
+		AsyncFileTracker tracker = new AsyncFileTracker(full, Level.LOG, 100);
+		tracker.log("not written");
+		try {
+			tracker.close();
+			fail("Expected the write failure");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testProvenanceBundleWithNoOpTracker() {
+		String ns = "http://www.example.com/";
+		ProvenanceBundle bundle = new ProvenanceBundle(ns,
+				NoOpTracker.INSTANCE);
+		String activity = bundle.createActivity();
+		String entity = bundle.createEntity();
+		assertTrue(bundle.addUsed(activity, entity));
+		assertFalse(bundle.addUsed(entity, activity));
+		assertEquals(3, bundle.getModel().size());
+	}
+}
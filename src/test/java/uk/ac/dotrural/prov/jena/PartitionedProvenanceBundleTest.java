@@ -0,0 +1,146 @@
+package uk.ac.dotrural.prov.jena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.io.RdfFormat;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+
+/**
+ * Tests the {@link PartitionedProvenanceBundle}
+ */
+public class PartitionedProvenanceBundleTest {
+
+	private static final String ns = "http://www.example.com/";
+
+	private PartitionedProvenanceBundle bundle;
+
+	@Before
+	public void setUp() throws Exception {
+		bundle = new PartitionedProvenanceBundle(ns, 8, NoOpTracker.INSTANCE);
+	}
+
+	@Test
+	public void testTypeChecksAcrossPartitions() {
+		List<String> activities = new ArrayList<String>();
+		List<String> entities = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			activities.add(bundle.createActivity());
+			entities.add(bundle.createEntity());
+		}
+		for (int i = 0; i < 20; i++) {
+			assertTrue(bundle.addUsed(activities.get(i), entities.get(19 - i)));
+			assertFalse(bundle.addUsed(entities.get(i), activities.get(i)));
+			assertTrue(bundle.addStartedAtTime(activities.get(i), 1000L * i));
+		}
+		assertTrue(bundle.hasType(activities.get(0), TypeIndex.ACTIVITY));
+		assertFalse(bundle.hasType(activities.get(0), TypeIndex.ENTITY));
+		assertEquals(80, bundle.size());
+
+		Model model = bundle.getModel();
+		assertEquals(80, model.size());
+		assertTrue(model.contains(model.createResource(activities.get(3)),
+				model.createProperty(ProvO.used),
+				model.createResource(entities.get(16))));
+	}
+
+	@Test
+	public void testConcurrentWrites() throws Exception {
+		final int threads = 4;
+		final int perThread = 500;
+		final AtomicInteger failures = new AtomicInteger();
+		final String agent = bundle.createAgent();
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			writers.add(new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < perThread; i++) {
+						String activity = bundle.createActivity();
+						String entity = bundle.createEntity();
+						if (!bundle.addUsed(activity, entity)
+								|| !bundle.addWasAssociatedWith(activity, agent)) {
+							failures.incrementAndGet();
+						}
+					}
+				}
+			}));
+		}
+		for (Thread writer : writers) {
+			writer.start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertEquals(0, failures.get());
+		assertEquals(1 + threads * perThread * 4, bundle.size());
+	}
+
+	@Test
+	public void testReadsWhileWriting() throws Exception {
+		final String activity = bundle.createActivity();
+		final AtomicInteger failures = new AtomicInteger();
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 5000; i++) {
+					if (!bundle.addUsed(activity, bundle.createEntity())) {
+						failures.incrementAndGet();
+					}
+				}
+			}
+		});
+		writer.start();
+		Model model = bundle.getModel();
+		Node used = Node.createURI(ProvO.used);
+		while (writer.isAlive()) {
+			bundle.find(Node.createURI(activity), used, Node.ANY);
+			model.listStatements(null, model.createProperty(ProvO.used),
+					(RDFNode) null).toList();
+		}
+		writer.join();
+		assertEquals(0, failures.get());
+		assertEquals(5000,
+				bundle.find(Node.createURI(activity), used, Node.ANY).size());
+		assertEquals(5000, bundle.find(Node.ANY, used, Node.ANY).size());
+		assertEquals(5000, model.listStatements(null,
+				model.createProperty(ProvO.used), (RDFNode) null).toList()
+				.size());
+	}
+
+	@Test
+	public void testWriteMergesPartitions() throws Exception {
+		String activity = bundle.createActivity();
+		for (int i = 0; i < 10; i++) {
+			bundle.addUsed(activity, bundle.createEntity());
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(21, bundle.write(out, RdfFormat.NTRIPLES, false));
+		Model model = ModelFactory.createDefaultModel();
+		RDFDataMgr.read(model, new ByteArrayInputStream(out.toByteArray()),
+				Lang.NTRIPLES);
+		assertEquals(21, model.size());
+
+		out = new ByteArrayOutputStream();
+		bundle.write(out);
+		model = ModelFactory.createDefaultModel();
+		model.read(new ByteArrayInputStream(out.toByteArray()), null);
+		assertTrue(model.isIsomorphicWith(bundle.getModel()));
+	}
+}
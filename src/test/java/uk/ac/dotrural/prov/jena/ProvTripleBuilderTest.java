@@ -0,0 +1,68 @@
+package uk.ac.dotrural.prov.jena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+
+/**
+ * Tests that triples created by the {@link ProvTripleBuilder} can be read back
+ * through the {@link ProvSparqlGetter}
+ */
+public class ProvTripleBuilderTest {
+
+	private JenaSparqlUtils utils;
+	private ProvenanceGetter getter;
+	private ProvTripleBuilder builder;
+	private static final String ns = "http://www.example.com/";
+	private static final String agentUri = ns + "agent/jamesBond";
+	private static final String entityUri = ns + "entity/coolGadget";
+	private static final String entityUri2 = ns + "entity/report";
+	private static final String activityUri = ns + "activity/snooping";
+
+	@Before
+	public void setUp() throws Exception {
+		this.utils = new JenaSparqlUtils();
+		this.getter = new ProvSparqlGetter(this.utils);
+		this.builder = new ProvTripleBuilder(ns);
+	}
+
+	@Test
+	public void testRelations() {
+		builder.createActivity(activityUri);
+		builder.createEntity(entityUri);
+		builder.addUsed(activityUri, entityUri);
+		builder.addWasAssociatedWith(activityUri, agentUri);
+		builder.addWasGeneratedBy(entityUri2, activityUri);
+		builder.addWasDerivedFrom(entityUri2, entityUri);
+		assertEquals(6, builder.getTriples().size());
+		utils.performTripleUpdates(builder.getTriples());
+		builder.clearTriples();
+		assertTrue(builder.getTriples().isEmpty());
+
+		Collection<String> results = getter.getUsed(activityUri);
+		assertTrue(results.size() == 1);
+		assertEquals(results.iterator().next(), entityUri);
+		results = getter.getWasAssociatedWith(activityUri);
+		assertEquals(results.iterator().next(), agentUri);
+		results = getter.getWasGeneratedBy(entityUri2);
+		assertEquals(results.iterator().next(), activityUri);
+		results = getter.getWasDerivedFrom(entityUri2);
+		assertEquals(results.iterator().next(), entityUri);
+	}
+
+	@Test
+	public void testStartedAtTime() {
+		long start = System.currentTimeMillis();
+		builder.addStartedAtTime(activityUri, start);
+		utils.performTripleUpdates(builder.getTriples());
+		assertEquals(start, getter.getStartedAtTime(activityUri));
+	}
+}
@@ -0,0 +1,308 @@
+package uk.ac.dotrural.prov.jena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.system.StreamRDFLib;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.io.BinaryRdfReader;
+import uk.ac.dotrural.prov.io.RdfFormat;
+import uk.ac.dotrural.prov.io.WriteAheadLog.SyncPolicy;
+import uk.ac.dotrural.prov.sparql.JenaSparqlUtils;
+import uk.ac.dotrural.prov.sparql.ProvSparqlGetter;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDF;
+
+/**
+ * Tests the {@link ProvenanceBundle}
+ */
+public class ProvenanceBundleTest {
+
+	private static final String ns = "http://www.example.com/";
+
+	private ProvenanceBundle bundle;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		bundle = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+	}
+
+	@Test
+	public void testTypesChangedThroughModel() {
+		String activity = ns + "activity";
+		String entity = ns + "entity";
+		Model model = bundle.getModel();
+		Resource entityResource = model.createResource(entity);
+		model.add(model.createResource(activity), RDF.type,
+				model.createResource(ProvO.Activity));
+		model.add(entityResource, RDF.type, model.createResource(ProvO.Entity));
+		assertTrue(bundle.addUsed(activity, entity));
+
+		model.remove(entityResource, RDF.type,
+				model.createResource(ProvO.Entity));
+		assertFalse(bundle.addWasGeneratedBy(entity, activity));
+
+		bundle.createEntity(entity);
+		assertTrue(bundle.addWasGeneratedBy(entity, activity));
+		model.removeAll();
+		assertFalse(bundle.addWasGeneratedBy(entity, activity));
+	}
+
+	@Test
+	public void testRebuildTypeIndex() {
+		String agent = ns + "agent";
+		// performAdd adds the type without notifying the index
+		GraphBase base = (GraphBase) bundle.getModel().getBaseModel()
+				.getGraph();
+		base.performAdd(Triple.create(Node.createURI(agent),
+				RDF.type.asNode(), Node.createURI(ProvO.Agent)));
+		assertFalse(bundle.addActedOnBehalfOf(agent, agent));
+		bundle.rebuildTypeIndex();
+		assertTrue(bundle.addActedOnBehalfOf(agent, agent));
+	}
+
+	@Test
+	public void testTimestampsReadByGetter() {
+		String activity = bundle.createActivity();
+		long start = 1361361961250L;
+		bundle.addStartedAtTime(activity, start);
+		ProvSparqlGetter getter = new ProvSparqlGetter(new JenaSparqlUtils(
+				bundle.getModel()));
+		assertEquals(start, getter.getStartedAtTime(activity));
+	}
+
+	@Test
+	public void testStreamingExport() throws Exception {
+		String activity = bundle.createActivity();
+		String entity = bundle.createEntity();
+		bundle.addUsed(activity, entity);
+		bundle.addStartedAtTime(activity, 1000L);
+		Model expected = bundle.getModel().getBaseModel();
+
+		for (RdfFormat format : RdfFormat.values()) {
+			for (boolean gzip : new boolean[] { false, true }) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				assertEquals(4, bundle.write(out, format, gzip));
+				Model read = read(out.toByteArray(), format, gzip);
+				assertTrue(format + " gzip " + gzip,
+						read.isIsomorphicWith(expected));
+			}
+		}
+	}
+
+	@Test
+	public void testRemoveActivitiesEndedBefore() {
+		String agent = bundle.createAgent();
+		String shared = bundle.createEntity();
+		for (int i = 0; i < 10; i++) {
+			String activity = bundle.createActivity();
+			bundle.addEndedAtTime(activity, 1000L * i);
+			bundle.addWasAssociatedWith(activity, agent);
+			bundle.addUsed(activity, shared);
+			bundle.addUsed(activity, bundle.createEntity());
+		}
+		assertEquals(2 + 10 * 6, bundle.getModel().size());
+
+		// 5 triples about each activity and the type of the entity only it used
+		assertEquals(18, bundle.removeActivitiesEndedBefore(5000L, 3));
+		assertEquals(12, bundle.removeActivitiesEndedBefore(5000L, 3));
+		assertEquals(0, bundle.removeActivitiesEndedBefore(5000L, 3));
+		assertEquals(2 + 5 * 6, bundle.getModel().size());
+		assertTrue(bundle.getModel().contains(bundle.getResource(shared),
+				RDF.type, bundle.getResource(ProvO.Entity)));
+		assertTrue(bundle.addWasAttributedTo(shared, agent));
+	}
+
+	@Test
+	public void testSnapshotRestore() throws Exception {
+		String activity = bundle.createActivity();
+		String entity = bundle.createEntity();
+		bundle.addUsed(activity, entity);
+		bundle.addStartedAtTime(activity, 1361361961250L);
+		Model model = bundle.getModel();
+		Resource resource = model.createResource(entity);
+		model.add(resource, RDF.value, "a label", "en");
+		model.add(resource, RDF.value, "plain");
+		model.add(resource, RDF.value, model.createResource());
+
+		File file = new File(folder.getRoot(), "bundle.snapshot");
+		assertEquals(7, bundle.snapshot(file));
+		// a second snapshot replaces the first
+		assertEquals(7, bundle.snapshot(file));
+
+		ProvenanceBundle restored = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		assertEquals(7, restored.restore(file));
+		assertTrue(restored.getModel().isIsomorphicWith(model));
+		// types are indexed from the restored triples
+		assertTrue(restored.addWasGeneratedBy(entity, activity));
+		assertEquals(1361361961250L, new ProvSparqlGetter(new JenaSparqlUtils(
+				restored.getModel())).getStartedAtTime(activity));
+	}
+
+	@Test
+	public void testWriteAheadLog() throws Exception {
+		File snapshot = new File(folder.getRoot(), "bundle.snapshot");
+		File log = new File(folder.getRoot(), "bundle.log");
+		assertEquals(0, bundle.openLog(log, SyncPolicy.ALWAYS));
+		String activity = bundle.createActivity();
+		String entity = bundle.createEntity();
+		bundle.addUsed(activity, entity);
+		// assertions are written once per batch
+		assertEquals(0, log.length());
+		bundle.sync();
+		assertTrue(log.length() > 0);
+		assertEquals(3, bundle.snapshot(snapshot));
+		assertEquals(0, log.length());
+
+		String old = bundle.createActivity();
+		bundle.addEndedAtTime(old, 1000L);
+		String generated = bundle.createEntity();
+		bundle.addWasGeneratedBy(generated, activity);
+		assertEquals(2, bundle.removeActivitiesEndedBefore(2000L, 10));
+		// a record torn by a crash while it was being written
+		OutputStream out = new FileOutputStream(log, true);
+		out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 1, 1 });
+		out.close();
+
+		ProvenanceBundle restored = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		assertEquals(3, restored.restore(snapshot));
+		assertEquals(6, restored.openLog(log, SyncPolicy.ALWAYS));
+		assertTrue(restored.getModel().isIsomorphicWith(bundle.getModel()));
+		// types are indexed from the replayed triples
+		assertTrue(restored.addUsed(activity, generated));
+		bundle.closeLog();
+		restored.closeLog();
+
+		ProvenanceBundle reopened = new ProvenanceBundle(ns, NoOpTracker.INSTANCE);
+		reopened.restore(snapshot);
+		assertEquals(7, reopened.openLog(log, SyncPolicy.NONE));
+		assertTrue(reopened.getModel().isIsomorphicWith(restored.getModel()));
+		reopened.closeLog();
+	}
+
+	@Test
+	public void testDuplicateAssertions() throws Exception {
+		String activity = bundle.createActivity();
+		long checkpoint = bundle.checkpoint();
+		for (int run = 0; run < 3; run++) {
+			bundle.createAgent(ns + "sharedAgent");
+			assertTrue(bundle.addWasAssociatedWith(activity, ns + "sharedAgent"));
+			bundle.addStartedAtTime(activity, 1361361961250L);
+		}
+		assertEquals(6, bundle.getDuplicateCount());
+		assertEquals(4, bundle.getModel().size());
+		// repeated assertions are not journaled again
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(3, bundle.writeSince(checkpoint, out, RdfFormat.NTRIPLES, false));
+	}
+
+	@Test
+	public void testWriteSinceCheckpoint() throws Exception {
+		String activity = bundle.createActivity();
+		long checkpoint = bundle.checkpoint();
+		String entity = bundle.createEntity();
+		bundle.addUsed(activity, entity);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(2, bundle.writeSince(checkpoint, out, RdfFormat.NTRIPLES, false));
+		Model read = read(out.toByteArray(), RdfFormat.NTRIPLES, false);
+		assertEquals(2, read.size());
+		assertTrue(read.contains(read.createResource(activity),
+				read.createProperty(ProvO.used), read.createResource(entity)));
+
+		long next = bundle.checkpoint();
+		bundle.releaseCheckpoint(next);
+		out.reset();
+		assertEquals(0, bundle.writeSince(next, out, RdfFormat.BINARY, false));
+	}
+
+	@Test
+	public void testWriteSinceSkipsRepeatedTriples() throws Exception {
+		String activity = bundle.createActivity();
+		long checkpoint = bundle.checkpoint();
+		List<Triple> triples = new ArrayList<Triple>();
+		for (int i = 0; i < 5; i++) {
+			triples.add(Triple.create(Node.createURI(activity),
+					Node.createURI(ProvO.used), Node.createURI(ns + "entity" + i)));
+		}
+		bundle.addTriples(triples);
+		bundle.addTriples(triples);
+		assertEquals(5, bundle.getDuplicateCount());
+		Graph graph = bundle.getModel().getBaseModel().getGraph();
+		graph.delete(triples.get(0));
+		graph.add(triples.get(0));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(5, bundle.writeSince(checkpoint, out, RdfFormat.NTRIPLES, false));
+		// writing releases the journal before the checkpoint
+		long next = bundle.checkpoint();
+		bundle.createEntity();
+		assertEquals(1, bundle.writeSince(next, out, RdfFormat.NTRIPLES, false));
+		try {
+			bundle.writeSince(checkpoint, out, RdfFormat.NTRIPLES, false);
+			fail("Released checkpoint was written");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testJournalLimit() throws Exception {
+		bundle.setJournalLimit(4);
+		long checkpoint = bundle.checkpoint();
+		for (int i = 0; i < 10; i++) {
+			bundle.createEntity();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			bundle.writeSince(checkpoint, out, RdfFormat.NTRIPLES, false);
+			fail("Checkpoint beyond the journal limit was written");
+		} catch (IllegalArgumentException e) {
+		}
+		long next = bundle.checkpoint();
+		bundle.createEntity();
+		bundle.createEntity();
+		assertEquals(2, bundle.writeSince(next, out, RdfFormat.NTRIPLES, false));
+	}
+
+	private static Model read(byte[] bytes, RdfFormat format, boolean gzip)
+			throws Exception {
+		InputStream in = new ByteArrayInputStream(bytes);
+		if (gzip)
+			in = new GZIPInputStream(in);
+		Model model = ModelFactory.createDefaultModel();
+		if (format == RdfFormat.BINARY)
+			BinaryRdfReader.read(in, StreamRDFLib.graph(model.getGraph()));
+		else
+			RDFDataMgr.read(model, in, format == RdfFormat.NTRIPLES ? Lang.NTRIPLES : Lang.NQUADS);
+		return model;
+	}
+}
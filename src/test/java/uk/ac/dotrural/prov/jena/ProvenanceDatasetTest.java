@@ -0,0 +1,107 @@
+package uk.ac.dotrural.prov.jena;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.io.RdfFormat;
+
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+
+/**
+ * Tests the {@link ProvenanceDataset}
+ */
+public class ProvenanceDatasetTest {
+
+	private static final String ns = "http://www.example.com/";
+	private static final String job1 = ns + "bundle/job1";
+	private static final String job2 = ns + "bundle/job2";
+
+	private ProvenanceDataset dataset;
+
+	@Before
+	public void setUp() throws Exception {
+		dataset = new ProvenanceDataset(ns, DatasetFactory.createMem(),
+				NoOpTracker.INSTANCE);
+	}
+
+	@Test
+	public void testBundlesAreSeparate() {
+		ProvenanceBundle bundle1 = dataset.getBundle(job1);
+		assertSame(bundle1, dataset.getBundle(job1));
+		String activity = bundle1.createActivity();
+		String entity = bundle1.createEntity();
+		assertTrue(bundle1.addUsed(activity, entity));
+
+		ProvenanceBundle bundle2 = dataset.getBundle(job2);
+		// types are scoped to the bundle
+		assertFalse(bundle2.addUsed(activity, entity));
+		String activity2 = bundle2.createActivity();
+		bundle2.createEntity(entity);
+		assertTrue(bundle2.addUsed(activity2, entity));
+
+		ProvenanceGetter getter1 = dataset.getGetter(job1);
+		assertSame(getter1, dataset.getGetter(job1));
+		assertEquals(Arrays.asList(entity), getter1.getUsed(activity));
+		assertTrue(getter1.getUsed(activity2).isEmpty());
+		assertEquals(Arrays.asList(activity2), dataset.getGetter(job2)
+				.getUsedBy(entity));
+		assertTrue(dataset.getGetter(ns + "bundle/unknown").getUsed(activity)
+				.isEmpty());
+		assertEquals(new HashSet<String>(Arrays.asList(job1, job2)),
+				new HashSet<String>(dataset.getBundleUris()));
+	}
+
+	@Test
+	public void testDeleteBundle() {
+		ProvenanceBundle bundle1 = dataset.getBundle(job1);
+		bundle1.addUsed(bundle1.createActivity(), bundle1.createEntity());
+		ProvenanceBundle bundle2 = dataset.getBundle(job2);
+		String activity = bundle2.createActivity();
+		String entity = bundle2.createEntity();
+		bundle2.addUsed(activity, entity);
+
+		ProvenanceGetter getter1 = dataset.getGetter(job1);
+		assertTrue(dataset.deleteBundle(job1));
+		assertFalse(dataset.deleteBundle(job1));
+		assertNotSame(getter1, dataset.getGetter(job1));
+		assertFalse(dataset.containsBundle(job1));
+		assertTrue(dataset.containsBundle(job2));
+		assertEquals(Arrays.asList(job2), dataset.getBundleUris());
+		assertEquals(Arrays.asList(entity), dataset.getGetter(job2)
+				.getUsed(activity));
+		assertEquals(3, dataset.getDataset().getNamedModel(job2).size());
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		ProvenanceBundle bundle1 = dataset.getBundle(job1);
+		bundle1.addUsed(bundle1.createActivity(), bundle1.createEntity());
+		ProvenanceBundle bundle2 = dataset.getBundle(job2);
+		bundle2.createAgent();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(3, dataset.write(job1, out, RdfFormat.NQUADS, false));
+		Dataset read = DatasetFactory.createMem();
+		RDFDataMgr.read(read, new ByteArrayInputStream(out.toByteArray()),
+				Lang.NQUADS);
+		assertEquals(3, read.getNamedModel(job1).size());
+
+		out = new ByteArrayOutputStream();
+		assertEquals(4, dataset.write(out, RdfFormat.NQUADS, true));
+	}
+}
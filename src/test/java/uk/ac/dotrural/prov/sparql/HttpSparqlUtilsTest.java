@@ -0,0 +1,209 @@
+package uk.ac.dotrural.prov.sparql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ProvenanceGetter;
+
+import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.ResultSetFormatter;
+import com.hp.hpl.jena.sparql.engine.http.QueryExceptionHTTP;
+import com.hp.hpl.jena.update.UpdateAction;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests the {@link HttpSparqlUtils} against an embedded SPARQL server backed by
+ * an in memory dataset
+ */
+public class HttpSparqlUtilsTest {
+
+	private static final String ns = "http://www.example.com/";
+	private static final String entityUri = ns + "entity/coolGadget";
+	private static final String entityUri2 = ns + "entity/report";
+	private static final String activityUri = ns + "activity/snooping";
+
+	private HttpServer server;
+	private Dataset dataset;
+	private AtomicInteger updateRequests;
+	private AtomicInteger failures;
+	private String endpoint;
+
+	@Before
+	public void setUp() throws Exception {
+		dataset = DatasetFactory.createMem();
+		updateRequests = new AtomicInteger();
+		failures = new AtomicInteger();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/query", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (failed(exchange)) {
+					return;
+				}
+				String form = read(exchange.getRequestBody());
+				String query = URLDecoder.decode(
+						form.substring(form.indexOf("query=") + 6), "UTF-8");
+				ByteArrayOutputStream tsv = new ByteArrayOutputStream();
+				synchronized (dataset) {
+					QueryExecution execution = QueryExecutionFactory.create(
+							query, dataset);
+					ResultSetFormatter.outputAsTSV(tsv, execution.execSelect());
+					execution.close();
+				}
+				exchange.getResponseHeaders().set("Content-Type",
+						"text/tab-separated-values; charset=utf-8");
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream out = new GZIPOutputStream(
+						exchange.getResponseBody());
+				out.write(tsv.toByteArray());
+				out.close();
+			}
+		});
+		server.createContext("/update", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				if (failed(exchange)) {
+					return;
+				}
+				updateRequests.incrementAndGet();
+				String update = read(exchange.getRequestBody());
+				synchronized (dataset) {
+					UpdateAction.parseExecute(update, dataset);
+				}
+				exchange.sendResponseHeaders(204, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+		endpoint = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		server.stop(0);
+	}
+
+	@Test
+	public void testBuilderAndGetter() {
+		HttpSparqlUtils utils = new HttpSparqlUtils(endpoint + "/query",
+				endpoint + "/update");
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns, 10);
+		for (int i = 0; i < 15; i++) {
+			builder.addUsed(activityUri, ns + "entity/" + i);
+		}
+		builder.addWasGeneratedBy(entityUri2, activityUri);
+		builder.addWasDerivedFrom(entityUri2, entityUri);
+		builder.addStartedAtTime(activityUri, 1361361961250L);
+		assertEquals(2, builder.getUpdates().size());
+		utils.performUpdates(builder.getUpdates());
+		assertEquals(1, updateRequests.get());
+
+		ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		assertEquals(15, getter.getUsed(activityUri).size());
+		Map<String, Collection<String>> used = getter.getUsed(Arrays.asList(
+				activityUri, entityUri));
+		assertEquals(15, used.get(activityUri).size());
+		assertTrue(used.get(entityUri).isEmpty());
+		assertEquals(1361361961250L, getter.getStartedAtTime(activityUri));
+		assertEquals(Long.MIN_VALUE, getter.getEndedAtTime(activityUri));
+		assertEquals(Arrays.asList(activityUri),
+				getter.getActivitiesStartedBetween(0, Long.MAX_VALUE, 0, 10));
+		assertEquals(5, getter.getObjects(activityUri, ProvO.used, 10, 10)
+				.size());
+
+		Lineage lineage = getter.getLineage(entityUri2, 3, 100,
+				Lineage.BACKWARD);
+		assertEquals(17, lineage.size());
+		assertEquals(2, lineage.getDepth(ns + "entity/3"));
+		assertTrue(!lineage.isTruncated());
+		lineage = getter.getLineage(entityUri2, 3, 5, Lineage.BACKWARD);
+		assertEquals(5, lineage.size());
+		assertTrue(lineage.isTruncated());
+		utils.close();
+	}
+
+	@Test
+	public void testStopReadingEarly() {
+		// a single connection, so a connection not released would block
+		HttpSparqlUtils utils = new HttpSparqlUtils(endpoint + "/query",
+				endpoint + "/update", 1, 5000, 0, 1);
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		for (int i = 0; i < 50; i++) {
+			builder.addWasDerivedFrom(entityUri, ns + "entity/" + i);
+		}
+		utils.performUpdates(builder.getUpdates());
+
+		ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		for (int i = 0; i < 3; i++) {
+			Lineage lineage = getter.getLineage(entityUri, 1, 5,
+					Lineage.BACKWARD);
+			assertEquals(5, lineage.size());
+			assertTrue(lineage.isTruncated());
+		}
+		assertEquals(50, getter.getLineage(entityUri, 1, 100,
+				Lineage.BACKWARD).size());
+		utils.close();
+	}
+
+	@Test
+	public void testRetry() {
+		HttpSparqlUtils utils = new HttpSparqlUtils(endpoint + "/query",
+				endpoint + "/update", 2, 5000, 2, 1);
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		builder.addUsed(activityUri, entityUri);
+		failures.set(2);
+		utils.performUpdates(builder.getUpdates());
+		assertEquals(1, updateRequests.get());
+
+		failures.set(3);
+		try {
+			utils.performQuerySting("SELECT ?s WHERE {?s ?p ?o}");
+			fail("Expected failure after retries");
+		} catch (QueryExceptionHTTP e) {
+			assertEquals(503, e.getResponseCode());
+		}
+		utils.close();
+	}
+
+	private boolean failed(HttpExchange exchange) throws IOException {
+		if (failures.getAndDecrement() > 0) {
+			read(exchange.getRequestBody());
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return true;
+		}
+		return false;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+			out.write(buffer, 0, n);
+		}
+		return out.toString("UTF-8");
+	}
+}
@@ -0,0 +1,375 @@
+package uk.ac.dotrural.prov.sparql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.ac.dotrural.prov.ProvO;
+import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.XsdDateTime;
+import uk.ac.dotrural.prov.io.WriteAheadLog.SyncPolicy;
+import uk.ac.dotrural.prov.jena.TimeIndex;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * Tests the storage backends supported by {@link JenaSparqlUtils}
+ */
+public class JenaSparqlUtilsTest {
+
+	private static final String ns = "http://www.example.com/";
+	private static final String entityUri = ns + "entity/coolGadget";
+	private static final String activityUri = ns + "activity/snooping";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testInMemory() {
+		assertStoresUsed(JenaSparqlUtils.createInMemory());
+	}
+
+	@Test
+	public void testSuppliedModel() {
+		Model model = ModelFactory.createDefaultModel();
+		JenaSparqlUtils utils = new JenaSparqlUtils(model);
+		assertStoresUsed(utils);
+		assertEquals(1, model.size());
+	}
+
+	@Test
+	public void testTdbPersists() throws Exception {
+		String directory = folder.newFolder("tdb").getAbsolutePath();
+		JenaSparqlUtils utils = JenaSparqlUtils.createTdb(directory);
+		assertStoresUsed(utils);
+		utils.close();
+
+		utils = JenaSparqlUtils.createTdb(directory);
+		Collection<String> results = new ProvSparqlGetter(utils)
+				.getUsed(activityUri);
+		assertTrue(results.size() == 1);
+		assertEquals(results.iterator().next(), entityUri);
+		utils.close();
+	}
+
+	@Test
+	public void testTdbTimeRange() throws Exception {
+		String directory = folder.newFolder("tdbTime").getAbsolutePath();
+		JenaSparqlUtils utils = JenaSparqlUtils.createTdb(directory);
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		builder.addStartedAtTime(activityUri, 1000000000000L);
+		utils.performUpdates(builder.getUpdates());
+		ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		assertEquals(1, getter.getActivitiesStartedBetween(0, Long.MAX_VALUE,
+				0, 10).size());
+
+		builder.clearUpdates();
+		builder.addStartedAtTime(ns + "activity/later", 2000000000000L);
+		utils.performUpdates(builder.getUpdates());
+		assertEquals(2, getter.getActivitiesStartedBetween(0, Long.MAX_VALUE,
+				0, 10).size());
+		utils.close();
+	}
+
+	@Test
+	public void testTimeRangeCursor() throws Exception {
+		JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		for (int i = 0; i < 5; i++) {
+			builder.addStartedAtTime(ns + "activity/" + i, 1000L * (i % 3));
+		}
+		utils.performUpdates(builder.getUpdates());
+
+		List<String> uris = new ArrayList<String>();
+		TimeIndex.Timestamp after = null;
+		List<TimeIndex.Timestamp> page;
+		do {
+			page = utils.performTimeRangeQuery(ProvO.startedAtTime, 0, 5000,
+					after, 2);
+			for (TimeIndex.Timestamp timestamp : page) {
+				uris.add(timestamp.getUri());
+			}
+			if (!page.isEmpty()) {
+				after = page.get(page.size() - 1);
+			}
+		} while (page.size() == 2);
+		assertEquals(utils.performTimeRangeQuery(ProvO.startedAtTime, 0, 5000,
+				0, 10), uris);
+		assertEquals(5, uris.size());
+		utils.close();
+	}
+
+	@Test
+	public void testTimeIndexKeepsLiteralsOfTheSameMillisecond()
+			throws Exception {
+		JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		Node activity = Node.createURI(activityUri);
+		Node started = Node.createURI(ProvO.startedAtTime);
+		Triple utc = Triple.create(activity, started, Node.createLiteral(
+				"1970-01-01T00:00:01Z", null, XSDDatatype.XSDdateTime));
+		Triple offset = Triple.create(activity, started, Node.createLiteral(
+				"1970-01-01T01:00:01+01:00", null, XSDDatatype.XSDdateTime));
+		utils.performTripleUpdates(Arrays.asList(utc, offset));
+		assertEquals(Arrays.asList(activityUri, activityUri),
+				utils.performTimeRangeQuery(ProvO.startedAtTime, 0, 5000, 0, 10));
+
+		utils.getModel().getGraph().delete(utc);
+		assertEquals(Arrays.asList(activityUri),
+				utils.performTimeRangeQuery(ProvO.startedAtTime, 0, 5000, 0, 10));
+		utils.close();
+	}
+
+	@Test
+	public void testTdbTimeIndexFollowsWrites() throws Exception {
+		String directory = folder.newFolder("tdbTimeWrites").getAbsolutePath();
+		JenaSparqlUtils utils = JenaSparqlUtils.createTdb(directory);
+		ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		String started = "<" + ProvO.startedAtTime + ">";
+		String later = ns + "activity/later";
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		builder.addStartedAtTime(activityUri, 1000L);
+		utils.performUpdates(builder.getUpdates());
+		assertEquals(Arrays.asList(activityUri),
+				getter.getActivitiesStartedBetween(0, 5000, 0, 10));
+
+		utils.performTripleUpdates(Arrays.asList(Triple.create(
+				Node.createURI(later), Node.createURI(ProvO.startedAtTime),
+				Node.createLiteral(XsdDateTime.format(2000L), null,
+						XSDDatatype.XSDdateTime))));
+		assertEquals(Arrays.asList(activityUri, later),
+				getter.getActivitiesStartedBetween(0, 5000, 0, 10));
+
+		utils.performUpdates(Arrays.asList("DELETE { <" + activityUri + "> "
+				+ started + " ?t } INSERT { <" + activityUri + "> " + started
+				+ " \"" + XsdDateTime.format(3000L) + "\"^^<"
+				+ XsdDateTime.DATATYPE + "> } WHERE { <" + activityUri + "> "
+				+ started + " ?t }"));
+		assertEquals(Arrays.asList(later, activityUri),
+				getter.getActivitiesStartedBetween(0, 5000, 0, 10));
+
+		utils.performUpdates(Arrays.asList("DELETE WHERE { <" + later + "> "
+				+ started + " ?t }"));
+		assertEquals(Arrays.asList(activityUri),
+				getter.getActivitiesStartedBetween(0, 5000, 0, 10));
+
+		utils.performUpdates(Arrays.asList("CLEAR DEFAULT"));
+		assertEquals(0, getter.getActivitiesStartedBetween(0, 5000, 0, 10)
+				.size());
+		utils.close();
+	}
+
+	@Test
+	public void testSnapshotToTdb() throws Exception {
+		JenaSparqlUtils utils = new JenaSparqlUtils();
+		assertStoresUsed(utils);
+		File file = folder.newFile("store.snapshot");
+		assertEquals(1, utils.snapshot(file));
+
+		JenaSparqlUtils tdb = JenaSparqlUtils.createTdb(folder.newFolder(
+				"tdbSnapshot").getAbsolutePath());
+		assertEquals(1, tdb.restore(file));
+		assertEquals(Arrays.asList(entityUri),
+				new ProvSparqlGetter(tdb).getUsed(activityUri));
+		tdb.close();
+	}
+
+	@Test
+	public void testWriteAheadLogReplaysClear() throws Exception {
+		File log = new File(folder.getRoot(), "clear.log");
+		JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		utils.openLog(log, SyncPolicy.ALWAYS);
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns, 10);
+		builder.addUsed(activityUri, entityUri);
+		builder.addUsed(activityUri, ns + "entity/other");
+		utils.performUpdates(builder.getUpdates());
+		utils.performUpdates(Arrays.asList("CLEAR DEFAULT"));
+		builder.clearUpdates();
+		builder.addUsed(activityUri, entityUri);
+		builder.addUsed(activityUri, ns + "entity/third");
+		utils.performUpdates(builder.getUpdates());
+		// a pattern removal
+		utils.getModel().removeAll(
+				utils.getModel().createResource(activityUri), null,
+				utils.getModel().createResource(entityUri));
+		utils.getLog().sync();
+		assertEquals(1, countTriples(utils));
+		utils.closeLog();
+
+		JenaSparqlUtils restarted = JenaSparqlUtils.createInMemory();
+		restarted.openLog(log, SyncPolicy.ALWAYS);
+		assertEquals(1, countTriples(restarted));
+		assertEquals(Arrays.asList(ns + "entity/third"),
+				new ProvSparqlGetter(restarted).getUsed(activityUri));
+		restarted.closeLog();
+	}
+
+	@Test
+	public void testWriteAheadLog() throws Exception {
+		File snapshot = new File(folder.getRoot(), "store.snapshot");
+		File log = new File(folder.getRoot(), "store.log");
+		final JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		assertEquals(0, utils.openLog(log, SyncPolicy.ALWAYS));
+		assertRetention(utils);
+		assertEquals(6, utils.snapshot(snapshot));
+		assertEquals(0, log.length());
+
+		// writers finishing together share a sync of the log
+		long syncs = utils.getLog().getSyncCount();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			futures.add(executor.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					for (int i = 0; i < 25; i++) {
+						utils.performTripleUpdates(Arrays.asList(Triple.create(
+								Node.createURI(activityUri),
+								Node.createURI(ns + "used"),
+								Node.createURI(ns + "entity/" + thread + "_" + i))));
+					}
+					return true;
+				}
+			}));
+		}
+		for (Future<Boolean> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		assertTrue(utils.getLog().getSyncCount() - syncs < 100);
+		// the recent activity and the two entities it referenced
+		assertEquals(6, utils.removeActivitiesEndedBefore(10000L, 10));
+		assertEquals(100, countTriples(utils));
+
+		JenaSparqlUtils restarted = JenaSparqlUtils.createInMemory();
+		assertEquals(6, restarted.restore(snapshot));
+		assertEquals(106, restarted.openLog(log, SyncPolicy.ALWAYS));
+		assertEquals(100, countTriples(restarted));
+		utils.closeLog();
+		restarted.closeLog();
+	}
+
+	@Test
+	public void testRetention() {
+		assertRetention(new JenaSparqlUtils());
+	}
+
+	@Test
+	public void testTdbRetention() throws Exception {
+		String directory = folder.newFolder("tdbRetention").getAbsolutePath();
+		JenaSparqlUtils utils = JenaSparqlUtils.createTdb(directory);
+		assertRetention(utils);
+		utils.close();
+	}
+
+	@Test
+	public void testConcurrentReadsAndWrites() throws Exception {
+		final JenaSparqlUtils utils = JenaSparqlUtils.createInMemory();
+		final ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		final int batches = 50;
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		futures.add(executor.submit(new Callable<Integer>() {
+			public Integer call() {
+				ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(
+						ns, 10);
+				for (int i = 0; i < batches; i++) {
+					for (int j = 0; j < 10; j++) {
+						builder.addUsed(activityUri, ns + "entity/" + i + "_"
+								+ j);
+					}
+					utils.performUpdates(builder.getUpdates());
+					builder.clearUpdates();
+				}
+				return batches * 10;
+			}
+		}));
+		for (int t = 0; t < 3; t++) {
+			futures.add(executor.submit(new Callable<Integer>() {
+				public Integer call() {
+					int reads = 0;
+					for (int i = 0; i < 200; i++) {
+						getter.getUsed(activityUri);
+						reads++;
+					}
+					return reads;
+				}
+			}));
+		}
+		for (Future<Integer> future : futures) {
+			// rethrows any exception raised by a reader or the writer
+			future.get();
+		}
+		executor.shutdown();
+		assertEquals(batches * 10, getter.getUsed(activityUri).size());
+	}
+
+	private void assertRetention(JenaSparqlUtils utils) {
+		String old1 = ns + "activity/old1";
+		String old2 = ns + "activity/old2";
+		String recent = ns + "activity/recent";
+		String shared = ns + "entity/shared";
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		for (String activity : new String[] { old1, old2, recent }) {
+			builder.createActivity(activity);
+		}
+		builder.addEndedAtTime(old1, 1000L);
+		builder.addEndedAtTime(old2, 2000L);
+		builder.addEndedAtTime(recent, 5000L);
+		builder.addUsed(old1, builder.createEntity(ns + "entity/usedByOld1"));
+		builder.addUsed(old1, builder.createEntity(shared));
+		builder.addWasGeneratedBy(builder.createEntity(ns + "entity/fromOld1"),
+				old1);
+		builder.addWasInformedBy(old2, old1);
+		String fromRecent = builder.createEntity(ns + "entity/fromRecent");
+		builder.addUsed(old2, fromRecent);
+		builder.addWasGeneratedBy(fromRecent, recent);
+		builder.addUsed(recent, shared);
+		utils.performUpdates(builder.getUpdates());
+		ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		assertEquals(17, countTriples(utils));
+
+		// old1, the triples referring to it and the two entities only it
+		// referenced
+		assertEquals(8, utils.removeActivitiesEndedBefore(3000L, 1));
+		assertEquals(3, utils.removeActivitiesEndedBefore(3000L, 10));
+		assertEquals(0, utils.removeActivitiesEndedBefore(3000L, 10));
+		assertEquals(6, countTriples(utils));
+		assertEquals(Arrays.asList(recent),
+				getter.getActivitiesEndedBetween(0, Long.MAX_VALUE, 0, 10));
+		assertEquals(Arrays.asList(shared), getter.getUsed(recent));
+		assertEquals(Arrays.asList(fromRecent), getter.getGenerated(recent));
+		assertTrue(getter.getUsed(old2).isEmpty());
+	}
+
+	private long countTriples(JenaSparqlUtils utils) {
+		return utils.performQueryLong(
+				"SELECT (COUNT(*) AS ?count) WHERE {?s ?p ?o}").longValue();
+	}
+
+	private void assertStoresUsed(JenaSparqlUtils utils) {
+		ProvSparqlUpdateBuilder builder = new ProvSparqlUpdateBuilder(ns);
+		ProvenanceGetter getter = new ProvSparqlGetter(utils);
+		builder.addUsed(activityUri, entityUri);
+		utils.performUpdates(builder.getUpdates());
+		Collection<String> results = getter.getUsed(activityUri);
+		assertTrue(results.size() == 1);
+		assertEquals(results.iterator().next(), entityUri);
+	}
+}
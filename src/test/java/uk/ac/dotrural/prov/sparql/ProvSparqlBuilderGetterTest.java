@@ -1,16 +1,25 @@
 package uk.ac.dotrural.prov.sparql;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import uk.ac.dotrural.prov.Lineage;
+import uk.ac.dotrural.prov.ProvO;
 import uk.ac.dotrural.prov.ProvenanceGetter;
+import uk.ac.dotrural.prov.ResultHandler;
 
 /**
  * A test class that combines testing the {@link ProvSparqlGetter} and
@@ -60,8 +69,6 @@ public class ProvSparqlBuilderGetterTest{
 		builder.addEndedAtTime(activityUri, end);
 		utils.performUpdates(builder.getUpdates());
 		long result = this.getter.getEndedAtTime(activityUri);
-		// time is stored to the second, not millisecond, so round end down
-		end = end - (end % 1000);
 		assertEquals(result, end);
 	}
 
@@ -71,9 +78,6 @@ public class ProvSparqlBuilderGetterTest{
 		builder.addStartedAtTime(activityUri, start);
 		utils.performUpdates(builder.getUpdates());
 		long result = this.getter.getStartedAtTime(activityUri);
-		// time is stored to the second, not millisecond, so round start down
-		start = start - (start % 1000);
-
 		assertEquals(result, start);
 	}
 
@@ -138,4 +142,236 @@ public class ProvSparqlBuilderGetterTest{
 		assertEquals(it.next(), activityUri2);
 	}
 
+	@Test
+	public void testBatchedUpdates() {
+		ProvSparqlUpdateBuilder batchBuilder = new ProvSparqlUpdateBuilder(ns,
+				3);
+		batchBuilder.createActivity(activityUri);
+		batchBuilder.createEntity(entityUri);
+		batchBuilder.createEntity(entityUri2);
+		batchBuilder.addUsed(activityUri, entityUri);
+		batchBuilder.addUsed(activityUri, entityUri2);
+		batchBuilder.addWasGeneratedBy(entityUri3, activityUri);
+		batchBuilder.addWasInformedBy(activityUri, activityUri2);
+		Collection<String> updates = batchBuilder.getUpdates();
+		assertEquals(3, updates.size());
+		utils.performUpdates(updates);
+		assertEquals(2, this.getter.getUsed(activityUri).size());
+		Collection<String> results = this.getter.getWasGeneratedBy(entityUri3);
+		assertTrue(results.size() == 1);
+		assertEquals(results.iterator().next(), activityUri);
+		results = this.getter.getWasInformedBy(activityUri);
+		assertTrue(results.size() == 1);
+		assertEquals(results.iterator().next(), activityUri2);
+	}
+
+	@Test
+	public void testDuplicateTriples() {
+		ProvSparqlUpdateBuilder batchBuilder = new ProvSparqlUpdateBuilder(ns,
+				10);
+		for (int run = 0; run < 3; run++) {
+			batchBuilder.createAgent(agentUri1);
+			batchBuilder.addWasAssociatedWith(activityUri, agentUri1);
+		}
+		assertEquals(4, batchBuilder.getPendingDuplicates());
+		Collection<String> updates = batchBuilder.getUpdates();
+		assertEquals(1, updates.size());
+		utils.performUpdates(updates);
+		assertEquals(Arrays.asList(agentUri1),
+				this.getter.getWasAssociatedWith(activityUri));
+		batchBuilder.clearUpdates();
+		// without a recent triple capacity cleared triples are sent again
+		batchBuilder.createAgent(agentUri1);
+		assertEquals(1, batchBuilder.getUpdates().size());
+		assertEquals(0, batchBuilder.getRecentDuplicates());
+
+		ProvSparqlUpdateBuilder recentBuilder = new ProvSparqlUpdateBuilder(
+				ns, 10, 2);
+		// discarded triples are not remembered
+		recentBuilder.createAgent(agentUri1);
+		recentBuilder.clearUpdates();
+		recentBuilder.createAgent(agentUri1);
+		assertEquals(1, recentBuilder.getUpdates().size());
+		assertEquals(0, recentBuilder.getRecentDuplicates());
+		recentBuilder.markPerformed();
+		recentBuilder.createAgent(agentUri1);
+		assertTrue(recentBuilder.getUpdates().isEmpty());
+		assertEquals(1, recentBuilder.getRecentDuplicates());
+		// the least recently performed triple is forgotten
+		recentBuilder.createAgent(agentUri2);
+		recentBuilder.createEntity(entityUri);
+		recentBuilder.markPerformed();
+		recentBuilder.createAgent(agentUri1);
+		recentBuilder.createEntity(entityUri);
+		assertEquals(2, recentBuilder.getRecentDuplicates());
+		recentBuilder.clearRecent();
+		recentBuilder.clearUpdates();
+		recentBuilder.createEntity(entityUri);
+		assertEquals(1, recentBuilder.getUpdates().size());
+		assertEquals(0, recentBuilder.getPendingDuplicates());
+	}
+
+	@Test
+	public void testInverseLookups() {
+		builder.addUsed(activityUri, entityUri);
+		builder.addUsed(activityUri2, entityUri);
+		builder.addWasGeneratedBy(entityUri2, activityUri);
+		builder.addWasDerivedFrom(entityUri2, entityUri);
+		builder.addWasDerivedFrom(entityUri3, entityUri);
+		builder.addWasAssociatedWith(activityUri, agentUri1);
+		builder.addWasAttributedTo(entityUri3, agentUri1);
+		builder.addActedOnBehalfOf(agentUri1, agentUri2);
+		builder.addWasInformedBy(activityUri2, activityUri);
+		utils.performUpdates(builder.getUpdates());
+
+		Collection<String> results = this.getter.getUsedBy(entityUri);
+		assertEquals(2, results.size());
+		assertTrue(results.contains(activityUri));
+		assertTrue(results.contains(activityUri2));
+		assertEquals(Arrays.asList(entityUri2),
+				this.getter.getGenerated(activityUri));
+		results = this.getter.getDerivations(entityUri);
+		assertEquals(2, results.size());
+		assertTrue(results.contains(entityUri2));
+		assertTrue(results.contains(entityUri3));
+		assertEquals(Arrays.asList(activityUri),
+				this.getter.getAssociatedActivities(agentUri1));
+		assertEquals(Arrays.asList(entityUri3),
+				this.getter.getAttributed(agentUri1));
+		assertEquals(Arrays.asList(agentUri1),
+				this.getter.getActedOnBehalfOfBy(agentUri2));
+		assertEquals(Arrays.asList(activityUri2),
+				this.getter.getInformed(activityUri));
+		assertTrue(this.getter.getUsedBy(entityUri2).isEmpty());
+	}
+
+	@Test
+	public void testPagingAndStreaming() {
+		for (int i = 0; i < 25; i++) {
+			builder.addUsed(activityUri, ns + "entity/" + i);
+			builder.addUsed(ns + "activity/" + i, entityUri);
+		}
+		utils.performUpdates(builder.getUpdates());
+
+		List<String> all = new ArrayList<String>();
+		for (int offset = 0; offset < 30; offset += 10) {
+			List<String> page = this.getter.getObjects(activityUri,
+					ProvO.used, offset, 10);
+			assertEquals(offset < 20 ? 10 : 5, page.size());
+			all.addAll(page);
+		}
+		assertEquals(25, new HashSet<String>(all).size());
+		assertEquals(5, this.getter.getSubjects(entityUri, ProvO.used, 20, 10)
+				.size());
+
+		final List<String> streamed = new ArrayList<String>();
+		this.getter.forEachSubject(entityUri, ProvO.used, new ResultHandler() {
+			public boolean handle(String value) {
+				streamed.add(value);
+				return streamed.size() < 7;
+			}
+		});
+		assertEquals(7, streamed.size());
+		streamed.clear();
+		this.getter.forEachObject(activityUri, ProvO.used, new ResultHandler() {
+			public boolean handle(String value) {
+				return streamed.add(value);
+			}
+		});
+		assertEquals(new HashSet<String>(all), new HashSet<String>(streamed));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPagingUnknownRelation() {
+		this.getter.getObjects(activityUri, ns + "notARelation", 0, 10);
+	}
+
+	@Test
+	public void testBulkUsed() {
+		builder.addUsed(activityUri, entityUri);
+		builder.addUsed(activityUri, entityUri2);
+		builder.addUsed(activityUri2, entityUri3);
+		utils.performUpdates(builder.getUpdates());
+		String unknownUri = ns + "activity/unknown";
+		Map<String, Collection<String>> results = this.getter.getUsed(Arrays
+				.asList(activityUri, activityUri2, unknownUri));
+		assertEquals(3, results.size());
+		assertEquals(2, results.get(activityUri).size());
+		assertTrue(results.get(activityUri).contains(entityUri));
+		assertTrue(results.get(activityUri).contains(entityUri2));
+		assertEquals(1, results.get(activityUri2).size());
+		assertEquals(entityUri3, results.get(activityUri2).iterator().next());
+		assertTrue(results.get(unknownUri).isEmpty());
+	}
+
+	@Test
+	public void testLineage() {
+		// report <- gadget <- coolGadget, with a cycle back to the report
+		builder.addWasGeneratedBy(entityUri3, activityUri2);
+		builder.addUsed(activityUri2, entityUri2);
+		builder.addWasDerivedFrom(entityUri2, entityUri);
+		builder.addWasGeneratedBy(entityUri, activityUri);
+		builder.addUsed(activityUri, entityUri3);
+		utils.performUpdates(builder.getUpdates());
+
+		Lineage lineage = this.getter.getLineage(entityUri3, 10, 100,
+				Lineage.BACKWARD);
+		assertEquals(5, lineage.size());
+		assertFalse(lineage.isTruncated());
+		assertEquals(0, lineage.getDepth(entityUri3));
+		assertEquals(1, lineage.getDepth(activityUri2));
+		assertEquals(2, lineage.getDepth(entityUri2));
+		assertEquals(4, lineage.getDepth(activityUri));
+
+		lineage = this.getter.getLineage(entityUri3, 2, 100, Lineage.BACKWARD);
+		assertEquals(2, lineage.size());
+		assertEquals(-1, lineage.getDepth(entityUri));
+
+		lineage = this.getter.getLineage(entityUri3, 10, 3, Lineage.BACKWARD);
+		assertEquals(3, lineage.size());
+		assertTrue(lineage.isTruncated());
+	}
+
+	@Test
+	public void testLineageSkipsLiterals() {
+		builder.addWasDerivedFrom(entityUri3, entityUri2);
+		utils.performUpdates(builder.getUpdates());
+		utils.performUpdates(Arrays.asList("INSERT DATA { <" + entityUri2
+				+ "> <" + ProvO.wasDerivedFrom + "> \"notes\" }"));
+
+		// the literal reached after the limit is not a lineage edge
+		Lineage lineage = this.getter.getLineage(entityUri3, 10, 1,
+				Lineage.BACKWARD);
+		assertEquals(1, lineage.size());
+		assertFalse(lineage.isTruncated());
+	}
+
+	@Test
+	public void testActivitiesStartedBetween() {
+		long base = 1000000000000L;
+		for (int i = 0; i < 10; i++) {
+			builder.addStartedAtTime(ns + "activity/" + i, base + i * 1000);
+			builder.addEndedAtTime(ns + "activity/" + i, base + i * 1000 + 500);
+		}
+		utils.performUpdates(builder.getUpdates());
+
+		List<String> results = this.getter.getActivitiesStartedBetween(
+				base + 2000, base + 5000, 0, 100);
+		assertEquals(Arrays.asList(ns + "activity/2", ns + "activity/3",
+				ns + "activity/4"), results);
+		results = this.getter.getActivitiesStartedBetween(base, base + 10000,
+				3, 2);
+		assertEquals(Arrays.asList(ns + "activity/3", ns + "activity/4"),
+				results);
+		results = this.getter.getActivitiesEndedBetween(base + 9000,
+				base + 20000, 0, 100);
+		assertEquals(Arrays.asList(ns + "activity/9"), results);
+
+		builder.clearUpdates();
+		builder.addStartedAtTime(activityUri, base + 2500);
+		utils.performUpdates(builder.getUpdates());
+		assertEquals(4, this.getter.getActivitiesStartedBetween(base + 2000,
+				base + 5000, 0, 100).size());
+	}
+
 }